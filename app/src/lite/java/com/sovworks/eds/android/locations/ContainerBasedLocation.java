@@ -9,6 +9,7 @@ import com.sovworks.eds.android.errors.WrongPasswordOrBadContainerException;
 import com.sovworks.eds.android.helpers.ContainerOpeningProgressReporter;
 import com.sovworks.eds.android.settings.UserSettings;
 import com.sovworks.eds.container.ContainerFormatInfo;
+import com.sovworks.eds.container.ContainerOpeningHint;
 import com.sovworks.eds.container.EdsContainer;
 import com.sovworks.eds.container.VolumeLayout;
 import com.sovworks.eds.container.VolumeLayoutBase;
@@ -88,6 +89,16 @@ public class ContainerBasedLocation extends EDSLocationBase implements Container
             return _hashFuncName;
         }
 
+        public ContainerOpeningHint getOpeningHint()
+        {
+            return _openingHint;
+        }
+
+        public void setOpeningHint(ContainerOpeningHint hint)
+        {
+            _openingHint = hint;
+        }
+
 		@Override
         public void saveToJSONObject(JSONObject jo) throws JSONException
         {
@@ -95,6 +106,17 @@ public class ContainerBasedLocation extends EDSLocationBase implements Container
             jo.put(SETTINGS_CONTAINER_FORMAT, _containerFormatName);
             jo.put(SETTINGS_ENC_ENGINE, _encEngineName);
             jo.put(SETTINGS_HASH_FUNC, _hashFuncName);
+            jo.remove(SETTINGS_OPENING_HINT);
+            //The hint of a hidden volume reveals that the volume exists, so it is saved only if it can be encrypted
+            if(_openingHint != null && (!_openingHint.isHidden || canProtectFields()))
+            {
+                JSONObject hint = new JSONObject();
+                hint.put(SETTINGS_CONTAINER_FORMAT, _openingHint.formatName);
+                hint.put(SETTINGS_ENC_ENGINE, _openingHint.encEngineName);
+                hint.put(SETTINGS_HASH_FUNC, _openingHint.hashFuncName);
+                hint.put(SETTINGS_IS_HIDDEN, _openingHint.isHidden);
+                storeProtectedField(jo, SETTINGS_OPENING_HINT, hint.toString());
+            }
         }
 
         @Override
@@ -104,13 +126,28 @@ public class ContainerBasedLocation extends EDSLocationBase implements Container
             _containerFormatName = jo.optString(SETTINGS_CONTAINER_FORMAT, null);
             _encEngineName = jo.optString(SETTINGS_ENC_ENGINE, null);
             _hashFuncName = jo.optString(SETTINGS_HASH_FUNC, null);
+            _openingHint = null;
+            String data = loadProtectedString(jo, SETTINGS_OPENING_HINT);
+            if(data != null)
+            {
+                JSONObject hint = new JSONObject(data);
+                _openingHint = new ContainerOpeningHint(
+                        hint.optString(SETTINGS_CONTAINER_FORMAT, null),
+                        hint.optString(SETTINGS_ENC_ENGINE, null),
+                        hint.optString(SETTINGS_HASH_FUNC, null),
+                        hint.optBoolean(SETTINGS_IS_HIDDEN, false)
+                );
+            }
         }
 
         private static final String SETTINGS_CONTAINER_FORMAT = "container_format";
         private static final String SETTINGS_ENC_ENGINE = "encryption_engine";
         private static final String SETTINGS_HASH_FUNC = "hash_func";
+        private static final String SETTINGS_OPENING_HINT = "opening_hint";
+        private static final String SETTINGS_IS_HIDDEN = "is_hidden";
 
         private String _containerFormatName, _hashFuncName, _encEngineName;
+        private ContainerOpeningHint _openingHint;
     }
 
     public ContainerBasedLocation(Uri uri, LocationsManagerBase lm, Context context, Settings settings) throws Exception
@@ -157,6 +194,7 @@ public class ContainerBasedLocation extends EDSLocationBase implements Container
 		cnt.setEncryptionEngineHint(null);
 		cnt.setHashFuncHint(null);
 		cnt.setNumKDFIterations(0);
+		cnt.setOpeningHint(getExternalSettings().getOpeningHint());
 		if(_openingProgressReporter!=null)
 			cnt.setProgressReporter((ContainerOpeningProgressReporter) _openingProgressReporter);
 		ContainerFormatInfo cfi = getContainerFormatInfo();
@@ -181,6 +219,7 @@ public class ContainerBasedLocation extends EDSLocationBase implements Container
 		try
 		{
 			cnt.open(pass);
+			saveOpeningHint(cnt.getOpeningHint());
 		}
 		catch(WrongFileFormatException e)
 		{
@@ -294,6 +333,17 @@ public class ContainerBasedLocation extends EDSLocationBase implements Container
 		return new EdsContainer(getLocation().getCurrentPath());
 	}
 
+	/**
+	 * Remembers the combination which has opened the container, so that the next opening can skip the search
+	 */
+	protected void saveOpeningHint(ContainerOpeningHint hint)
+	{
+		if(hint == null || hint.equals(getExternalSettings().getOpeningHint()))
+			return;
+		getExternalSettings().setOpeningHint(hint);
+		saveExternalSettings();
+	}
+
 	protected ContainerFormatInfo getContainerFormatInfo()
 	{
 		String name = getExternalSettings().getContainerFormatName();
@@ -340,6 +390,7 @@ public class ContainerBasedLocation extends EDSLocationBase implements Container
 	@Override
 	protected FileSystem createBaseFS(boolean readOnly) throws IOException, UserException
 	{
+		getSharedData().container.setIOStats(getIOStats());
 		return getSharedData().container.getEncryptedFS(readOnly);
 	}
 }
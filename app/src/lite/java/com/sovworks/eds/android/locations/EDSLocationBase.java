@@ -11,6 +11,7 @@ import com.sovworks.eds.fs.FileSystem;
 import com.sovworks.eds.fs.Path;
 import com.sovworks.eds.fs.util.ActivityTrackingFSWrapper;
 import com.sovworks.eds.fs.util.ContainerFSWrapper;
+import com.sovworks.eds.fs.util.IOStats;
 import com.sovworks.eds.fs.util.StringPathUtil;
 import com.sovworks.eds.locations.EDSLocation;
 import com.sovworks.eds.locations.Location;
@@ -179,6 +180,12 @@ public abstract class EDSLocationBase extends OMLocationBase implements Cloneabl
 		return 0;
 	}
 
+	@Override
+	public IOStats getIOStats()
+	{
+		return getSharedData().ioStats;
+	}
+
 	@Override
 	public synchronized ContainerFSWrapper getFS() throws IOException
 	{
@@ -323,6 +330,7 @@ public abstract class EDSLocationBase extends OMLocationBase implements Cloneabl
 		public final InternalSettings internalSettings;
 		public final Location containerLocation;
 		public final Context context;
+		public volatile IOStats ioStats;
 	}
 
 	protected static final String LOCATION_URI_PARAM = "location";
@@ -380,6 +388,7 @@ public abstract class EDSLocationBase extends OMLocationBase implements Cloneabl
 
 	protected FileSystem createFS(boolean readOnly) throws IOException, UserException
 	{
+		getSharedData().ioStats = IOStats.ENABLE_IO_STATS ? new IOStats() : null;
 		FileSystem baseFS = createBaseFS(readOnly);
 		return new ContainerFSWrapper(baseFS);
 	}
@@ -2,6 +2,7 @@ package com.sovworks.eds.locations;
 
 
 import com.sovworks.eds.fs.util.ContainerFSWrapper;
+import com.sovworks.eds.fs.util.IOStats;
 
 import java.io.IOException;
 
@@ -26,6 +27,10 @@ public interface EDSLocation extends OMLocation
     void readInternalSettings() throws IOException;
     void writeInternalSettings() throws IOException;
     long getLastActivityTime();
+    /**
+     * Returns the I/O statistics of the opened location or null if they are not collected
+     */
+    IOStats getIOStats();
     Location getLocation();
     @Override
     ContainerFSWrapper getFS() throws IOException;
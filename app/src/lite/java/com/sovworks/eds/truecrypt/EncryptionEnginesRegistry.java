@@ -3,6 +3,7 @@ package com.sovworks.eds.truecrypt;
 import com.sovworks.eds.crypto.EncryptionEngine;
 import com.sovworks.eds.crypto.FileEncryptionEngine;
 import com.sovworks.eds.crypto.engines.AESXTS;
+import com.sovworks.eds.crypto.engines.AESXTSJCE;
 import com.sovworks.eds.crypto.engines.SerpentXTS;
 import com.sovworks.eds.crypto.engines.TwofishXTS;
 
@@ -22,7 +23,7 @@ public class EncryptionEnginesRegistry
 
     public static String getEncEngineName(EncryptionEngine eng)
     {
-        if(eng instanceof AESXTS)
+        if(eng instanceof AESXTS || eng instanceof AESXTSJCE)
             return "AES";
         if(eng instanceof SerpentXTS)
             return "Serpent";
@@ -13,7 +13,9 @@ import android.widget.Toast;
 import com.sovworks.eds.android.helpers.ExtendedFileInfoLoader;
 import com.sovworks.eds.android.providers.MainContentProvider;
 import com.sovworks.eds.android.settings.UserSettings;
+import com.sovworks.eds.container.EdsContainerBase;
 import com.sovworks.eds.crypto.SecureBuffer;
+import com.sovworks.eds.fs.util.IOStats;
 import com.sovworks.eds.locations.LocationsManager;
 import com.sovworks.eds.settings.SystemConfig;
 
@@ -164,6 +166,8 @@ public class EdsApplicationBase extends MultiDexApplication
 
 	protected void init(UserSettings settings)
 	{
+		IOStats.ENABLE_IO_STATS = settings.collectIOStats();
+		EdsContainerBase.setEngineBenchmarkStore(settings);
 		try
 		{
 			if(settings.disableDebugLog())
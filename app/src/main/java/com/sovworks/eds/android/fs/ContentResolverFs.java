@@ -13,6 +13,7 @@ import android.provider.MediaStore;
 import android.provider.OpenableColumns;
 import androidx.annotation.NonNull;
 
+import com.sovworks.eds.fs.FDFileSystem;
 import com.sovworks.eds.fs.FileSystem;
 import com.sovworks.eds.fs.RandomAccessIO;
 import com.sovworks.eds.fs.util.PFDRandomAccessIO;
@@ -27,7 +28,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 
-public class ContentResolverFs implements FileSystem 
+public class ContentResolverFs implements FileSystem, FDFileSystem
 {	
 	public static String getFileNameByUri(ContentResolver cr,Uri uri)
 	{
@@ -14,6 +14,7 @@ import android.text.TextUtils;
 
 import com.sovworks.eds.android.Logger;
 import com.sovworks.eds.android.service.FileOpsService;
+import com.sovworks.eds.fs.FDFileSystem;
 import com.sovworks.eds.fs.FileSystem;
 import com.sovworks.eds.fs.Path;
 import com.sovworks.eds.fs.RandomAccessIO;
@@ -34,7 +35,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 
 @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-public class DocumentTreeFS implements FileSystem
+public class DocumentTreeFS implements FileSystem, FDFileSystem
 {
     public DocumentTreeFS(Context context, Uri rootUri)
     {
@@ -135,6 +135,7 @@ public abstract class EncFsLocationBase extends EDSLocationBase
 	{
 		if(getSharedData().encFs == null)
 			throw new RuntimeException("File system is closed");
+		getSharedData().encFs.setIOStats(getIOStats());
 		return getSharedData().encFs;
 	}
 }
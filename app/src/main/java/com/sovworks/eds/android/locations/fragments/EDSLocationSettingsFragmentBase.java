@@ -27,6 +27,7 @@ import com.sovworks.eds.android.settings.container.SavePasswordPropertyEditor;
 import com.sovworks.eds.android.settings.container.UseExternalFileManagerPropertyEditor;
 import com.sovworks.eds.android.tasks.LoadLocationInfoTask;
 import com.sovworks.eds.crypto.SecureBuffer;
+import com.sovworks.eds.fs.util.IOStats;
 import com.sovworks.eds.locations.EDSLocation;
 import com.sovworks.eds.locations.Location;
 import com.sovworks.eds.locations.LocationsManager;
@@ -162,11 +163,16 @@ public abstract class EDSLocationSettingsFragmentBase extends PropertiesFragment
                 _propertiesView.setPropertiesState(Arrays.asList(
                         R.string.free_space, R.string.total_space
                 ), _location.isOpenOrMounted());
+                _propertiesView.setPropertyState(
+                        R.string.io_statistics,
+                        _location.isOpenOrMounted() && _location.getIOStats() != null
+                );
                 _propertiesView.loadProperties(Arrays.asList(
                         R.string.path_to_container,
                         R.string.uri_of_the_container,
                         R.string.free_space,
-                        R.string.total_space
+                        R.string.total_space,
+                        R.string.io_statistics
                         ),
                         null
                 );
@@ -297,6 +303,17 @@ public abstract class EDSLocationSettingsFragmentBase extends PropertiesFragment
                 return Formatter.formatFileSize(getHost().getContext(), _locationInfo.freeSpace);
             }
         }));
+        ids.add(_propertiesView.addProperty(new StaticPropertyEditor(this, R.string.io_statistics)
+        {
+            @Override
+            protected String loadText()
+            {
+                IOStats stats = _location.getIOStats();
+                if (!_location.isOpenOrMounted() || stats == null)
+                    return "";
+                return stats.toString();
+            }
+        }));
     }
 
     protected void createPasswordProperties(Collection<Integer> ids)
@@ -369,6 +386,7 @@ public abstract class EDSLocationSettingsFragmentBase extends PropertiesFragment
 	{
 		_propertiesView.setPropertyState(R.string.free_space, enabled && _locationInfo!=null);
 		_propertiesView.setPropertyState(R.string.total_space, enabled && _locationInfo!=null);
+		_propertiesView.setPropertyState(R.string.io_statistics, enabled && _location.getIOStats()!=null);
 		_propertiesView.setPropertyState(R.string.change_container_password, enabled);
         _propertiesView.setPropertyState(R.string.internal_container_settings, !enabled);
 	}
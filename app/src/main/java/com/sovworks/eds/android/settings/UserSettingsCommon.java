@@ -5,9 +5,11 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
+import android.os.Build;
 
 import com.sovworks.eds.android.EdsApplication;
 import com.sovworks.eds.android.helpers.Util;
+import com.sovworks.eds.container.EdsContainerBase;
 import com.sovworks.eds.crypto.SecureBuffer;
 import com.sovworks.eds.crypto.SimpleCrypto;
 import com.sovworks.eds.settings.GlobalConfig;
@@ -19,7 +21,7 @@ import java.security.SecureRandom;
 import java.util.List;
 
 @SuppressLint({"CommitPrefEdits", "ApplySharedPref"})
-public abstract class UserSettingsCommon implements SettingsCommon
+public abstract class UserSettingsCommon implements SettingsCommon, EdsContainerBase.EngineBenchmarkStore
 {
 	public static final String LOCATION_SETTINGS_PREFIX= "location_settings_";
 	public static final String LOCATIONS_LIST = "locations_list";
@@ -38,6 +40,9 @@ public abstract class UserSettingsCommon implements SettingsCommon
 	public static final String IMAGE_VIEWER_AUTO_ZOOM_ENABLED = "image_viewer_auto_zoom_enabled";
 	public static final String NEVER_SAVE_HISTORY = "never_save_history";
 	public static final String DISABLE_DEBUG_LOG = "disable_debug_log";
+	public static final String COLLECT_IO_STATS = "collect_io_stats";
+	public static final String JCE_AES_XTS_FASTER = "jce_aes_xts_faster";
+	public static final String ENGINE_BENCHMARK_DEVICE = "engine_benchmark_device";
 	public static final String VISITED_HINT_SECTIONS = "visited_hint_sections";
 	public static final String DISABLE_HINTS = "disable_hints";
 	public static final String DISABLE_MODIFIED_FILES_BACKUP = "disable_modified_files_backup";
@@ -221,6 +226,30 @@ public abstract class UserSettingsCommon implements SettingsCommon
 	{		
 		return _prefs.getBoolean(DISABLE_DEBUG_LOG, _defaultSettings.disableDebugLog());
 	}
+
+	@Override
+	public boolean collectIOStats()
+	{
+		return _prefs.getBoolean(COLLECT_IO_STATS, _defaultSettings.collectIOStats());
+	}
+
+	@Override
+	public Boolean isJCEAESXTSFaster()
+	{
+		//The result is valid for the build it has been measured on
+		if(!_prefs.contains(JCE_AES_XTS_FASTER) || !Build.FINGERPRINT.equals(_prefs.getString(ENGINE_BENCHMARK_DEVICE, null)))
+			return null;
+		return _prefs.getBoolean(JCE_AES_XTS_FASTER, false);
+	}
+
+	@Override
+	public void setJCEAESXTSFaster(boolean val)
+	{
+		SharedPreferences.Editor e = _prefs.edit();
+		e.putBoolean(JCE_AES_XTS_FASTER, val);
+		e.putString(ENGINE_BENCHMARK_DEVICE, Build.FINGERPRINT);
+		e.commit();
+	}
 	
 	@Override
 	public List<String> getVisitedHintSections()
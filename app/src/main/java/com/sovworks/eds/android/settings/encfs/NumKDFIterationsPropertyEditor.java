@@ -1,6 +1,8 @@
 package com.sovworks.eds.android.settings.encfs;
 
 import android.app.Fragment;
+import android.view.View;
+import android.view.ViewGroup;
 
 import com.sovworks.eds.android.R;
 import com.sovworks.eds.android.settings.IntPropertyEditor;
@@ -25,16 +27,30 @@ public class NumKDFIterationsPropertyEditor extends IntPropertyEditor
         return (PropertiesHostWithStateBundle) super.getHost();
     }
 
+    @Override
+    public View createView(ViewGroup parent)
+    {
+        View view = super.createView(parent);
+        //The number of iterations is calibrated to the device if it's not set
+        _selectedValueTextView.setHint(R.string.kdf_iterations_auto);
+        return view;
+    }
+
     @Override
     protected int loadValue()
     {
-        return getHost().getState().getInt(Openable.PARAM_KDF_ITERATIONS, 100000);
+        return getHost().getState().getInt(Openable.PARAM_KDF_ITERATIONS, 0);
     }
 
 
     @Override
     protected void saveValue(int value)
     {
+        if(value <= 0)
+        {
+            getHost().getState().remove(Openable.PARAM_KDF_ITERATIONS);
+            return;
+        }
         if(value < 1000)
             value = 1000;
         getHost().getState().putInt(Openable.PARAM_KDF_ITERATIONS, value);
@@ -23,6 +23,7 @@ import com.sovworks.eds.android.settings.UserSettings;
 import com.sovworks.eds.android.settings.program.ExtFileManagerPropertyEditor;
 import com.sovworks.eds.android.settings.program.InstallExFatModulePropertyEditor;
 import com.sovworks.eds.crypto.SecureBuffer;
+import com.sovworks.eds.fs.util.IOStats;
 import com.sovworks.eds.fs.util.PathUtil;
 import com.sovworks.eds.locations.Location;
 import com.sovworks.eds.locations.LocationsManager;
@@ -33,6 +34,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import static com.sovworks.eds.android.settings.UserSettingsCommon.COLLECT_IO_STATS;
 import static com.sovworks.eds.android.settings.UserSettingsCommon.DISABLE_DEBUG_LOG;
 import static com.sovworks.eds.android.settings.UserSettingsCommon.DISABLE_MODIFIED_FILES_BACKUP;
 import static com.sovworks.eds.android.settings.UserSettingsCommon.DISABLE_WIDE_SCREEN_LAYOUTS;
@@ -350,6 +352,21 @@ public abstract class ProgramSettingsFragmentBase extends PropertiesFragmentBase
                     }
             }
         }));
+        commonPropertiesIds.add(getPropertiesView().addProperty(new SwitchPropertyEditor(this, R.string.collect_io_statistics, R.string.collect_io_statistics_desc)
+        {
+            @Override
+            protected boolean loadValue()
+            {
+                return _settings.collectIOStats();
+            }
+
+            @Override
+            protected void saveValue(boolean value)
+            {
+                editSettings().putBoolean(COLLECT_IO_STATS, value).commit();
+                IOStats.ENABLE_IO_STATS = value;
+            }
+        }));
         commonPropertiesIds.add(getPropertiesView().addProperty(new SwitchPropertyEditor(this, R.string.disable_modified_files_backup, 0)
         {
             @Override
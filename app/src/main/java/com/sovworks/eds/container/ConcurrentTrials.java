@@ -0,0 +1,155 @@
+package com.sovworks.eds.container;
+
+import com.sovworks.eds.android.helpers.ContainerOpeningProgressReporter;
+
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread pool shared by the concurrent header and key slot trials. Trials started from a trial thread
+ * run sequentially, so the key slots of a header tried by HeaderTrialScheduler don't multiply the threads.
+ * The key derivation of a trial runs on the trial thread as well.
+ */
+public final class ConcurrentTrials
+{
+	/**
+	 * Returns the number of threads which should be used to run the trials
+	 * @param numTrials number of trials
+	 * @return 1 if the trials should be run sequentially by the calling thread
+	 */
+	public static int getNumThreads(int numTrials)
+	{
+		if(Thread.currentThread() instanceof TrialThread)
+			return 1;
+		return Math.min(numTrials, Runtime.getRuntime().availableProcessors());
+	}
+
+	public static synchronized ExecutorService getExecutor()
+	{
+		if(_executor == null)
+		{
+			int n = Runtime.getRuntime().availableProcessors();
+			ThreadPoolExecutor exec = new ThreadPoolExecutor(n, n, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), TrialThread::new);
+			exec.allowCoreThreadTimeOut(true);
+			_executor = exec;
+		}
+		return _executor;
+	}
+
+	/**
+	 * Waits for all the trials. Keeps the interrupt status.
+	 * Future.cancel is not used since a cancelled future doesn't wait for its running task. The trials
+	 * must check the cancellation flag set by the caller, so the ones which haven't started yet return at once.
+	 */
+	public static void waitForAll(Collection<? extends Future<?>> futures)
+	{
+		boolean interrupted = false;
+		for(Future<?> f: futures)
+		{
+			while(true)
+			{
+				try
+				{
+					f.get();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+				catch (ExecutionException | CancellationException e)
+				{
+					break;
+				}
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Progress reporter of a single trial. Forwards the texts to the common reporter under the lock shared by the trials.
+	 */
+	public static abstract class TrialProgressReporter implements ContainerOpeningProgressReporter
+	{
+		protected TrialProgressReporter(ContainerOpeningProgressReporter base, Object lock)
+		{
+			_base = base;
+			_lock = lock;
+		}
+
+		@Override
+		public void setCurrentKDFName(String name)
+		{
+			synchronized (_lock)
+			{
+				if (_base != null)
+					_base.setCurrentKDFName(name);
+			}
+		}
+
+		@Override
+		public void setCurrentEncryptionAlgName(String name)
+		{
+			synchronized (_lock)
+			{
+				if (_base != null)
+					_base.setCurrentEncryptionAlgName(name);
+			}
+		}
+
+		@Override
+		public void setContainerFormatName(String name)
+		{
+			synchronized (_lock)
+			{
+				if (_base != null)
+					_base.setContainerFormatName(name);
+			}
+		}
+
+		@Override
+		public void setIsHidden(boolean val)
+		{
+			synchronized (_lock)
+			{
+				if (_base != null)
+					_base.setIsHidden(val);
+			}
+		}
+
+		@Override
+		public void setText(CharSequence text)
+		{
+			synchronized (_lock)
+			{
+				if (_base != null)
+					_base.setText(text);
+			}
+		}
+
+		protected final ContainerOpeningProgressReporter _base;
+		protected final Object _lock;
+	}
+
+	private static class TrialThread extends Thread
+	{
+		TrialThread(Runnable r)
+		{
+			super(r, "ConcurrentTrial");
+			setDaemon(true);
+		}
+	}
+
+	private static ExecutorService _executor;
+
+	private ConcurrentTrials()
+	{
+	}
+}
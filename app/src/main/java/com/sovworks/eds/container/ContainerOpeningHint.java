@@ -0,0 +1,53 @@
+package com.sovworks.eds.container;
+
+/**
+ * Container format, encryption engine, hash function and header type which have been used to open
+ * the container last time. The combination is tried first when the container is opened again.
+ */
+public class ContainerOpeningHint
+{
+	public ContainerOpeningHint(String formatName, String encEngineName, String hashFuncName, boolean isHidden)
+	{
+		this.formatName = formatName;
+		this.encEngineName = encEngineName;
+		this.hashFuncName = hashFuncName;
+		this.isHidden = isHidden;
+	}
+
+	public final String formatName;
+	public final String encEngineName;
+	public final String hashFuncName;
+	public final boolean isHidden;
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if(!(o instanceof ContainerOpeningHint))
+			return false;
+		ContainerOpeningHint h = (ContainerOpeningHint) o;
+		return isHidden == h.isHidden &&
+				equals(formatName, h.formatName) &&
+				equals(encEngineName, h.encEngineName) &&
+				equals(hashFuncName, h.hashFuncName);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int res = formatName == null ? 0 : formatName.hashCode();
+		res = 31*res + (encEngineName == null ? 0 : encEngineName.hashCode());
+		res = 31*res + (hashFuncName == null ? 0 : hashFuncName.hashCode());
+		return 31*res + (isHidden ? 1 : 0);
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s %s %s%s", formatName, encEngineName, hashFuncName, isHidden ? " (hidden)" : "");
+	}
+
+	private static boolean equals(String a, String b)
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+}
@@ -6,20 +6,28 @@ import com.sovworks.eds.android.R;
 import com.sovworks.eds.android.errors.UserException;
 import com.sovworks.eds.android.helpers.ContainerOpeningProgressReporter;
 import com.sovworks.eds.crypto.EncryptedFileWithCache;
-import com.sovworks.eds.crypto.EncryptionEngine;
+import com.sovworks.eds.crypto.EncryptionEngineBenchmark;
+import com.sovworks.eds.crypto.EncryptionEngineException;
 import com.sovworks.eds.crypto.FileEncryptionEngine;
 import com.sovworks.eds.crypto.LocalEncryptedFileXTS;
+import com.sovworks.eds.crypto.engines.AESXTS;
+import com.sovworks.eds.crypto.engines.AESXTSJCE;
 import com.sovworks.eds.crypto.modes.XTS;
 import com.sovworks.eds.exceptions.ApplicationException;
 import com.sovworks.eds.exceptions.WrongFileFormatException;
+import com.sovworks.eds.fs.FDFileSystem;
 import com.sovworks.eds.fs.File.AccessMode;
 import com.sovworks.eds.fs.FileSystem;
 import com.sovworks.eds.fs.Path;
 import com.sovworks.eds.fs.RandomAccessIO;
 import com.sovworks.eds.fs.exfat.ExFat;
 import com.sovworks.eds.fs.fat.FatFS;
+import com.sovworks.eds.fs.std.MappedFileIO;
 import com.sovworks.eds.fs.std.StdFs;
 import com.sovworks.eds.fs.std.StdFsPath;
+import com.sovworks.eds.fs.util.FDRandomAccessIO;
+import com.sovworks.eds.fs.util.IOStats;
+import com.sovworks.eds.fs.util.TransRandomAccessIO;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -31,6 +39,13 @@ import java.util.List;
 
 public abstract class EdsContainerBase implements Closeable
 {
+	/**
+	 * Access the containers stored in the local file system through memory mapped windows.
+	 * Enable it only if no other process can truncate the container files, e.g. if they are in the app's internal storage.
+	 * Truncating a mapped file or removing the storage crashes the process. Used in 64-bit processes only.
+	 */
+	public static boolean ENABLE_MAPPED_IO = false;
+
 
 	public static ContainerFormatInfo findFormatByName(List<ContainerFormatInfo> supportedFormats, String name)
 	{
@@ -85,10 +100,24 @@ public abstract class EdsContainerBase implements Closeable
 	}
 	
 	public static final short COMPATIBLE_TC_VERSION = 0x700;
+
+	/**
+	 * Try all the container formats, hash functions and hidden/normal headers concurrently
+	 */
+	public static boolean ENABLE_CONCURRENT_HEADER_TRIAL = true;
 	
 	public synchronized void open(byte[] password) throws IOException, ApplicationException
 	{
 		Logger.debug("Opening container at " + _pathToContainer.getPathString());
+		_isHidden = false;
+		if(_openingHint != null && tryOpeningHint(password))
+			return;
+		if(ENABLE_CONCURRENT_HEADER_TRIAL)
+		{
+			if(tryLayoutsConcurrently(password))
+				return;
+			throw new WrongFileFormatException();
+		}
 		RandomAccessIO t = openFile();
 		try
 		{
@@ -120,11 +149,26 @@ public abstract class EdsContainerBase implements Closeable
 	{
 		if(_layout == null)
 			throw new IOException("The container is closed");
-		EncryptionEngine enc = _layout.getEngine();
-		return allowLocalXTS() ?
-				new LocalEncryptedFileXTS(_pathToContainer.getPathString(), isReadOnly, _layout.getEncryptedDataOffset(), (XTS)enc)
-				:
-				new EncryptedFileWithCache(_pathToContainer,isReadOnly ? AccessMode.Read : AccessMode.ReadWrite,_layout);
+		AccessMode mode = isReadOnly ? AccessMode.Read : AccessMode.ReadWrite;
+		if(allowLocalXTS())
+		{
+			XTS xts = (XTS)_layout.getEngine();
+			if(isLocalStdFsPath())
+				return new LocalEncryptedFileXTS(
+						_pathToContainer.getPathString(),
+						isReadOnly,
+						_layout.getEncryptedDataOffset(),
+						_layout.getFirstSectorIndex(),
+						xts
+				);
+			RandomAccessIO io = openLocalXTSFile(mode, xts);
+			if(io != null)
+				return io;
+		}
+		selectFastestEngine();
+		if(allowMappedIO())
+			return new EncryptedFileWithCache(new MappedFileIO(((StdFsPath)_pathToContainer).getJavaFile(), mode), _layout);
+		return new EncryptedFileWithCache(_pathToContainer, mode, _layout);
 	}
 
 	public synchronized FileSystem getEncryptedFS(boolean isReadOnly) throws IOException, UserException
@@ -133,6 +177,8 @@ public abstract class EdsContainerBase implements Closeable
 		{
 			RandomAccessIO io = getEncryptedFile(isReadOnly);
 			_fileSystem = loadFileSystem(io, isReadOnly);
+			if(_fileSystem instanceof FatFS)
+				((FatFS) _fileSystem).setIOStats(_ioStats);
 		}
 		return _fileSystem;
 	}
@@ -188,6 +234,33 @@ public abstract class EdsContainerBase implements Closeable
 		_messageDigest = hf;
 	}
 
+	/**
+	 * Sets the combination which is tried before the full search
+	 * @param hint hint returned by getOpeningHint after the previous successful opening or null
+	 */
+	public void setOpeningHint(ContainerOpeningHint hint)
+	{
+		_openingHint = hint;
+	}
+
+	/**
+	 * Returns the format, engine, hash function and header type of the opened container
+	 * @return opening hint or null if the container is not open
+	 */
+	public ContainerOpeningHint getOpeningHint()
+	{
+		if(_layout == null || _containerFormat == null)
+			return null;
+		FileEncryptionEngine ee = _layout.getEngine();
+		MessageDigest md = _layout.getHashFunc();
+		return new ContainerOpeningHint(
+				_containerFormat.getFormatName(),
+				ee == null ? null : VolumeLayoutBase.getEncEngineName(ee),
+				md == null ? null : md.getAlgorithm(),
+				_isHidden
+		);
+	}
+
 	public void setNumKDFIterations(int num)
 	{
 		_numKDFIterations = num;
@@ -198,10 +271,28 @@ public abstract class EdsContainerBase implements Closeable
 		_progressReporter = r;
 	}
 
+	/**
+	 * Sets the statistics of the encrypted file and the file system. Should be called before the file system is loaded.
+	 * The native XTS file and the exFAT module don't report their I/O.
+	 */
+	public void setIOStats(IOStats stats)
+	{
+		_ioStats = stats;
+	}
+
+	public IOStats getIOStats()
+	{
+		return _ioStats;
+	}
+
 	public RandomAccessIO getEncryptedFile(boolean isReadOnly) throws IOException
 	{
 		if(_encryptedFile == null)
+		{
 			_encryptedFile = initEncryptedFile(isReadOnly);
+			if(_encryptedFile instanceof TransRandomAccessIO)
+				((TransRandomAccessIO) _encryptedFile).setIOStats(_ioStats);
+		}
 		return  _encryptedFile;
 	}
 
@@ -212,9 +303,12 @@ public abstract class EdsContainerBase implements Closeable
 	protected ContainerFormatInfo _containerFormat;
 	protected final Path _pathToContainer;
 	protected ContainerOpeningProgressReporter _progressReporter;
+	protected IOStats _ioStats;
 	protected FileEncryptionEngine _encryptionEngine;
 
 	protected MessageDigest _messageDigest;
+	protected ContainerOpeningHint _openingHint;
+	protected boolean _isHidden;
 
 	protected abstract List<ContainerFormatInfo> getFormats();
 
@@ -223,8 +317,13 @@ public abstract class EdsContainerBase implements Closeable
 		return _pathToContainer.getFile().getRandomAccessIO(AccessMode.Read);
 	}
 
-	protected boolean tryLayout(RandomAccessIO containerFile, byte[] password, boolean isHidden) throws IOException, ApplicationException
+	/**
+	 * Returns the formats to try ordered by the opening priority. Too slow formats are skipped.
+	 */
+	protected List<ContainerFormatInfo> getFormatsToTry()
 	{
+		if(_containerFormat != null)
+			return Collections.singletonList(_containerFormat);
 		List<ContainerFormatInfo> cfs = getFormats();
 		if(cfs.size()>1)
 			Collections.sort(cfs, new Comparator<ContainerFormatInfo>()
@@ -236,12 +335,159 @@ public abstract class EdsContainerBase implements Closeable
 				}
 
 			});
-		
+		List<ContainerFormatInfo> res = new ArrayList<>();
 		for(ContainerFormatInfo cf: cfs)
-		{
 			//Don't try too slow container formats
-			if(cf.getOpeningPriority() < 0)			
-				continue;
+			if(cf.getOpeningPriority() >= 0)
+				res.add(cf);
+		return res;
+	}
+
+	protected boolean tryLayoutsConcurrently(byte[] password) throws IOException, ApplicationException
+	{
+		HeaderTrialScheduler scheduler = new HeaderTrialScheduler(_progressReporter);
+		List<ContainerFormatInfo> cfs = getFormatsToTry();
+		for(boolean isHidden: new boolean[]{false, true})
+			for(ContainerFormatInfo cf: cfs)
+				addHeaderTrialCandidates(scheduler, cf, isHidden);
+		HeaderTrialScheduler.Candidate c = scheduler.run((cand, reporter) -> tryCandidate(cand, password, reporter));
+		if(c == null)
+			return false;
+		_containerFormat = c.format;
+		_layout = c.layout;
+		_isHidden = c.isHidden;
+		return true;
+	}
+
+	/**
+	 * Tries the combination which has been used to open the container last time.
+	 * Costs a single key derivation. Explicitly set format, engine and hash function take precedence over the hint.
+	 */
+	protected boolean tryOpeningHint(byte[] password) throws IOException
+	{
+		ContainerOpeningHint hint = _openingHint;
+		if(_containerFormat != null && !_containerFormat.getFormatName().equals(hint.formatName))
+			return false;
+		ContainerFormatInfo cf = _containerFormat != null ? _containerFormat : findFormatByName(getFormats(), hint.formatName);
+		if(cf == null || (hint.isHidden && !cf.hasHiddenContainerSupport()))
+			return false;
+		Logger.debug("Trying the opening hint: " + hint);
+		VolumeLayout vl = hint.isHidden ? cf.getHiddenVolumeLayout() : cf.getVolumeLayout();
+		String encEngineName = _encryptionEngine != null ? VolumeLayoutBase.getEncEngineName(_encryptionEngine) : hint.encEngineName;
+		if(encEngineName != null)
+		{
+			FileEncryptionEngine ee = (FileEncryptionEngine) VolumeLayoutBase.findEncEngineByName(vl.getSupportedEncryptionEngines(), encEngineName);
+			if(ee == null)
+				return false;
+			vl.setEngine(ee);
+		}
+		String hashFuncName = _messageDigest != null ? _messageDigest.getAlgorithm() : hint.hashFuncName;
+		if(hashFuncName != null)
+		{
+			MessageDigest md = VolumeLayoutBase.findHashFunc(vl.getSupportedHashFuncs(), hashFuncName);
+			if(md == null)
+				return false;
+			vl.setHashFunc(md);
+		}
+		if(_progressReporter!=null)
+		{
+			_progressReporter.setContainerFormatName(cf.getFormatName());
+			_progressReporter.setIsHidden(hint.isHidden);
+		}
+		vl.setOpeningProgressReporter(_progressReporter);
+		vl.setPassword(cutPassword(password, cf.getMaxPasswordLength()));
+		if(cf.hasCustomKDFIterationsSupport() && _numKDFIterations > 0)
+			vl.setNumKDFIterations(_numKDFIterations);
+		RandomAccessIO containerFile = openFile();
+		try
+		{
+			if(vl.readHeader(containerFile))
+			{
+				_containerFormat = cf;
+				_layout = vl;
+				_isHidden = hint.isHidden;
+				return true;
+			}
+		}
+		catch (ApplicationException e)
+		{
+			Logger.debug("Opening hint failed: " + e.getMessage());
+		}
+		finally
+		{
+			containerFile.close();
+		}
+		vl.close();
+		return false;
+	}
+
+	/**
+	 * Adds the candidates of the format to the scheduler. If the hash function is not known
+	 * and the layout supports it, there is a separate candidate for each hash function.
+	 */
+	protected void addHeaderTrialCandidates(HeaderTrialScheduler scheduler, ContainerFormatInfo cf, boolean isHidden)
+	{
+		if(isHidden && !cf.hasHiddenContainerSupport())
+			return;
+		VolumeLayout vl = isHidden ? cf.getHiddenVolumeLayout() : cf.getVolumeLayout();
+		if(_messageDigest != null || !vl.triesAllHashFuncs())
+		{
+			scheduler.addCandidate(cf, vl, isHidden, null);
+			return;
+		}
+		int numHashFuncs = vl.getSupportedHashFuncs().size();
+		for(int i=0;i<numHashFuncs;i++)
+		{
+			if(i > 0)
+				vl = isHidden ? cf.getHiddenVolumeLayout() : cf.getVolumeLayout();
+			scheduler.addCandidate(cf, vl, isHidden, vl.getSupportedHashFuncs().get(i));
+		}
+	}
+
+	/**
+	 * Tries to read the header of the candidate layout. Runs concurrently with other candidates, so
+	 * the layout gets its own instances of the hinted engine and hash function and reads its own copy of the file.
+	 */
+	protected boolean tryCandidate(HeaderTrialScheduler.Candidate c, byte[] password, ContainerOpeningProgressReporter reporter) throws IOException, ApplicationException
+	{
+		VolumeLayout vl = c.layout;
+		vl.setOpeningProgressReporter(reporter);
+		FileEncryptionEngine ee = _encryptionEngine == null ?
+				null :
+				(FileEncryptionEngine) VolumeLayoutBase.findEncEngineByName(vl.getSupportedEncryptionEngines(), VolumeLayoutBase.getEncEngineName(_encryptionEngine));
+		if(ee != null)
+			vl.setEngine(ee);
+		MessageDigest md = c.hashFunc;
+		if(md == null && _messageDigest != null)
+			md = VolumeLayoutBase.findHashFunc(vl.getSupportedHashFuncs(), _messageDigest.getAlgorithm());
+		if(md != null)
+			vl.setHashFunc(md);
+		vl.setPassword(cutPassword(password, c.format.getMaxPasswordLength()));
+		if(c.format.hasCustomKDFIterationsSupport() && _numKDFIterations > 0)
+			vl.setNumKDFIterations(_numKDFIterations);
+		RandomAccessIO containerFile = openFile();
+		try
+		{
+			if(vl.readHeader(containerFile))
+				return true;
+			if(c.isHidden && (ee != null || md != c.hashFunc))
+			{
+				vl.setEngine(null);
+				vl.setHashFunc(c.hashFunc);
+				return vl.readHeader(containerFile);
+			}
+			return false;
+		}
+		finally
+		{
+			containerFile.close();
+		}
+	}
+
+	protected boolean tryLayout(RandomAccessIO containerFile, byte[] password, boolean isHidden) throws IOException, ApplicationException
+	{
+		for(ContainerFormatInfo cf: getFormatsToTry())
+		{
 			if(tryLayout(cf, containerFile, password, isHidden))
 				return true;
 		}
@@ -272,6 +518,7 @@ public abstract class EdsContainerBase implements Closeable
 		{			
 			_containerFormat = cf;
 			_layout = vl;			
+			_isHidden = isHidden;
 			return true;
 		}
 		else if(isHidden && (_encryptionEngine!=null || _messageDigest!=null))
@@ -282,6 +529,7 @@ public abstract class EdsContainerBase implements Closeable
 			{
 				_containerFormat = cf;
 				_layout = vl;
+				_isHidden = isHidden;
 				return true;
 			}
 		}
@@ -301,14 +549,138 @@ public abstract class EdsContainerBase implements Closeable
 		return vll;
 	}
 	
+	/**
+	 * Returns true if the native xts implementation can be used. It needs a local path or a file descriptor,
+	 * e.g. of a container opened using the storage access framework.
+	 */
 	protected boolean allowLocalXTS()
+	{
+		return _layout.getEngine() instanceof XTS
+				&& (isLocalStdFsPath() || _pathToContainer.getFileSystem() instanceof FDFileSystem);
+	}
+
+	protected boolean isLocalStdFsPath()
 	{
 		return _pathToContainer instanceof StdFsPath
-				&& _layout.getEngine() instanceof XTS 
 				&& _pathToContainer.getFileSystem() instanceof StdFs
 				&& ((StdFs)_pathToContainer.getFileSystem()).getRootDir().isEmpty();
 	}
 
+	/**
+	 * Opens the container using the file descriptor of the container file
+	 * @return the file or null if the container file has no usable descriptor
+	 */
+	protected RandomAccessIO openLocalXTSFile(AccessMode mode, XTS xts) throws IOException
+	{
+		RandomAccessIO io = _pathToContainer.getFile().getRandomAccessIO(mode);
+		try
+		{
+			if(io instanceof FDRandomAccessIO)
+				return new LocalEncryptedFileXTS(
+						((FDRandomAccessIO) io).getFD(),
+						_layout.getEncryptedDataOffset(),
+						_layout.getFirstSectorIndex(),
+						xts
+				);
+		}
+		catch (IOException e)
+		{
+			Logger.debug("Failed opening the container using the file descriptor: " + e.getMessage());
+		}
+		finally
+		{
+			//The native file owns a duplicate of the descriptor
+			io.close();
+		}
+		return null;
+	}
+
+	protected boolean allowMappedIO()
+	{
+		return ENABLE_MAPPED_IO && _pathToContainer instanceof StdFsPath && MappedFileIO.isSupported();
+	}
+
+	/**
+	 * Replaces the native AES-XTS engine with the javax.crypto based one if the latter is faster on this device.
+	 */
+	protected void selectFastestEngine()
+	{
+		FileEncryptionEngine ee = _layout.getEngine();
+		if(!(ee instanceof AESXTS) || !isJCEAESXTSFaster())
+			return;
+		AESXTSJCE jce = new AESXTSJCE(ee.getKeySize());
+		try
+		{
+			jce.setSectorSize(ee.getFileBlockSize());
+			jce.setKey(ee.getKey());
+			jce.init();
+		}
+		catch (EncryptionEngineException e)
+		{
+			jce.close();
+			Logger.log(e);
+			return;
+		}
+		Logger.debug("Using javax.crypto AES-XTS engine");
+		_layout.setEngine(jce);
+		//Not every layout closes the replaced engine
+		ee.close();
+	}
+
+	/**
+	 * Keeps the engine benchmark result between the processes
+	 */
+	public interface EngineBenchmarkStore
+	{
+		/**
+		 * @return the stored result or null if the benchmark hasn't been run on this device yet
+		 */
+		Boolean isJCEAESXTSFaster();
+		void setJCEAESXTSFaster(boolean val);
+	}
+
+	public static synchronized void setEngineBenchmarkStore(EngineBenchmarkStore store)
+	{
+		_engineBenchmarkStore = store;
+	}
+
+	private static EngineBenchmarkStore _engineBenchmarkStore;
+	private static Boolean _isJCEAESXTSFaster;
+
+	private static synchronized boolean isJCEAESXTSFaster()
+	{
+		if(_isJCEAESXTSFaster == null && _engineBenchmarkStore != null)
+			_isJCEAESXTSFaster = _engineBenchmarkStore.isJCEAESXTSFaster();
+		if(_isJCEAESXTSFaster == null)
+		{
+			AESXTS nee = new AESXTS();
+			AESXTSJCE jee = new AESXTSJCE();
+			try
+			{
+				double nativeSpeed = EncryptionEngineBenchmark.measureEncryptionSpeed(nee, ENGINE_BENCHMARK_BUFFER_SIZE, ENGINE_BENCHMARK_DURATION);
+				double jceSpeed = EncryptionEngineBenchmark.measureEncryptionSpeed(jee, ENGINE_BENCHMARK_BUFFER_SIZE, ENGINE_BENCHMARK_DURATION);
+				Logger.debug(String.format("AES-XTS speed: native=%.0f B/s, jce=%.0f B/s", nativeSpeed, jceSpeed));
+				_isJCEAESXTSFaster = jceSpeed > nativeSpeed;
+				if(_engineBenchmarkStore != null)
+					_engineBenchmarkStore.setJCEAESXTSFaster(_isJCEAESXTSFaster);
+			}
+			catch (EncryptionEngineException e)
+			{
+				Logger.log(e);
+				_isJCEAESXTSFaster = false;
+			}
+			finally
+			{
+				nee.close();
+				jee.close();
+			}
+		}
+		return _isJCEAESXTSFaster;
+	}
+
+	private static final int ENGINE_BENCHMARK_BUFFER_SIZE = 64*1024;
+	private static final long ENGINE_BENCHMARK_DURATION = 100;
+
 }
 
 
@@ -78,6 +78,8 @@ public class EncFsFormatter extends EDSLocationFormatter
 			_config.setDataCodecInfo((DataCodecInfo) findInfoByName(_config, FS.getSupportedDataCodecs(), _dataCodecName));
 		if(_nameCodecName != null)
 			_config.setNameCodecInfo((NameCodecInfo) findInfoByName(_config, FS.getSupportedNameCodecs(), _nameCodecName));
+		if(_config.getKDFIterations() <= 0)
+			_config.setKDFIterations(FS.calcKDFIterations(_config));
 		byte[] pd = _password == null ? new byte[0] : _password.getDataArray();
 		try
 		{
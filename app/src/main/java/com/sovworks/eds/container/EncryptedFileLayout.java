@@ -1,9 +1,12 @@
 package com.sovworks.eds.container;
 
 
+import com.sovworks.eds.crypto.EncryptionEngineException;
 import com.sovworks.eds.crypto.FileEncryptionEngine;
 
 import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public interface EncryptedFileLayout extends Closeable
 {
@@ -14,4 +17,66 @@ public interface EncryptedFileLayout extends Closeable
     FileEncryptionEngine getEngine();
 
     void setEncryptionEngineIV(FileEncryptionEngine eng, long decryptedVolumeOffset);
-}    
+
+    /**
+     * Encrypts the data located at the specified offset of the decrypted volume.
+     * The ivs are calculated for each call, the engine state is not changed.
+     * @param data data bytes array
+     * @param offset data offset
+     * @param len data length
+     * @param decryptedVolumeOffset offset of the data in the decrypted volume
+     * @throws EncryptionEngineException on encryption error
+     */
+    void encryptSectors(byte[] data, int offset, int len, long decryptedVolumeOffset) throws EncryptionEngineException;
+
+    /**
+     * Decrypts the data located at the specified offset of the decrypted volume.
+     * The ivs are calculated for each call, the engine state is not changed.
+     * @param data data bytes array
+     * @param offset data offset
+     * @param len data length
+     * @param decryptedVolumeOffset offset of the data in the decrypted volume
+     * @throws EncryptionEngineException on decryption error
+     */
+    void decryptSectors(byte[] data, int offset, int len, long decryptedVolumeOffset) throws EncryptionEngineException;
+
+    default void encryptSectors(ByteBuffer data, long decryptedVolumeOffset) throws EncryptionEngineException
+    {
+        if(data.hasArray())
+        {
+            encryptSectors(data.array(), data.arrayOffset() + data.position(), data.remaining(), decryptedVolumeOffset);
+            return;
+        }
+        byte[] tmp = new byte[data.remaining()];
+        try
+        {
+            data.duplicate().get(tmp);
+            encryptSectors(tmp, 0, tmp.length, decryptedVolumeOffset);
+            data.duplicate().put(tmp);
+        }
+        finally
+        {
+            Arrays.fill(tmp, (byte)0);
+        }
+    }
+
+    default void decryptSectors(ByteBuffer data, long decryptedVolumeOffset) throws EncryptionEngineException
+    {
+        if(data.hasArray())
+        {
+            decryptSectors(data.array(), data.arrayOffset() + data.position(), data.remaining(), decryptedVolumeOffset);
+            return;
+        }
+        byte[] tmp = new byte[data.remaining()];
+        try
+        {
+            data.duplicate().get(tmp);
+            decryptSectors(tmp, 0, tmp.length, decryptedVolumeOffset);
+            data.duplicate().put(tmp);
+        }
+        finally
+        {
+            Arrays.fill(tmp, (byte)0);
+        }
+    }
+}
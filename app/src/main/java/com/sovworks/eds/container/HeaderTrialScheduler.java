@@ -0,0 +1,227 @@
+package com.sovworks.eds.container;
+
+import com.sovworks.eds.android.Logger;
+import com.sovworks.eds.android.helpers.ContainerOpeningProgressReporter;
+import com.sovworks.eds.exceptions.ApplicationException;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the header decryption candidates (format, hash function, hidden/normal) concurrently
+ * on the ConcurrentTrials pool. The remaining candidates are cancelled as soon as
+ * one of the headers is decoded. If several candidates succeed before the others notice the cancellation,
+ * the one added first wins.
+ */
+public class HeaderTrialScheduler
+{
+	public interface Trial
+	{
+		boolean tryCandidate(Candidate candidate, ContainerOpeningProgressReporter reporter) throws IOException, ApplicationException;
+	}
+
+	public static class Candidate
+	{
+		public final ContainerFormatInfo format;
+		public final VolumeLayout layout;
+		public final boolean isHidden;
+		/**
+		 * Hash function which must be used by the layout, null to let the layout choose
+		 */
+		public final MessageDigest hashFunc;
+
+		Candidate(int index, ContainerFormatInfo format, VolumeLayout layout, boolean isHidden, MessageDigest hashFunc)
+		{
+			_index = index;
+			this.format = format;
+			this.layout = layout;
+			this.isHidden = isHidden;
+			this.hashFunc = hashFunc;
+		}
+
+		private final int _index;
+		private boolean _succeeded;
+		private Exception _error;
+	}
+
+	public HeaderTrialScheduler(ContainerOpeningProgressReporter progressReporter)
+	{
+		_progressReporter = progressReporter;
+	}
+
+	public void addCandidate(ContainerFormatInfo format, VolumeLayout layout, boolean isHidden, MessageDigest hashFunc)
+	{
+		_candidates.add(new Candidate(_candidates.size(), format, layout, isHidden, hashFunc));
+	}
+
+	public List<Candidate> getCandidates()
+	{
+		return _candidates;
+	}
+
+	/**
+	 * Tries all the candidates
+	 * @param trial header decryption routine
+	 * @return the candidate which header has been decoded or null.
+	 * Layouts of other candidates are closed.
+	 * @throws CancellationException if the opening has been cancelled by the user
+	 */
+	public Candidate run(Trial trial) throws IOException, ApplicationException
+	{
+		_progress = new int[_candidates.size()];
+		_isFinished = false;
+		Candidate res = ConcurrentTrials.getNumThreads(_candidates.size()) > 1 ? runConcurrently(trial) : runSequentially(trial);
+		for(Candidate c: _candidates)
+			if(c != res)
+				closeLayout(c);
+		if(res != null)
+			return res;
+		if(_progressReporter != null && _progressReporter.isCancelled())
+			throw new CancellationException();
+		for(Candidate c: _candidates)
+			if(c._error != null)
+				rethrow(c._error);
+		return null;
+	}
+
+	private final ContainerOpeningProgressReporter _progressReporter;
+	private final List<Candidate> _candidates = new ArrayList<>();
+	private int[] _progress;
+	private volatile boolean _isFinished;
+
+	private Candidate runSequentially(Trial trial)
+	{
+		for(Candidate c: _candidates)
+			if(runCandidate(c, trial))
+				return c;
+		return null;
+	}
+
+	private Candidate runConcurrently(Trial trial)
+	{
+		ExecutorCompletionService<Candidate> ecs = new ExecutorCompletionService<>(ConcurrentTrials.getExecutor());
+		List<Future<Candidate>> futures = new ArrayList<>();
+		Candidate res = null;
+		try
+		{
+			for (Candidate c : _candidates)
+				futures.add(ecs.submit(() -> runCandidate(c, trial) ? c : null));
+			for (int i = 0; i < _candidates.size() && res == null; i++)
+				res = ecs.take().get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e)
+		{
+			//runCandidate doesn't throw
+			Logger.log(e);
+		}
+		finally
+		{
+			_isFinished = true;
+			ConcurrentTrials.waitForAll(futures);
+		}
+		if(res == null)
+			return null;
+		//Keep the sequential order (e.g. the normal volume before the hidden one)
+		//if several candidates have succeeded before the others noticed the finish
+		for(Candidate c: _candidates)
+			if(c._succeeded)
+				return c;
+		return res;
+	}
+
+	private boolean runCandidate(Candidate c, Trial trial)
+	{
+		if(_isFinished)
+			return false;
+		Logger.debug(String.format("Trying %s container format%s%s",
+				c.format.getFormatName(),
+				c.isHidden ? " (hidden)" : "",
+				c.hashFunc != null ? " with " + c.hashFunc.getAlgorithm() : ""
+		));
+		try
+		{
+			c._succeeded = trial.tryCandidate(c, new CandidateProgressReporter(c));
+		}
+		catch (CancellationException ignored)
+		{
+		}
+		catch (IOException | ApplicationException | RuntimeException e)
+		{
+			c._error = e;
+		}
+		finally
+		{
+			setProgress(c, 100);
+		}
+		if(c._succeeded)
+			_isFinished = true;
+		return c._succeeded;
+	}
+
+	private synchronized void setProgress(Candidate c, int progress)
+	{
+		_progress[c._index] = progress;
+		if(_progressReporter == null)
+			return;
+		int total = 0;
+		for(int p: _progress)
+			total += p;
+		_progressReporter.setProgress(total / _progress.length);
+	}
+
+	private static void closeLayout(Candidate c)
+	{
+		try
+		{
+			c.layout.close();
+		}
+		catch (IOException e)
+		{
+			Logger.log(e);
+		}
+	}
+
+	private static void rethrow(Exception e) throws IOException, ApplicationException
+	{
+		if(e instanceof IOException)
+			throw (IOException) e;
+		if(e instanceof ApplicationException)
+			throw (ApplicationException) e;
+		throw (RuntimeException) e;
+	}
+
+	private class CandidateProgressReporter extends ConcurrentTrials.TrialProgressReporter
+	{
+		CandidateProgressReporter(Candidate c)
+		{
+			super(_progressReporter, HeaderTrialScheduler.this);
+			_candidate = c;
+			setContainerFormatName(c.format.getFormatName());
+			setIsHidden(c.isHidden);
+		}
+
+		@Override
+		public void setProgress(int progress)
+		{
+			HeaderTrialScheduler.this.setProgress(_candidate, progress);
+		}
+
+		@Override
+		public boolean isCancelled()
+		{
+			return _isFinished || (_progressReporter != null && _progressReporter.isCancelled());
+		}
+
+		private final Candidate _candidate;
+	}
+}
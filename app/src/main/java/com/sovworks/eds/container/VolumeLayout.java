@@ -37,4 +37,18 @@ public interface VolumeLayout extends EncryptedFileLayout
     List<MessageDigest> getSupportedHashFuncs();
 
     void setOpeningProgressReporter(ContainerOpeningProgressReporter reporter);
+
+    /**
+     * Returns the engine sector index of the first sector of the encrypted data. The following sectors are numbered consecutively.
+     */
+    long getFirstSectorIndex();
+
+    /**
+     * Returns true if readHeader tries all the supported hash functions when the hash function is not set.
+     * In this case the header can be tried with each hash function separately.
+     */
+    default boolean triesAllHashFuncs()
+    {
+        return false;
+    }
 }    
@@ -4,7 +4,9 @@ package com.sovworks.eds.container;
 import android.annotation.SuppressLint;
 
 import com.sovworks.eds.android.helpers.ContainerOpeningProgressReporter;
+import com.sovworks.eds.android.helpers.ProgressReporter;
 import com.sovworks.eds.crypto.EncryptionEngine;
+import com.sovworks.eds.crypto.EncryptionEngineException;
 import com.sovworks.eds.crypto.FileEncryptionEngine;
 import com.sovworks.eds.crypto.kdf.HashBasedPBKDF2;
 import com.sovworks.eds.crypto.modes.CBC;
@@ -146,8 +148,35 @@ public abstract class VolumeLayoutBase implements VolumeLayout
 	@Override
 	public void setEncryptionEngineIV(FileEncryptionEngine eng, long decryptedVolumeOffset)
 	{
-		long block = (decryptedVolumeOffset + getEncryptedDataOffset()) / eng.getFileBlockSize();
-		eng.setIV(getIVFromBlockIndex(block));
+		eng.setIV(getIVFromBlockIndex(getBlockIndex(eng, decryptedVolumeOffset)));
+	}
+
+	@Override
+	public void encryptSectors(byte[] data, int offset, int len, long decryptedVolumeOffset) throws EncryptionEngineException
+	{
+		FileEncryptionEngine eng = getEngine();
+		eng.encryptSectors(data, offset, len, getBlockIndex(eng, decryptedVolumeOffset));
+	}
+
+	@Override
+	public void decryptSectors(byte[] data, int offset, int len, long decryptedVolumeOffset) throws EncryptionEngineException
+	{
+		FileEncryptionEngine eng = getEngine();
+		eng.decryptSectors(data, offset, len, getBlockIndex(eng, decryptedVolumeOffset));
+	}
+
+	@Override
+	public void encryptSectors(ByteBuffer data, long decryptedVolumeOffset) throws EncryptionEngineException
+	{
+		FileEncryptionEngine eng = getEngine();
+		eng.encryptSectors(data, getBlockIndex(eng, decryptedVolumeOffset));
+	}
+
+	@Override
+	public void decryptSectors(ByteBuffer data, long decryptedVolumeOffset) throws EncryptionEngineException
+	{
+		FileEncryptionEngine eng = getEngine();
+		eng.decryptSectors(data, getBlockIndex(eng, decryptedVolumeOffset));
 	}
 	
 	@Override
@@ -198,9 +227,14 @@ public abstract class VolumeLayoutBase implements VolumeLayout
 	private boolean _invertIV;
     
     protected byte[] deriveKey(int keySize, MessageDigest hashFunc, byte[] password, byte[] salt, int numIterations) throws ApplicationException
+    {
+    	return deriveKey(keySize, hashFunc, password, salt, numIterations, _openingProgressReporter);
+    }
+
+    protected byte[] deriveKey(int keySize, MessageDigest hashFunc, byte[] password, byte[] salt, int numIterations, ProgressReporter progressReporter) throws ApplicationException
     {
     	HashBasedPBKDF2 kdf = new HashBasedPBKDF2(hashFunc);
-		kdf.setProgressReporter(_openingProgressReporter);
+		kdf.setProgressReporter(progressReporter);
     	try
 		{
 			return kdf.deriveKey(password,salt, numIterations,keySize);
@@ -227,6 +261,20 @@ public abstract class VolumeLayoutBase implements VolumeLayout
 			throw new IllegalStateException("The password is not set");
     }
 
+	@Override
+	public long getFirstSectorIndex()
+	{
+		return getBlockIndex(getEngine(), 0);
+	}
+
+	/**
+	 * Returns the index of the engine file block which contains the given offset of the decrypted volume
+	 */
+	protected long getBlockIndex(FileEncryptionEngine eng, long decryptedVolumeOffset)
+	{
+		return (decryptedVolumeOffset + getEncryptedDataOffset()) / eng.getFileBlockSize();
+	}
+
 	protected byte[] getIVFromBlockIndex(long blockIndex)
 	{
 		return ByteBuffer.
@@ -1,13 +1,17 @@
 package com.sovworks.eds.crypto;
 
 import android.annotation.SuppressLint;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 
+/**
+ * LUKS anti-forensic information splitter.
+ * The digest and the scratch buffers are reused between calls, so an instance must not be used
+ * by several threads simultaneously.
+ */
 public class AF
 {
 	public static final int SECTOR_SIZE = 512;
@@ -22,33 +26,33 @@ public class AF
 	{
 		_hash = hash;
 		_blockSize = blockSize;
+		_block = new byte[blockSize];
+		_digest = new byte[hash.getDigestLength()];
 	}
 	
-	@SuppressLint("TrulyRandom")
 	public void split(byte[] src, int srcOffset, byte[] dest, int destOffset, int blockNumber) throws DigestException
 	{
-		byte[] block = new byte[_blockSize];
-		byte[] tmp = new byte[_blockSize];
-		SecureRandom sr = new SecureRandom();
-		for(int i = 0; i < blockNumber - 1; i++)
+		try
+		{
+			fillRandom(dest, destOffset, _blockSize*(blockNumber - 1));
+			process(dest, destOffset, src, srcOffset, dest, destOffset + _blockSize*(blockNumber - 1), blockNumber);
+		}
+		finally
 		{
-			sr.nextBytes(tmp);			
-			System.arraycopy(tmp, 0, dest, destOffset + _blockSize*i, _blockSize);
-			xorBlock(dest, destOffset + i*_blockSize, block, 0, block);
-			diffuse(block, 0, block, 0, _blockSize);
+			clearScratch();
 		}
-		xorBlock(src, srcOffset, dest, destOffset + _blockSize*(blockNumber - 1), block);	
 	}
 	
 	public void merge(byte[] src, int srcOffset, byte[] dest, int destOffset, int blockNumber) throws DigestException
 	{
-		byte[] block = new byte[_blockSize];		
-		for(int i = 0; i < blockNumber - 1; i++)
+		try
 		{
-			xorBlock(src, srcOffset + i*_blockSize, block, 0, block);
-			diffuse(block, 0, block, 0, _blockSize);
+			process(src, srcOffset, src, srcOffset + _blockSize*(blockNumber - 1), dest, destOffset, blockNumber);
+		}
+		finally
+		{
+			clearScratch();
 		}
-		xorBlock(src, srcOffset + _blockSize*(blockNumber - 1), dest, destOffset, block);	
 	}
 	
 	public int calcNumRequiredSectors(int numBlocks)
@@ -57,41 +61,74 @@ public class AF
 	}
 	
 	
+	private static final int RANDOM_CHUNK_SIZE = 4096;
+
 	private final MessageDigest _hash;
 	private final int _blockSize;
-	
-	private void xorBlock(byte[] src, int srcOffset, byte[] dst, int dstOffset, byte[] xorBlock)
+	private final byte[] _block, _digest;
+	private final byte[] _counter = new byte[4];
+	private byte[] _randomChunk;
+	private SecureRandom _random;
+
+	/**
+	 * Calculates dst = diffuse(...diffuse(diffuse(s0) ^ s1)... ^ s[n-2]) ^ last,
+	 * where s[i] are the first n - 1 stripes. Each diffusion is done in the same pass with the xor
+	 * of the following stripe.
+	 */
+	private void process(byte[] stripes, int stripesOffset, byte[] last, int lastOffset, byte[] dst, int dstOffset, int blockNumber) throws DigestException
 	{
-		for(int i = 0; i < xorBlock.length; i++)
-			dst[dstOffset + i] = (byte)((src[srcOffset + i] ^ xorBlock[i]) & 0xFF);
+		if(blockNumber == 1)
+		{
+			System.arraycopy(last, lastOffset, dst, dstOffset, _blockSize);
+			return;
+		}
+		System.arraycopy(stripes, stripesOffset, _block, 0, _blockSize);
+		_hash.reset();
+		for(int i = 1; i < blockNumber - 1; i++)
+			diffuseAndXor(stripes, stripesOffset + _blockSize*i, _block, 0);
+		diffuseAndXor(last, lastOffset, dst, dstOffset);
 	}
-	
-	private void diffuse(byte[] src, int srcOffset, byte[] dst, int dstOffset, int len) throws DigestException
+
+	/**
+	 * dst = diffuse(_block) ^ x
+	 */
+	private void diffuseAndXor(byte[] x, int xOffset, byte[] dst, int dstOffset) throws DigestException
 	{
-		int ds = _hash.getDigestLength();
-		int blocks = len/ds;
-		int padding = len % ds;
-		
-		for(int i=0;i<blocks; i++)		
-			hashBuf(src, srcOffset + ds*i, dst, dstOffset + ds*i, ds, i);
-		if(padding > 0)
-			hashBuf(src, srcOffset + ds*blocks, dst, dstOffset + ds*blocks, padding, blocks);		
+		int ds = _digest.length;
+		for(int pos = 0, i = 0; pos < _blockSize; pos += ds, i++)
+		{
+			int len = Math.min(ds, _blockSize - pos);
+			_counter[0] = (byte) (i >>> 24);
+			_counter[1] = (byte) (i >>> 16);
+			_counter[2] = (byte) (i >>> 8);
+			_counter[3] = (byte) i;
+			_hash.update(_counter);
+			_hash.update(_block, pos, len);
+			_hash.digest(_digest, 0, ds);
+			for(int j = 0; j < len; j++)
+				dst[dstOffset + pos + j] = (byte) (_digest[j] ^ x[xOffset + pos + j]);
+		}
 	}
 
-	private void hashBuf(byte[] src, int srcOffset, byte[] dst, int dstOffset, int len, int iv) throws DigestException
-	{		
-		ByteBuffer bb = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putInt(iv);
-		_hash.reset();
-		_hash.update(bb.array());
-		_hash.update(src, srcOffset, len);
-		byte[] res = _hash.digest();
-		System.arraycopy(res, 0, dst, dstOffset, Math.min(res.length, dst.length - dstOffset));
+	@SuppressLint("TrulyRandom")
+	private void fillRandom(byte[] dst, int offset, int len)
+	{
+		if(_random == null)
+			_random = new SecureRandom();
+		if(_randomChunk == null)
+			_randomChunk = new byte[Math.min(RANDOM_CHUNK_SIZE, Math.max(len, 1))];
+		for(int pos = 0; pos < len; pos += _randomChunk.length)
+		{
+			_random.nextBytes(_randomChunk);
+			System.arraycopy(_randomChunk, 0, dst, offset + pos, Math.min(_randomChunk.length, len - pos));
+		}
 	}
-	
-	/*
-	private static int htonl(int value) 
+
+	private void clearScratch()
 	{
-		return ByteOrder.nativeOrder().equals(ByteOrder.BIG_ENDIAN) ? value : Integer.reverseBytes(value);
+		Arrays.fill(_block, (byte) 0);
+		Arrays.fill(_digest, (byte) 0);
+		if(_randomChunk != null)
+			Arrays.fill(_randomChunk, (byte) 0);
 	}
-	*/
 }
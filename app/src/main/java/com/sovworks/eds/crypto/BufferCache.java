@@ -0,0 +1,307 @@
+package com.sovworks.eds.crypto;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the decrypted buffers of an encrypted file.
+ * Buffers are replaced using the 2Q policy: buffers read for the first time go to a fifo queue,
+ * buffers which are requested again after they have been evicted from the fifo go to the lru queue.
+ * A sequential scan of a large file only cycles the fifo queue and doesn't evict the frequently used buffers.
+ * The memory used by all the caches is limited by MAX_TOTAL_SIZE. Each live cache may use an equal share of it.
+ * A cache which has not been closed stops taking its share once it is garbage collected.
+ * The class is not thread safe. The owner must synchronize the access.
+ */
+public class BufferCache
+{
+	/**
+	 * Maximum size in bytes of all the cached buffers of all the opened files
+	 */
+	public static long MAX_TOTAL_SIZE = calcDefaultMaxTotalSize();
+
+	/**
+	 * Minimum number of buffers a cache may keep regardless of MAX_TOTAL_SIZE
+	 */
+	public static int MIN_BUFFERS_PER_CACHE = 4;
+
+	public static class Entry
+	{
+		Entry(int index, byte[] buffer)
+		{
+			this.index = index;
+			this.buffer = buffer;
+		}
+
+		public final int index;
+		public final byte[] buffer;
+		public boolean isDirty;
+		private boolean _isFrequent;
+	}
+
+	public static long getTotalSize()
+	{
+		return _totalSize.get();
+	}
+
+	public static long getTotalHits()
+	{
+		return _totalHits.get();
+	}
+
+	public static long getTotalMisses()
+	{
+		return _totalMisses.get();
+	}
+
+	/**
+	 * @param bufferSize size of the cached buffers
+	 * @param maxNumBuffers maximum number of buffers in this cache, 0 to use the share of MAX_TOTAL_SIZE only
+	 */
+	public BufferCache(int bufferSize, int maxNumBuffers)
+	{
+		_bufferSize = bufferSize;
+		_maxNumBuffers = maxNumBuffers;
+		_ref = new CacheRef(this);
+		synchronized (BufferCache.class)
+		{
+			releaseStaleCaches();
+			_liveCaches.add(_ref);
+		}
+	}
+
+	/**
+	 * Returns the cached buffer and updates its position in the replacement queues
+	 * @param index buffer index
+	 * @return the entry or null if the buffer is not cached
+	 */
+	public Entry get(int index)
+	{
+		Entry e = _entries.get(index);
+		if(e != null && e._isFrequent)
+			_frequent.get(index);
+		if(e == null)
+		{
+			_misses++;
+			_totalMisses.incrementAndGet();
+		}
+		else
+		{
+			_hits++;
+			_totalHits.incrementAndGet();
+		}
+		return e;
+	}
+
+	/**
+	 * Returns the cached buffer without changing the statistics and the replacement order
+	 */
+	public Entry peek(int index)
+	{
+		return _entries.get(index);
+	}
+
+	/**
+	 * Returns true if a buffer must be evicted before a new one is added
+	 */
+	public boolean isFull()
+	{
+		int num = size();
+		if(num < MIN_BUFFERS_PER_CACHE)
+			return false;
+		if(_maxNumBuffers > 0 && num >= _maxNumBuffers)
+			return true;
+		long size = (long)num*_bufferSize;
+		return size + _bufferSize > getMaxSize() || _totalSize.get() + _bufferSize > MAX_TOTAL_SIZE;
+	}
+
+	/**
+	 * Returns the entry which should be evicted next or null if the cache is empty
+	 */
+	public Entry getVictim()
+	{
+		if(!_recent.isEmpty() && (_frequent.isEmpty() || _recent.size() > getMaxRecentBuffers()))
+			return _recent.values().iterator().next();
+		return _frequent.isEmpty() ? null : _frequent.values().iterator().next();
+	}
+
+	/**
+	 * Adds the buffer to the cache.
+	 * @param index buffer index
+	 * @param buffer buffer to cache. It can be the buffer of a removed entry.
+	 * @return new entry
+	 */
+	public Entry put(int index, byte[] buffer)
+	{
+		Entry e = new Entry(index, buffer);
+		if(_evicted.remove(index))
+		{
+			e._isFrequent = true;
+			_frequent.put(index, e);
+		}
+		else
+			_recent.put(index, e);
+		_entries.put(index, e);
+		_ref.size += _bufferSize;
+		_totalSize.addAndGet(_bufferSize);
+		return e;
+	}
+
+	/**
+	 * Removes the entry from the cache. The caller must write the entry back if it's dirty.
+	 */
+	public void remove(Entry e)
+	{
+		if(_entries.remove(e.index) == null)
+			return;
+		if(e._isFrequent)
+			_frequent.remove(e.index);
+		else if(_recent.remove(e.index) != null)
+		{
+			_evicted.add(e.index);
+			int max = getMaxEvictedIndexes();
+			Iterator<Integer> it = _evicted.iterator();
+			while(_evicted.size() > max && it.hasNext())
+			{
+				it.next();
+				it.remove();
+			}
+		}
+		_ref.size -= _bufferSize;
+		_totalSize.addAndGet(-_bufferSize);
+	}
+
+	public List<Entry> getEntries()
+	{
+		ArrayList<Entry> res = new ArrayList<>(size());
+		res.addAll(_recent.values());
+		res.addAll(_frequent.values());
+		return res;
+	}
+
+	/**
+	 * Returns the maximum number of buffers this cache may currently keep
+	 */
+	public int getCapacity()
+	{
+		return getMaxNumBuffers();
+	}
+
+	public int size()
+	{
+		return _entries.size();
+	}
+
+	public long getHits()
+	{
+		return _hits;
+	}
+
+	public long getMisses()
+	{
+		return _misses;
+	}
+
+	/**
+	 * Removes all the entries and releases the memory budget used by this cache
+	 */
+	public void close()
+	{
+		if(_isClosed)
+			return;
+		_entries.clear();
+		_recent.clear();
+		_frequent.clear();
+		_evicted.clear();
+		_isClosed = true;
+		synchronized (BufferCache.class)
+		{
+			//The cleared reference is not enqueued, so its size is not released twice
+			_ref.clear();
+			_liveCaches.remove(_ref);
+			_totalSize.addAndGet(-_ref.size);
+			_ref.size = 0;
+		}
+	}
+
+	/**
+	 * Keeps the memory used by the cache, so that it can be released if the cache is collected without being closed
+	 */
+	private static class CacheRef extends WeakReference<BufferCache>
+	{
+		CacheRef(BufferCache cache)
+		{
+			super(cache, _staleCaches);
+		}
+
+		volatile long size;
+	}
+
+	private static final AtomicLong _totalSize = new AtomicLong();
+	private static final AtomicLong _totalHits = new AtomicLong();
+	private static final AtomicLong _totalMisses = new AtomicLong();
+	private static final ReferenceQueue<BufferCache> _staleCaches = new ReferenceQueue<>();
+	private static final HashSet<CacheRef> _liveCaches = new HashSet<>();
+
+	private final CacheRef _ref;
+	private final int _bufferSize, _maxNumBuffers;
+	private final HashMap<Integer, Entry> _entries = new HashMap<>();
+	//Buffers which have been read once. Fifo order.
+	private final LinkedHashMap<Integer, Entry> _recent = new LinkedHashMap<>();
+	//Buffers which have been requested again after eviction. Lru order.
+	private final LinkedHashMap<Integer, Entry> _frequent = new LinkedHashMap<>(16, 0.75f, true);
+	//Indexes of the buffers recently evicted from the fifo queue
+	private final LinkedHashSet<Integer> _evicted = new LinkedHashSet<>();
+	private long _hits, _misses;
+	private boolean _isClosed;
+
+	private static long calcDefaultMaxTotalSize()
+	{
+		long mem = Runtime.getRuntime().maxMemory();
+		if(mem == Long.MAX_VALUE)
+			mem = 256*1024*1024;
+		return Math.max(2*1024*1024, Math.min(mem/16, 64*1024*1024));
+	}
+
+	private long getMaxSize()
+	{
+		int n;
+		synchronized (BufferCache.class)
+		{
+			releaseStaleCaches();
+			n = _liveCaches.size();
+		}
+		return MAX_TOTAL_SIZE / Math.max(n, 1);
+	}
+
+	private static void releaseStaleCaches()
+	{
+		CacheRef ref;
+		while((ref = (CacheRef) _staleCaches.poll()) != null)
+			if(_liveCaches.remove(ref))
+				_totalSize.addAndGet(-ref.size);
+	}
+
+	private int getMaxNumBuffers()
+	{
+		int res = (int) Math.max(MIN_BUFFERS_PER_CACHE, getMaxSize() / _bufferSize);
+		return _maxNumBuffers > 0 ? Math.min(res, _maxNumBuffers) : res;
+	}
+
+	private int getMaxRecentBuffers()
+	{
+		return Math.max(1, getMaxNumBuffers() / 4);
+	}
+
+	private int getMaxEvictedIndexes()
+	{
+		return Math.max(1, getMaxNumBuffers() / 2);
+	}
+}
@@ -28,6 +28,18 @@ public class DummyEncryptionEngine implements FileEncryptionEngine
 
 	}
 
+	@Override
+	public void encryptSectors(byte[] data, int offset, int len, long firstSectorIndex)
+	{
+
+	}
+
+	@Override
+	public void decryptSectors(byte[] data, int offset, int len, long firstSectorIndex)
+	{
+
+	}
+
 	@Override
 	public int getFileBlockSize()
 	{
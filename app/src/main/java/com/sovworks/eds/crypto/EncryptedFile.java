@@ -1,14 +1,21 @@
 package com.sovworks.eds.crypto;
 
 
+import com.sovworks.eds.android.Logger;
 import com.sovworks.eds.container.EncryptedFileLayout;
+import com.sovworks.eds.fs.ByteBufferIO;
 import com.sovworks.eds.fs.File.AccessMode;
 import com.sovworks.eds.fs.Path;
 import com.sovworks.eds.fs.RandomAccessIO;
+import com.sovworks.eds.fs.SparseIO;
+import com.sovworks.eds.fs.util.ExtentMap;
+import com.sovworks.eds.fs.util.IOStats;
 import com.sovworks.eds.fs.util.TransRandomAccessIO;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class EncryptedFile extends TransRandomAccessIO
 {
@@ -20,11 +27,36 @@ public class EncryptedFile extends TransRandomAccessIO
 		return true;
 	}
 
-	private static final int DEFAULT_BUFFER_SIZE_IN_BLOCKS = 16;
+	/**
+	 * Returns the number of file blocks of the layout engine which fit the buffer of the given size.
+	 * The buffer is rounded up to contain at least one block, so that it's always aligned to the
+	 * encryption sectors (512 to 4096 bytes).
+	 * @param layout file layout
+	 * @param bufferSize desired buffer size in bytes
+	 * @return buffer size in blocks
+	 */
+	public static int calcBufferSizeInBlocks(EncryptedFileLayout layout, int bufferSize)
+	{
+		int bs = layout.getEngine().getFileBlockSize();
+		return Math.max(1, (bufferSize + bs - 1) / bs);
+	}
+
+	/**
+	 * Maximum size of a single base write made by a direct write
+	 */
+	public static int MAX_DIRECT_WRITE_SIZE = 256*1024;
+
+	/**
+	 * Track the allocated ranges of a sparse base file in the skip mode. Sectors which were never written are read as zeros
+	 * without reading them. Other modes decrypt the never written sectors as usual.
+	 */
+	public static boolean ENABLE_SPARSE_FILES = false;
+
+	private static final int DEFAULT_BUFFER_SIZE = 16*512;
 
 	public EncryptedFile(RandomAccessIO base,EncryptedFileLayout layout) throws FileNotFoundException
 	{
-		this(base, layout, DEFAULT_BUFFER_SIZE_IN_BLOCKS);
+		this(base, layout, calcBufferSizeInBlocks(layout, DEFAULT_BUFFER_SIZE));
 	}
 
 	public EncryptedFile(RandomAccessIO base, EncryptedFileLayout layout, int bufferSizeInBlocks) throws FileNotFoundException
@@ -34,6 +66,8 @@ public class EncryptedFile extends TransRandomAccessIO
 		_dataOffset = layout.getEncryptedDataOffset();
 		_fileBlockSize = layout.getEngine().getFileBlockSize();
 		_transBuffer = new byte[_bufferSize];
+		if(base instanceof ByteBufferIO)
+			_directBuffer = ByteBuffer.allocateDirect(_bufferSize);
 		try
 		{
 			_length = calcVirtPosition(base.length());
@@ -42,11 +76,12 @@ public class EncryptedFile extends TransRandomAccessIO
 		{
 
 		}
+		_isSparseBase = ENABLE_SPARSE_FILES && base instanceof SparseIO;
 	}
 
 	public EncryptedFile(Path pathToFile, AccessMode mode,EncryptedFileLayout layout) throws IOException
 	{
-		this(pathToFile, mode, layout, DEFAULT_BUFFER_SIZE_IN_BLOCKS);
+		this(pathToFile, mode, layout, calcBufferSizeInBlocks(layout, DEFAULT_BUFFER_SIZE));
 	}
 
 	public EncryptedFile(Path pathToFile, AccessMode mode,EncryptedFileLayout layout, int bufferSizeInBlocks) throws IOException
@@ -58,6 +93,136 @@ public class EncryptedFile extends TransRandomAccessIO
 	protected final int _fileBlockSize;
 	protected final EncryptedFileLayout _layout;
 	protected byte[] _transBuffer;
+	protected ByteBuffer _directBuffer;
+	private byte[] _directWriteBuffer;
+	private final boolean _isSparseBase;
+	//Allocated ranges of the base file. Loaded on the first use, reloaded after the file is truncated.
+	private volatile ExtentMap _dataExtents;
+	private volatile boolean _isDataExtentsLoaded;
+
+	@Override
+	public synchronized void close(boolean closeBase) throws IOException
+	{
+		try
+		{
+			super.close(closeBase);
+		}
+		finally
+		{
+			clearDirectBuffer();
+		}
+	}
+
+	@Override
+	public synchronized void setLength(long newLength) throws IOException
+	{
+		super.setLength(newLength);
+		_isDataExtentsLoaded = false;
+		_dataExtents = null;
+	}
+
+	@Override
+	protected int readFromBaseAndTransformBuffer(byte[] buf, int offset, int count, long bufferPosition) throws IOException
+	{
+		if(_directBuffer == null || _allowSkip)
+			return super.readFromBaseAndTransformBuffer(buf, offset, count, bufferPosition);
+
+		ByteBufferIO base = (ByteBufferIO) getBase();
+		IOStats stats = _ioStats;
+		long start = stats != null ? System.nanoTime() : 0;
+		getBase().seek(calcBasePosition(bufferPosition));
+		ByteBuffer db = _directBuffer;
+		db.clear();
+		db.limit(count);
+		while(db.hasRemaining() && base.read(db) >= 0);
+		db.flip();
+		int bc = db.remaining();
+		if(stats != null)
+			stats.record(IOStats.Op.BASE_READ, bc, start);
+		decryptBuffer(db, bufferPosition);
+		db.get(buf, offset, bc);
+		return bc;
+	}
+
+	@Override
+	protected int readFromBase(byte[] buf, int offset, int count, long bufferPosition) throws IOException
+	{
+		if(bufferPosition + count <= _length && isHole(bufferPosition, count))
+		{
+			Arrays.fill(buf, offset, offset + count, (byte) 0);
+			return count;
+		}
+		return super.readFromBase(buf, offset, count, bufferPosition);
+	}
+
+	@Override
+	protected int readFromBaseAt(byte[] buf, int offset, int count, long position) throws IOException
+	{
+		if(position + count <= _length && isHole(position, count))
+		{
+			Arrays.fill(buf, offset, offset + count, (byte) 0);
+			return count;
+		}
+		return super.readFromBaseAt(buf, offset, count, position);
+	}
+
+	@Override
+	protected void writeToBase(byte[] buf, int offset, int count, long bufferPosition) throws IOException
+	{
+		ExtentMap extents = getDataExtents();
+		if(extents == null)
+		{
+			super.writeToBase(buf, offset, count, bufferPosition);
+			return;
+		}
+		long bp = calcBasePosition(bufferPosition);
+		//Empty parts are not encrypted in the skip mode, there is no need to allocate them
+		if(extents.isHole(bp, bp + count) && isBufferEmpty(buf, offset, count) && bp + count <= getBase().length())
+			return;
+		super.writeToBase(buf, offset, count, bufferPosition);
+		extents.add(bp, bp + count);
+	}
+
+	@Override
+	protected int getTransformUnitSize()
+	{
+		return _fileBlockSize;
+	}
+
+	@Override
+	protected void writeDirect(byte[] buf, int offset, int count, long position) throws IOException
+	{
+		prepareDirectWrite(position, count);
+		int max = Math.max(_bufferSize, MAX_DIRECT_WRITE_SIZE - MAX_DIRECT_WRITE_SIZE % _bufferSize);
+		if(_directWriteBuffer == null || _directWriteBuffer.length < Math.min(count, max))
+			_directWriteBuffer = new byte[Math.min(count, max)];
+		byte[] tb = _directWriteBuffer;
+		try
+		{
+			for(int i = 0; i < count;)
+			{
+				int n = Math.min(count - i, tb.length);
+				System.arraycopy(buf, offset + i, tb, 0, n);
+				transformBufferToBase(tb, 0, n, position + i, tb);
+				writeToBase(tb, 0, n, position + i);
+				i += n;
+			}
+		}
+		finally
+		{
+			Arrays.fill(tb, (byte) 0);
+		}
+	}
+
+	protected void clearDirectBuffer()
+	{
+		if(_directBuffer != null)
+		{
+			_directBuffer.clear();
+			while(_directBuffer.hasRemaining())
+				_directBuffer.put((byte)0);
+		}
+	}
 
 	@Override
 	protected long calcBasePosition(long position)
@@ -74,6 +239,11 @@ public class EncryptedFile extends TransRandomAccessIO
 	@Override
 	protected int transformBufferFromBase(byte[] baseBuffer, int offset, int count, long bufferPosition, byte[] dstBuffer) throws IOException
 	{
+		if(isHole(bufferPosition, count))
+		{
+			Arrays.fill(dstBuffer, offset, offset + count, (byte) 0);
+			return count;
+		}
 		if(baseBuffer != dstBuffer)
 			System.arraycopy(baseBuffer, offset, dstBuffer, offset, count);
 
@@ -81,34 +251,119 @@ public class EncryptedFile extends TransRandomAccessIO
 			decryptBuffer(dstBuffer, offset, count, bufferPosition);
 		else
 		{
+			//Empty blocks are left as is, the runs of the other blocks are decrypted at once
+			int runStart = 0;
 			for(int i = 0;i<count;)
 			{
 				int curSize = Math.min(count - i, _fileBlockSize);
-				if(curSize != _fileBlockSize || !isBufferEmpty(dstBuffer, offset + i, curSize))
-					decryptBuffer(dstBuffer, offset + i, curSize, bufferPosition + i);
+				if(curSize == _fileBlockSize && isBufferEmpty(dstBuffer, offset + i, curSize))
+				{
+					if(runStart < i)
+						decryptBuffer(dstBuffer, offset + runStart, i - runStart, bufferPosition + runStart);
+					runStart = i + curSize;
+				}
 				i += curSize;
 			}
+			if(runStart < count)
+				decryptBuffer(dstBuffer, offset + runStart, count - runStart, bufferPosition + runStart);
 		}
 		return count;
 	}
 
+	/**
+	 * Returns true if the range was never written to the base file
+	 */
+	protected boolean isHole(long position, int count)
+	{
+		ExtentMap extents = getDataExtents();
+		if(extents == null)
+			return false;
+		long bp = calcBasePosition(position);
+		return extents.isHole(bp, bp + count);
+	}
+
+	/**
+	 * Returns the allocated ranges of the base file or null if they are not tracked.
+	 * The ranges are used in the skip mode only, where the never written blocks read as zeros just like the empty ones.
+	 */
+	protected ExtentMap getDataExtents()
+	{
+		if(!_isSparseBase || !_allowSkip)
+			return null;
+		if(!_isDataExtentsLoaded)
+		{
+			_dataExtents = loadDataExtents((SparseIO) getBase());
+			_isDataExtentsLoaded = true;
+		}
+		return _dataExtents;
+	}
+
+	private static ExtentMap loadDataExtents(SparseIO base)
+	{
+		try
+		{
+			long[] ranges = base.getDataRanges();
+			return ranges == null ? null : new ExtentMap(ranges);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			Logger.debug("Failed getting the data ranges of the container file: " + e.getMessage());
+			return null;
+		}
+	}
+
 	protected void decryptBuffer(byte[] buf, int offset, int count, long bufferPosition) throws IOException
 	{
-		FileEncryptionEngine ee = _layout.getEngine();
-		_layout.setEncryptionEngineIV(ee, bufferPosition);
+		IOStats stats = _ioStats;
+		long start = stats != null ? System.nanoTime() : 0;
+		try
+		{
+			_layout.decryptSectors(buf, offset, count, bufferPosition);
+		}
+		catch (EncryptionEngineException e)
+		{
+			throw new IOException(e);
+		}
+		if(stats != null)
+			stats.record(IOStats.Op.DECRYPT, count, start);
+	}
+
+	protected void decryptBuffer(ByteBuffer buf, long bufferPosition) throws IOException
+	{
+		IOStats stats = _ioStats;
+		long start = stats != null ? System.nanoTime() : 0;
+		int bc = buf.remaining();
 		try
 		{
-			ee.decrypt(buf, offset, count);
+			_layout.decryptSectors(buf, bufferPosition);
 		}
 		catch (EncryptionEngineException e)
 		{
 			throw new IOException(e);
 		}
+		if(stats != null)
+			stats.record(IOStats.Op.DECRYPT, bc, start);
 	}
 
 	@Override
 	protected void transformBufferAndWriteToBase(byte[] buf, int offset, int count, long bufferPosition) throws IOException
 	{
+		if(_directBuffer != null && !_allowSkip)
+		{
+			ByteBuffer db = _directBuffer;
+			db.clear();
+			db.put(buf, offset, count);
+			db.flip();
+			encryptBuffer(db, bufferPosition);
+			IOStats stats = _ioStats;
+			long start = stats != null ? System.nanoTime() : 0;
+			long bp = calcBasePosition(bufferPosition);
+			getBase().seek(bp);
+			((ByteBufferIO) getBase()).write(db);
+			if(stats != null)
+				stats.record(IOStats.Op.BASE_WRITE, count, start);
+			return;
+		}
 		transformBufferToBase(buf, offset, count, bufferPosition, _transBuffer);
 		writeToBase(_transBuffer, offset, count, bufferPosition);
 	}
@@ -133,15 +388,34 @@ public class EncryptedFile extends TransRandomAccessIO
 
 	protected void encryptBuffer(byte[] buf, int offset, int count, long bufferPosition) throws IOException
 	{
-		FileEncryptionEngine ee = _layout.getEngine();
-		_layout.setEncryptionEngineIV(ee, bufferPosition);
+		IOStats stats = _ioStats;
+		long start = stats != null ? System.nanoTime() : 0;
+		try
+		{
+			_layout.encryptSectors(buf, offset, count, bufferPosition);
+		}
+		catch (EncryptionEngineException e)
+		{
+			throw new IOException(e);
+		}
+		if(stats != null)
+			stats.record(IOStats.Op.ENCRYPT, count, start);
+	}
+
+	protected void encryptBuffer(ByteBuffer buf, long bufferPosition) throws IOException
+	{
+		IOStats stats = _ioStats;
+		long start = stats != null ? System.nanoTime() : 0;
+		int bc = buf.remaining();
 		try
 		{
-			ee.encrypt(buf, offset, count);
+			_layout.encryptSectors(buf, bufferPosition);
 		}
 		catch (EncryptionEngineException e)
 		{
 			throw new IOException(e);
 		}
+		if(stats != null)
+			stats.record(IOStats.Op.ENCRYPT, bc, start);
 	}
 }
@@ -1,30 +1,64 @@
 package com.sovworks.eds.crypto;
 
-import android.util.SparseArray;
-
+import com.sovworks.eds.android.Logger;
 import com.sovworks.eds.container.VolumeLayout;
 import com.sovworks.eds.fs.File.AccessMode;
 import com.sovworks.eds.fs.Path;
 import com.sovworks.eds.fs.RandomAccessIO;
+import com.sovworks.eds.fs.util.IOStats;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class EncryptedFileWithCache extends EncryptedFile
 {
-	private static final int DEFAULT_NUM_CACHED_BUFFERS = 25;
-	private static final int DEFAULT_BUFFER_SIZE_IN_BLOCKS = 40;
+	/**
+	 * Maximum size of a single write of the adjacent changed buffers
+	 */
+	public static int MAX_WRITE_BACK_SIZE = 256*1024;
+
+	/**
+	 * Read and decrypt the following buffers in background when the file is read sequentially
+	 */
+	public static boolean ENABLE_READ_AHEAD = true;
+
+	/**
+	 * Maximum size of the read-ahead window
+	 */
+	public static int MAX_READ_AHEAD_SIZE = 512*1024;
+
+	/**
+	 * Encrypt and write the changed buffers in background. Write errors are reported by flush() and close().
+	 */
+	public static boolean ENABLE_WRITE_BEHIND = false;
+
+	/**
+	 * Maximum size of the changed buffers waiting to be written in background
+	 */
+	public static int MAX_WRITE_BEHIND_SIZE = 1024*1024;
+
+	//The number of buffers is limited by the BufferCache memory budget
+	private static final int DEFAULT_NUM_CACHED_BUFFERS = 0;
+	private static final int DEFAULT_BUFFER_SIZE = 40*512;
 	
 	public EncryptedFileWithCache(Path pathToFile, AccessMode mode,VolumeLayout layout) throws IOException
 	{
-		this(pathToFile.getFile().getRandomAccessIO(mode),layout, DEFAULT_NUM_CACHED_BUFFERS, DEFAULT_BUFFER_SIZE_IN_BLOCKS);
+		this(pathToFile.getFile().getRandomAccessIO(mode),layout, DEFAULT_NUM_CACHED_BUFFERS, calcBufferSizeInBlocks(layout, DEFAULT_BUFFER_SIZE));
 	}
 	
 	public EncryptedFileWithCache(RandomAccessIO base, VolumeLayout layout)
 			throws FileNotFoundException
 	{
-		this(base,layout, DEFAULT_NUM_CACHED_BUFFERS, DEFAULT_BUFFER_SIZE_IN_BLOCKS);
+		this(base,layout, DEFAULT_NUM_CACHED_BUFFERS, calcBufferSizeInBlocks(layout, DEFAULT_BUFFER_SIZE));
 	}
 
 	public EncryptedFileWithCache(Path pathToFile, AccessMode mode,VolumeLayout layout, int maxNumberCachedBuffers, int bufferSizeInBlocks) throws IOException
@@ -36,16 +70,28 @@ public class EncryptedFileWithCache extends EncryptedFile
 			throws FileNotFoundException
 	{
 		super(base, layout, bufferSizeInBlocks);
-		_maxNumberCachedBuffers = maxNumberCachedBuffers;
-		_cache = new SparseArray<>(_maxNumberCachedBuffers);
+		_cache = new BufferCache(_bufferSize, maxNumberCachedBuffers);
+	}
+
+	public long getCacheHits()
+	{
+		return _cache.getHits();
+	}
+
+	public long getCacheMisses()
+	{
+		return _cache.getMisses();
 	}
 	
 	@Override
 	public synchronized void flush() throws IOException
 	{
 		writeCurrentBuffer();
+		waitForWriteBehind();
+		//The buffers which failed to be written in background are written again
 		flushCachedChanges();
 		getBase().flush();
+		checkWriteBehindError();
 	}
 	
 	@Override
@@ -53,23 +99,69 @@ public class EncryptedFileWithCache extends EncryptedFile
 	{
         try
         {
+            stopReadAhead();
+            waitForReadAheadTask();
             writeCurrentBuffer();
+            waitForWriteBehind();
             flushCachedChanges();
-            for (int i = 0; i < _cache.size(); i++)
-            {
-                CachedSectorInfo ci = _cache.valueAt(i);
+            for (BufferCache.Entry ci: _cache.getEntries())
                 Arrays.fill(ci.buffer, (byte) 0);
-            }
-            _cache.clear();
             Arrays.fill(_buffer, (byte) 0);
+            if(_readAheadBuffer != null)
+                Arrays.fill(_readAheadBuffer, (byte) 0);
+            if(_writeBehindBuffer != null)
+                Arrays.fill(_writeBehindBuffer, (byte) 0);
+            clearDirectBuffer();
+            checkWriteBehindError();
         }
         finally
         {
+            stopWriteBehind();
+            _cache.close();
             if(closeBase)
 				getBase().close();
         }
 	}
 
+	@Override
+	public synchronized void setLength(long newLength) throws IOException
+	{
+		super.setLength(newLength);
+		//The queued writes must not extend the file again
+		while(!_pendingWrites.isEmpty())
+		{
+			PendingWrite pw = _pendingWrites.lastEntry().getValue();
+			long bp = (long)pw.index*_bufferSize;
+			if(bp + pw.count <= _length)
+				break;
+			if(bp >= _length)
+				removePendingWrite(pw.index);
+			else
+			{
+				PendingWrite tpw = new PendingWrite(pw.index, pw.data, (int)(_length - bp));
+				tpw.entry = pw.entry;
+				_pendingWrites.put(pw.index, tpw);
+				break;
+			}
+		}
+		//The old data must not reappear if the file is extended again
+		for(BufferCache.Entry ci: _cache.getEntries())
+		{
+			long bp = (long)ci.index*_bufferSize;
+			if(bp + _bufferSize <= _length)
+				continue;
+			if(bp >= _length || !ci.isDirty)
+			{
+				_cache.remove(ci);
+				Arrays.fill(ci.buffer, (byte) 0);
+			}
+			else
+				Arrays.fill(ci.buffer, (int)(_length - bp), _bufferSize, (byte) 0);
+		}
+		//Buffers being read ahead may be past the new end
+		_baseWriteCount++;
+	}
+
 	@Override
 	protected void loadCurrentBuffer() throws IOException
 	{
@@ -80,16 +172,31 @@ public class EncryptedFileWithCache extends EncryptedFile
 		if(space < 0)
 			space = 0;
         int bufIndex = getBufferIndex();
-		CachedSectorInfo ci = _cache.get(bufIndex);
+		updateReadAhead(bufIndex);
+		BufferCache.Entry ci = _cache.get(bufIndex);
+		if(ci == null)
+			ci = takeReadAheadBuffer(bufIndex);
+		PendingWrite pw;
+		if(ci == null && (pw = _pendingWrites.get(bufIndex)) != null)
+		{
+			ci = reserveCacheSlot(bufIndex);
+			System.arraycopy(pw.data, 0, ci.buffer, 0, _bufferSize);
+			//The buffer stays changed until the queued write is done
+			ci.isDirty = true;
+			pw.entry = ci;
+		}
+		IOStats stats = _ioStats;
 		if(ci==null)
 		{
+			if(stats != null)
+				stats.count(IOStats.Op.CACHE_MISS);
 			ci = reserveCacheSlot(bufIndex);
 			if(space>0)
 				space = readFromBaseAndTransformBuffer(ci.buffer, 0, space, bp);
 			Arrays.fill(ci.buffer, space, _bufferSize, (byte)0);
 		}
-		else
-			ci.refCount++;
+		else if(stats != null)
+			stats.count(IOStats.Op.CACHE_HIT);
 
 		System.arraycopy(ci.buffer, 0, _buffer, 0, _bufferSize);
 		_isBufferChanged = false;
@@ -101,26 +208,382 @@ public class EncryptedFileWithCache extends EncryptedFile
 	{
 		if(!_isBufferChanged)
 			return;
-		CachedSectorInfo ci = _cache.get(getBufferIndex());
+		int bufIndex = getBufferIndex();
+		BufferCache.Entry ci = _cache.peek(bufIndex);
+		if(ci == null)
+			ci = reserveCacheSlot(bufIndex);
 		System.arraycopy(_buffer, 0, ci.buffer, 0, _bufferSize);
-		ci.isChanged = true;
+		ci.isDirty = true;
 		_isBufferChanged = false;
+		//The queued write of the buffer, if any, is outdated now
+		PendingWrite pw = _pendingWrites.get(bufIndex);
+		if(pw != null)
+			pw.entry = null;
+		//The writer won't return to this buffer soon
+		if(ENABLE_WRITE_BEHIND && _isSequentialAccess && _writeBehindError == null)
+			queueWrite(ci);
 	}
 
-	private static class CachedSectorInfo
+	/**
+	 * Reads a single cached buffer or reads the base file without holding the lock.
+	 * Ranges with changes which are not written yet are read holding the lock.
+	 */
+	@Override
+	public int readAt(long position, byte[] buf, int offset, int count) throws IOException
 	{
-		public CachedSectorInfo(int bufSize)
+		long length;
+		synchronized (this)
 		{
-			buffer = new byte[bufSize];
-			refCount = 1;
+			if(position >= _length)
+				return -1;
+			count = (int)Math.min(count, _length - position);
+			if(count <= 0)
+				return 0;
+			writeCurrentBuffer();
+			int first = (int)(position/_bufferSize), last = (int)((position + count - 1)/_bufferSize);
+			if(first == last)
+			{
+				byte[] src = getLatestBuffer(first);
+				if(src != null)
+				{
+					if(_ioStats != null)
+						_ioStats.count(IOStats.Op.CACHE_HIT);
+					System.arraycopy(src, (int)(position - (long)first*_bufferSize), buf, offset, count);
+					return count;
+				}
+			}
+			for(int i = first; i <= last; i++)
+				if(isDirty(i) || _pendingWrites.containsKey(i))
+					return readAtFilePointer(position, buf, offset, count);
+			length = _length;
+		}
+		if(_ioStats != null)
+			_ioStats.count(IOStats.Op.CACHE_MISS);
+		return readAtWithoutBuffer(position, buf, offset, count, length);
+	}
+
+	@Override
+	protected int readDirect(byte[] buf, int offset, int count, long position) throws IOException
+	{
+		writeCurrentBuffer();
+		//Cached and queued buffers are copied, the runs of other buffers are read from the base file.
+		//The buffers read directly are not cached, so that bulk transfers don't evict the working set.
+		int first = (int)(position/_bufferSize), num = count/_bufferSize;
+		for(int i = 0; i < num;)
+		{
+			byte[] src = getLatestBuffer(first + i);
+			if(src != null)
+			{
+				System.arraycopy(src, 0, buf, offset + i*_bufferSize, _bufferSize);
+				i++;
+				continue;
+			}
+			int j = i + 1;
+			while(j < num && getLatestBuffer(first + j) == null)
+				j++;
+			int len = (j - i)*_bufferSize;
+			int n = super.readDirect(buf, offset + i*_bufferSize, len, position + (long)i*_bufferSize);
+			if(n < len)
+				return i*_bufferSize + n;
+			i = j;
+		}
+		return count;
+	}
+
+	@Override
+	protected void writeDirect(byte[] buf, int offset, int count, long position) throws IOException
+	{
+		int first = (int)(position/_bufferSize), num = count/_bufferSize;
+		for(int i = first; i < first + num; i++)
+		{
+			removePendingWrite(i);
+			BufferCache.Entry ci = _cache.peek(i);
+			if(ci != null)
+			{
+				_cache.remove(ci);
+				Arrays.fill(ci.buffer, (byte) 0);
+			}
+		}
+		//Drop the buffers being read ahead
+		_baseWriteCount++;
+		super.writeDirect(buf, offset, count, position);
+	}
+
+	private byte[] getLatestBuffer(int bufIndex)
+	{
+		BufferCache.Entry ci = _cache.peek(bufIndex);
+		if(ci != null)
+			return ci.buffer;
+		PendingWrite pw = _pendingWrites.get(bufIndex);
+		return pw != null ? pw.data : null;
+	}
+
+	private static class PendingWrite
+	{
+		PendingWrite(int index, byte[] data, int count)
+		{
+			this.index = index;
+			this.data = data;
+			this.count = count;
+		}
+
+		final int index;
+		final byte[] data;
+		final int count;
+		//Cached buffer with the same data. It's marked unchanged when the write is done.
+		BufferCache.Entry entry;
+	}
+
+	/**
+	 * Buffer which is being read and decrypted by the read-ahead task
+	 */
+	private static class ReadAheadItem
+	{
+		ReadAheadItem(int index, byte[] data, long writeCount)
+		{
+			this.index = index;
+			this.data = data;
+			this.writeCount = writeCount;
+		}
+
+		final int index;
+		final byte[] data;
+		final long writeCount;
+		int count;
+		//Set when the reader has moved the data to the cache. Guarded by the file lock.
+		boolean isTaken;
+
+		synchronized void finish(boolean isDecrypted)
+		{
+			_state = isDecrypted ? DONE : FAILED;
+			notifyAll();
+		}
+
+		/**
+		 * Waits until the task is done with the buffer
+		 * @return true if the data has been decrypted
+		 */
+		synchronized boolean await()
+		{
+			boolean interrupted = false;
+			//The data buffer is reused when the task is finished, so the wait is not interrupted
+			while(_state == RUNNING)
+			{
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+			if(interrupted)
+				Thread.currentThread().interrupt();
+			return _state == DONE;
+		}
+
+		private static final int RUNNING = 0, DONE = 1, FAILED = 2;
+		private int _state = RUNNING;
+	}
+
+	private final BufferCache _cache;
+	private byte[] _writeBackBuffer, _readAheadBuffer;
+	//Read-ahead state. Guarded by this.
+	private int _lastBufIndex = -1, _readAheadWindow, _readAheadNext, _readAheadEnd;
+	private boolean _isReadAheadRunning, _isSequentialAccess;
+	private ReadAheadItem _readAheadItem;
+	//Incremented when the read-ahead is cancelled
+	private long _readAheadGeneration;
+	//Incremented when the base file is written to drop the outdated buffers which have been read ahead
+	private long _baseWriteCount;
+
+	//Write-behind state. Guarded by this.
+	private final TreeMap<Integer, PendingWrite> _pendingWrites = new TreeMap<>();
+	private long _pendingWritesSize;
+	private boolean _isWriteBehindRunning;
+	private byte[] _writeBehindBuffer;
+	private IOException _writeBehindError;
+
+	private static ExecutorService _readAheadExecutor, _writeBehindExecutor;
+
+	private static synchronized ExecutorService getReadAheadExecutor()
+	{
+		if(_readAheadExecutor == null)
+			_readAheadExecutor = createExecutor("EncryptedFileReadAhead");
+		return _readAheadExecutor;
+	}
+
+	private static synchronized ExecutorService getWriteBehindExecutor()
+	{
+		//A separate pool, so that the write-behind tasks are never blocked by the read-ahead tasks waiting for the queue space
+		if(_writeBehindExecutor == null)
+			_writeBehindExecutor = createExecutor("EncryptedFileWriteBehind");
+		return _writeBehindExecutor;
+	}
+
+	private static ExecutorService createExecutor(String threadName)
+	{
+		int n = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_BACKGROUND_THREADS));
+		ThreadPoolExecutor exec = new ThreadPoolExecutor(n, n, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			Thread t = new Thread(r, threadName);
+			t.setDaemon(true);
+			return t;
+		});
+		exec.allowCoreThreadTimeOut(true);
+		return exec;
+	}
+
+	private static final int MAX_BACKGROUND_THREADS = 4;
+
+	/**
+	 * Grows the read-ahead window while the buffers are requested sequentially and collapses it on random access
+	 */
+	private void updateReadAhead(int bufIndex)
+	{
+		if(bufIndex == _lastBufIndex)
+			return;
+		boolean isSequential = bufIndex == _lastBufIndex + 1;
+		_lastBufIndex = bufIndex;
+		_isSequentialAccess = isSequential;
+		if(!ENABLE_READ_AHEAD || !isSequential)
+		{
+			if(_readAheadWindow > 0)
+				stopReadAhead();
+			return;
+		}
+		int maxWindow = Math.min(MAX_READ_AHEAD_SIZE / _bufferSize, _cache.getCapacity() / 2);
+		_readAheadWindow = Math.min(Math.max(1, _readAheadWindow*2), maxWindow);
+		if(_readAheadWindow <= 0)
+			return;
+		_readAheadNext = Math.max(_readAheadNext, bufIndex + 1);
+		_readAheadEnd = Math.max(_readAheadEnd, bufIndex + 1 + _readAheadWindow);
+		if(!_isReadAheadRunning && _readAheadNext < _readAheadEnd)
+		{
+			_isReadAheadRunning = true;
+			long generation = _readAheadGeneration;
+			getReadAheadExecutor().execute(() -> readAhead(generation));
+		}
+	}
+
+	private void stopReadAhead()
+	{
+		_readAheadWindow = 0;
+		_readAheadNext = _readAheadEnd = 0;
+		_readAheadGeneration++;
+	}
+
+	/**
+	 * Waits until the buffer which is being read ahead is decrypted and moves it to the cache.
+	 * The file lock is not released while waiting, so the other threads can't change the current buffer.
+	 * @return null if the buffer is not being read ahead or its data is outdated
+	 */
+	private BufferCache.Entry takeReadAheadBuffer(int bufIndex) throws IOException
+	{
+		ReadAheadItem item = _readAheadItem;
+		if(item == null || item.index != bufIndex || !item.await() || item.writeCount != _baseWriteCount)
+			return null;
+		BufferCache.Entry ci = reserveCacheSlot(bufIndex);
+		System.arraycopy(item.data, 0, ci.buffer, 0, item.count);
+		Arrays.fill(ci.buffer, item.count, _bufferSize, (byte)0);
+		item.isTaken = true;
+		return ci;
+	}
+
+	private void waitForReadAheadTask()
+	{
+		while(_isReadAheadRunning)
+			if(!waitForBackgroundTask())
+				break;
+	}
+
+	private boolean waitForBackgroundTask()
+	{
+		try
+		{
+			wait();
+			return true;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Read-ahead task. The buffer is read and decrypted without holding the file lock.
+	 */
+	private void readAhead(long generation)
+	{
+		try
+		{
+			while(true)
+			{
+				ReadAheadItem item;
+				long bp;
+				boolean isDecrypted = false;
+				synchronized (this)
+				{
+					if(generation != _readAheadGeneration || _readAheadNext >= _readAheadEnd)
+						return;
+					int bufIndex = _readAheadNext++;
+					bp = (long)bufIndex*_bufferSize;
+					if(bp >= _length)
+						return;
+					if(_cache.peek(bufIndex) != null || _pendingWrites.containsKey(bufIndex))
+						continue;
+					if(_readAheadBuffer == null)
+						_readAheadBuffer = new byte[_bufferSize];
+					item = new ReadAheadItem(bufIndex, _readAheadBuffer, _baseWriteCount);
+					item.count = (int)Math.min(_bufferSize, _length - bp);
+					_readAheadItem = item;
+				}
+				try
+				{
+					int count = readFromBaseAt(item.data, 0, item.count, bp);
+					item.count = transformBufferFromBase(item.data, 0, count, bp, item.data);
+					isDecrypted = true;
+				}
+				finally
+				{
+					item.finish(isDecrypted);
+					synchronized (this)
+					{
+						if(isDecrypted &&
+								!item.isTaken &&
+								generation == _readAheadGeneration &&
+								item.writeCount == _baseWriteCount &&
+								_cache.peek(item.index) == null)
+						{
+							//Writing a changed buffer here would hide the write errors from the caller
+							BufferCache.Entry ci = reserveCleanCacheSlot(item.index);
+							if(ci != null)
+							{
+								System.arraycopy(item.data, 0, ci.buffer, 0, item.count);
+								Arrays.fill(ci.buffer, item.count, _bufferSize, (byte)0);
+							}
+						}
+						Arrays.fill(item.data, (byte) 0);
+						_readAheadItem = null;
+					}
+				}
+			}
+		}
+		catch (Throwable e)
+		{
+			Logger.log(e);
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				_isReadAheadRunning = false;
+				_readAheadItem = null;
+				notifyAll();
+			}
 		}
-		public int refCount;
-		public final byte[] buffer;
-		public boolean isChanged;
 	}
-	
-	private final int _maxNumberCachedBuffers;
-	private final SparseArray<CachedSectorInfo> _cache;
 	
 	private int getBufferIndex()
 	{
@@ -129,50 +592,319 @@ public class EncryptedFileWithCache extends EncryptedFile
 		
 	private void flushCachedChanges() throws IOException
 	{
-		int cs = _cache.size();
-		for(int i=0;i<cs;i++)
+		List<BufferCache.Entry> dirty = new ArrayList<>();
+		for(BufferCache.Entry ci: _cache.getEntries())
+			if(ci.isDirty)
+				dirty.add(ci);
+		Collections.sort(dirty, (a, b) -> Integer.compare(a.index, b.index));
+		for(BufferCache.Entry ci: dirty)
+			if(ci.isDirty)
+				writeCachedBuffers(ci);
+	}
+
+	/**
+	 * Writes the changed buffer together with the adjacent changed buffers using a single write
+	 */
+	private void writeCachedBuffers(BufferCache.Entry ci) throws IOException
+	{
+		int maxRun = Math.max(1, MAX_WRITE_BACK_SIZE / _bufferSize);
+		int first = ci.index, last = ci.index;
+		//Buffers past the end of the file are not written, so they are not merged with the others
+		if((long)ci.index*_bufferSize < _length)
 		{
-			CachedSectorInfo ci = _cache.valueAt(i);
-			if(ci.isChanged)
-				writeCachedBuffer(_cache.keyAt(i), ci);
+			while(last - first + 1 < maxRun && isDirty(first - 1))
+				first--;
+			while(last - first + 1 < maxRun && isDirty(last + 1))
+				last++;
+		}
+		//The queued writes of the same buffers are outdated
+		for(int i = first; i <= last; i++)
+			removePendingWrite(i);
+		if(first == last)
+		{
+			writeCachedBuffer(ci);
+			return;
+		}
+		long bp = (long)first*_bufferSize;
+		int count = (int)Math.min((long)(last - first + 1)*_bufferSize, _length - bp);
+		if(_writeBackBuffer == null || _writeBackBuffer.length < count)
+			_writeBackBuffer = new byte[maxRun*_bufferSize];
+		byte[] buf = _writeBackBuffer;
+		BufferCache.Entry[] entries = new BufferCache.Entry[last - first + 1];
+		try
+		{
+			for(int i = first; i <= last; i++)
+			{
+				BufferCache.Entry e = _cache.peek(i);
+				int pos = (i - first)*_bufferSize;
+				System.arraycopy(e.buffer, 0, buf, pos, Math.min(_bufferSize, count - pos));
+				entries[i - first] = e;
+			}
+			_baseWriteCount++;
+			transformBufferToBase(buf, 0, count, bp, buf);
+			writeToBase(buf, 0, count, bp);
+			//The buffers stay dirty if the write fails
+			for(BufferCache.Entry e: entries)
+				e.isDirty = false;
+		}
+		finally
+		{
+			Arrays.fill(buf, 0, count, (byte) 0);
 		}
 	}
+
+	private boolean isDirty(int bufIndex)
+	{
+		BufferCache.Entry e = bufIndex >= 0 ? _cache.peek(bufIndex) : null;
+		return e != null && e.isDirty && (long)bufIndex*_bufferSize < _length;
+	}
 	
-	private void writeCachedBuffer(int bufIndex, CachedSectorInfo ci) throws IOException
+	private void writeCachedBuffer(BufferCache.Entry ci) throws IOException
 	{
-		long bp = (long)bufIndex*_bufferSize;
-		transformBufferAndWriteToBase(ci.buffer, 0, (int)Math.min(_bufferSize, _length - bp), bp);
-		ci.isChanged = false;
+		long bp = (long)ci.index*_bufferSize;
+		_baseWriteCount++;
+		if(bp < _length)
+			transformBufferAndWriteToBase(ci.buffer, 0, (int)Math.min(_bufferSize, _length - bp), bp);
+		ci.isDirty = false;
 	}
 	
-	private CachedSectorInfo reserveCacheSlot(int bufIndex) throws IOException
+	private BufferCache.Entry reserveCacheSlot(int bufIndex) throws IOException
 	{
-		int cs = _cache.size();
-		if(cs<_maxNumberCachedBuffers)
+		BufferCache.Entry ci;
+		while((ci = reserveCleanCacheSlot(bufIndex)) == null)
 		{
-			CachedSectorInfo ci = new CachedSectorInfo(_buffer.length);
-			_cache.put(bufIndex, ci);
-			return ci;
+			BufferCache.Entry victim = _cache.getVictim();
+			//The buffers are written by the caller after a background write has failed
+			if(ENABLE_WRITE_BEHIND && _writeBehindError == null)
+				queueWrite(victim);
+			else
+				writeCachedBuffers(victim);
 		}
+		return ci;
+	}
 
-		int minRefsBufIndex = -1;
-		int minRefs = 0;
-		for(int i=0;i<cs;i++)
+	/**
+	 * Reserves a cache slot evicting only the unchanged buffers
+	 * @return null if a changed buffer must be written first
+	 */
+	private BufferCache.Entry reserveCleanCacheSlot(int bufIndex)
+	{
+		byte[] buf = null;
+		BufferCache.Entry victim;
+		while(_cache.isFull() && (victim = _cache.getVictim()) != null)
 		{
-			int oldBufIndex = _cache.keyAt(i);
-			CachedSectorInfo ci = _cache.valueAt(i);
-			if(minRefs == 0 || ci.refCount<minRefs)
+			//A changed buffer can be dropped if its data is queued for writing
+			if(victim.isDirty && !isQueued(victim))
 			{
-				minRefs = ci.refCount;
-				minRefsBufIndex = oldBufIndex;
+				if(buf != null)
+					Arrays.fill(buf, (byte) 0);
+				return null;
 			}
+			_cache.remove(victim);
+			if(victim.isDirty)
+				_pendingWrites.get(victim.index).entry = null;
+			if(buf == null)
+				buf = victim.buffer;
+			else
+				Arrays.fill(victim.buffer, (byte) 0);
 		}
-		CachedSectorInfo ci = _cache.get(minRefsBufIndex);
-		if(ci.isChanged)
-			writeCachedBuffer(minRefsBufIndex, ci);
-		_cache.remove(minRefsBufIndex);
-		ci.refCount = 1;
-		_cache.put(bufIndex, ci);
-		return ci;
+		return _cache.put(bufIndex, buf != null ? buf : new byte[_bufferSize]);
 	}	
+
+	private boolean isQueued(BufferCache.Entry ci)
+	{
+		PendingWrite pw = _pendingWrites.get(ci.index);
+		return pw != null && pw.entry == ci;
+	}
+
+	/**
+	 * Hands a copy of the changed buffer to the write-behind task. The buffer stays changed until the write is done.
+	 * The buffer is written by the caller if the queue is full: waiting would release the file lock in the middle of a buffer switch.
+	 */
+	private void queueWrite(BufferCache.Entry ci) throws IOException
+	{
+		long bp = (long)ci.index*_bufferSize;
+		if(bp >= _length)
+		{
+			ci.isDirty = false;
+			return;
+		}
+		if(_pendingWritesSize >= MAX_WRITE_BEHIND_SIZE && !_pendingWrites.containsKey(ci.index))
+		{
+			writeCachedBuffers(ci);
+			return;
+		}
+		PendingWrite pw = new PendingWrite(ci.index, Arrays.copyOf(ci.buffer, _bufferSize), (int)Math.min(_bufferSize, _length - bp));
+		pw.entry = ci;
+		PendingWrite prev = _pendingWrites.put(pw.index, pw);
+		if(prev != null)
+		{
+			_pendingWritesSize -= _bufferSize;
+			Arrays.fill(prev.data, (byte) 0);
+		}
+		_pendingWritesSize += _bufferSize;
+		//Buffers being read ahead may already be outdated
+		_baseWriteCount++;
+		if(!_isWriteBehindRunning)
+		{
+			_isWriteBehindRunning = true;
+			getWriteBehindExecutor().execute(this::writeBehind);
+		}
+	}
+
+	/**
+	 * Waits until all the queued writes are done or returned to the cache after a failure
+	 */
+	private void waitForWriteBehind() throws IOException
+	{
+		while(_isWriteBehindRunning)
+			if(!waitForBackgroundTask())
+				throw new IOException("Interrupted while waiting for the write queue");
+	}
+
+	/**
+	 * Drops the queued write of the buffer. The write-behind task skips the runs containing the dropped writes.
+	 */
+	private void removePendingWrite(int bufIndex)
+	{
+		PendingWrite pw = _pendingWrites.remove(bufIndex);
+		if(pw != null)
+		{
+			_pendingWritesSize -= _bufferSize;
+			Arrays.fill(pw.data, (byte) 0);
+		}
+	}
+
+	/**
+	 * Throws the error of a background write. The error is kept until it's reported by flush() or close().
+	 */
+	private void checkWriteBehindError() throws IOException
+	{
+		IOException e = _writeBehindError;
+		if(e != null)
+		{
+			_writeBehindError = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the queued writes to the cache as changed buffers, so that they are written by the file owner
+	 */
+	private void restorePendingWrites()
+	{
+		for(PendingWrite pw: _pendingWrites.values())
+		{
+			BufferCache.Entry ci = _cache.peek(pw.index);
+			if(ci == null)
+				//The cache may exceed its share until the buffers are written
+				_cache.put(pw.index, pw.data).isDirty = true;
+			else
+			{
+				//The cached buffer has the same or newer data
+				ci.isDirty = true;
+				Arrays.fill(pw.data, (byte) 0);
+			}
+		}
+		_pendingWrites.clear();
+		_pendingWritesSize = 0;
+	}
+
+	private void stopWriteBehind()
+	{
+		for(PendingWrite pw: _pendingWrites.values())
+			Arrays.fill(pw.data, (byte) 0);
+		_pendingWrites.clear();
+		_pendingWritesSize = 0;
+	}
+
+	private boolean isRunCurrent(List<PendingWrite> run)
+	{
+		for(PendingWrite pw: run)
+			if(_pendingWrites.get(pw.index) != pw)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Write-behind task. Takes the queued buffers in the file order, merges the adjacent ones,
+	 * encrypts them without holding the file lock and writes them using a single base write.
+	 */
+	private void writeBehind()
+	{
+		try
+		{
+			int maxRun = Math.max(1, MAX_WRITE_BACK_SIZE / _bufferSize);
+			List<PendingWrite> run = new ArrayList<>(maxRun);
+			while(true)
+			{
+				int count = 0;
+				long bp;
+				byte[] buf;
+				synchronized (this)
+				{
+					run.clear();
+					if(_pendingWrites.isEmpty())
+						return;
+					for(PendingWrite pw: _pendingWrites.values())
+					{
+						if(!run.isEmpty() && (pw.index != run.get(run.size() - 1).index + 1 || count != (long)run.size()*_bufferSize))
+							break;
+						run.add(pw);
+						count += pw.count;
+						if(run.size() >= maxRun)
+							break;
+					}
+					if(_writeBehindBuffer == null)
+						_writeBehindBuffer = new byte[maxRun*_bufferSize];
+					buf = _writeBehindBuffer;
+					for(int i = 0; i < run.size(); i++)
+						System.arraycopy(run.get(i).data, 0, buf, i*_bufferSize, run.get(i).count);
+					bp = (long)run.get(0).index*_bufferSize;
+				}
+				try
+				{
+					transformBufferToBase(buf, 0, count, bp, buf);
+					synchronized (this)
+					{
+						//The buffers replaced or written by the file owner meanwhile must not be overwritten with the old data.
+						//The remaining ones are taken again by the next iteration.
+						if(isRunCurrent(run))
+						{
+							writeToBase(buf, 0, count, bp);
+							_baseWriteCount++;
+							for(PendingWrite pw: run)
+							{
+								if(pw.entry != null && _cache.peek(pw.index) == pw.entry)
+									pw.entry.isDirty = false;
+								removePendingWrite(pw.index);
+							}
+						}
+						notifyAll();
+					}
+				}
+				finally
+				{
+					Arrays.fill(buf, 0, count, (byte) 0);
+				}
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			Logger.log(e);
+			synchronized (this)
+			{
+				_writeBehindError = e instanceof IOException ? (IOException) e : new IOException(e);
+				restorePendingWrites();
+			}
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				_isWriteBehindRunning = false;
+				notifyAll();
+			}
+		}
+	}
 }
@@ -46,11 +46,9 @@ public class EncryptedInputStream extends TransInputStream
 	{
 		if(_allowEmptyParts && count == _bufferSize && EncryptedFile.isBufferEmpty(baseBuffer, offset, count))
 			return count;
-		FileEncryptionEngine ee = _layout.getEngine();
-		_layout.setEncryptionEngineIV(ee, bufferPosition);
 		try
 		{
-			ee.decrypt(baseBuffer, offset, count);
+			_layout.decryptSectors(baseBuffer, offset, count, bufferPosition);
 		}
 		catch (EncryptionEngineException e)
 		{
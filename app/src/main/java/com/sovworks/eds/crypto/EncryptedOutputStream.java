@@ -45,11 +45,9 @@ public class EncryptedOutputStream extends TransOutputStream
 	{
 		if(_allowEmptyParts && count == _bufferSize && EncryptedFile.isBufferEmpty(buf, offset, count))
 			return;
-		FileEncryptionEngine ee = _layout.getEngine();
-		_layout.setEncryptionEngineIV(ee, bufferPosition);
 		try
 		{
-			ee.encrypt(buf, offset, count);
+			_layout.encryptSectors(buf, offset, count, bufferPosition);
 		}
 		catch (EncryptionEngineException e)
 		{
@@ -1,5 +1,8 @@
 package com.sovworks.eds.crypto;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 public interface EncryptionEngine
 {
 	/**
@@ -22,6 +25,60 @@ public interface EncryptionEngine
 	 */
 	void encrypt(byte[] data, int offset, int len) throws EncryptionEngineException;
 
+	/**
+	 * Decrypts the bytes between the position and the limit of the buffer in place.
+	 * The position and the limit of the buffer are not changed.
+	 * Engines with native implementation process direct buffers without copying.
+	 * @param data data buffer
+	 * @throws EncryptionEngineException on decryption error
+	 */
+	default void decrypt(ByteBuffer data) throws EncryptionEngineException
+	{
+		if(data.hasArray())
+		{
+			decrypt(data.array(), data.arrayOffset() + data.position(), data.remaining());
+			return;
+		}
+		byte[] tmp = new byte[data.remaining()];
+		try
+		{
+			data.duplicate().get(tmp);
+			decrypt(tmp, 0, tmp.length);
+			data.duplicate().put(tmp);
+		}
+		finally
+		{
+			Arrays.fill(tmp, (byte)0);
+		}
+	}
+
+	/**
+	 * Encrypts the bytes between the position and the limit of the buffer in place.
+	 * The position and the limit of the buffer are not changed.
+	 * Engines with native implementation process direct buffers without copying.
+	 * @param data data buffer
+	 * @throws EncryptionEngineException on encryption error
+	 */
+	default void encrypt(ByteBuffer data) throws EncryptionEngineException
+	{
+		if(data.hasArray())
+		{
+			encrypt(data.array(), data.arrayOffset() + data.position(), data.remaining());
+			return;
+		}
+		byte[] tmp = new byte[data.remaining()];
+		try
+		{
+			data.duplicate().get(tmp);
+			encrypt(tmp, 0, tmp.length);
+			data.duplicate().put(tmp);
+		}
+		finally
+		{
+			Arrays.fill(tmp, (byte)0);
+		}
+	}
+
 	/**
 	 * Sets current iv
 	 * @param iv current iv
@@ -0,0 +1,43 @@
+package com.sovworks.eds.crypto;
+
+import java.security.SecureRandom;
+
+public class EncryptionEngineBenchmark
+{
+	/**
+	 * Measures the encryption throughput of the engine. The engine is initialized with a random key.
+	 * @param ee engine to measure
+	 * @param bufferSize size of the buffer passed to a single encrypt call
+	 * @param minDurationMillis minimal measurement duration
+	 * @return throughput in bytes per second
+	 * @throws EncryptionEngineException if the engine fails
+	 */
+	public static double measureEncryptionSpeed(FileEncryptionEngine ee, int bufferSize, long minDurationMillis) throws EncryptionEngineException
+	{
+		SecureRandom sr = new SecureRandom();
+		byte[] key = new byte[ee.getKeySize()];
+		sr.nextBytes(key);
+		ee.setKey(key);
+		ee.init();
+		ee.setIV(new byte[ee.getIVSize()]);
+		ee.setIncrementIV(true);
+		byte[] buf = new byte[bufferSize];
+		//warm up
+		for(int i=0;i<WARM_UP_ITERATIONS;i++)
+			ee.encrypt(buf, 0, buf.length);
+
+		long processed = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do
+		{
+			ee.encrypt(buf, 0, buf.length);
+			processed += buf.length;
+			elapsed = System.nanoTime() - start;
+		}
+		while(elapsed < minDurationMillis*1000000);
+		return processed * 1e9 / elapsed;
+	}
+
+	private static final int WARM_UP_ITERATIONS = 16;
+}
@@ -1,5 +1,8 @@
 package com.sovworks.eds.crypto;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 public interface FileEncryptionEngine extends EncryptionEngine
 {
     /**
@@ -11,4 +14,78 @@ public interface FileEncryptionEngine extends EncryptionEngine
     int getEncryptionBlockSize();
 
     void setIncrementIV(boolean val);
+
+    /**
+     * Encrypts consecutive file blocks. The iv of each block is derived from the block index.
+     * The iv set by setIV is neither used nor changed, so the method can be called concurrently.
+     * @param data data bytes array
+     * @param offset data offset
+     * @param len data length
+     * @param firstSectorIndex index of the first file block
+     * @throws EncryptionEngineException on encryption error
+     */
+    void encryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException;
+
+    /**
+     * Decrypts consecutive file blocks. The iv of each block is derived from the block index.
+     * The iv set by setIV is neither used nor changed, so the method can be called concurrently.
+     * @param data data bytes array
+     * @param offset data offset
+     * @param len data length
+     * @param firstSectorIndex index of the first file block
+     * @throws EncryptionEngineException on decryption error
+     */
+    void decryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException;
+
+    /**
+     * Encrypts the bytes between the position and the limit of the buffer in place. See encryptSectors(byte[], int, int, long)
+     * @param data data buffer
+     * @param firstSectorIndex index of the first file block
+     * @throws EncryptionEngineException on encryption error
+     */
+    default void encryptSectors(ByteBuffer data, long firstSectorIndex) throws EncryptionEngineException
+    {
+        if(data.hasArray())
+        {
+            encryptSectors(data.array(), data.arrayOffset() + data.position(), data.remaining(), firstSectorIndex);
+            return;
+        }
+        byte[] tmp = new byte[data.remaining()];
+        try
+        {
+            data.duplicate().get(tmp);
+            encryptSectors(tmp, 0, tmp.length, firstSectorIndex);
+            data.duplicate().put(tmp);
+        }
+        finally
+        {
+            Arrays.fill(tmp, (byte)0);
+        }
+    }
+
+    /**
+     * Decrypts the bytes between the position and the limit of the buffer in place. See decryptSectors(byte[], int, int, long)
+     * @param data data buffer
+     * @param firstSectorIndex index of the first file block
+     * @throws EncryptionEngineException on decryption error
+     */
+    default void decryptSectors(ByteBuffer data, long firstSectorIndex) throws EncryptionEngineException
+    {
+        if(data.hasArray())
+        {
+            decryptSectors(data.array(), data.arrayOffset() + data.position(), data.remaining(), firstSectorIndex);
+            return;
+        }
+        byte[] tmp = new byte[data.remaining()];
+        try
+        {
+            data.duplicate().get(tmp);
+            decryptSectors(tmp, 0, tmp.length, firstSectorIndex);
+            data.duplicate().put(tmp);
+        }
+        finally
+        {
+            Arrays.fill(tmp, (byte)0);
+        }
+    }
 }
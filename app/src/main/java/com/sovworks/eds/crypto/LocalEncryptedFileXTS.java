@@ -1,6 +1,5 @@
 package com.sovworks.eds.crypto;
 
-import java.io.File;
 import java.io.IOException;
 
 import com.sovworks.eds.crypto.modes.XTS;
@@ -8,17 +7,44 @@ import com.sovworks.eds.fs.RandomAccessIO;
 
 public class LocalEncryptedFileXTS implements RandomAccessIO
 {
-	public LocalEncryptedFileXTS(String pathToFile, boolean readOnly, long dataOffset, XTS xts) throws IOException
+	/**
+	 * Opens the container file
+	 * @param pathToFile path to the container file
+	 * @param readOnly open the file in read only mode
+	 * @param dataOffset offset of the encrypted data
+	 * @param firstSectorIndex xts sector index of the first sector of the encrypted data
+	 * @param xts native xts engine
+	 * @throws IOException if the file can't be opened
+	 */
+	public LocalEncryptedFileXTS(String pathToFile, boolean readOnly, long dataOffset, long firstSectorIndex, XTS xts) throws IOException
 	{
-		_file = new File(pathToFile);
 		_dataOffset = dataOffset;
-		_contextPointer = initContext(pathToFile, readOnly, xts.getXTSContextPointer());
+		_contextPointer = initContext(pathToFile, readOnly, xts.getXTSContextPointer(), dataOffset, firstSectorIndex);
 		if(_contextPointer == 0)
 			throw new IOException("Context initialization failed");
 		
 		seek(0);
 	}
 
+	/**
+	 * Opens the container using an already opened file descriptor, e.g. ParcelFileDescriptor.getFd().
+	 * The descriptor is duplicated, the caller must close the original one.
+	 * @param fd seekable file descriptor
+	 * @param dataOffset offset of the encrypted data
+	 * @param firstSectorIndex xts sector index of the first sector of the encrypted data
+	 * @param xts native xts engine
+	 * @throws IOException if the descriptor can't be used
+	 */
+	public LocalEncryptedFileXTS(int fd, long dataOffset, long firstSectorIndex, XTS xts) throws IOException
+	{
+		_dataOffset = dataOffset;
+		_contextPointer = initContextFD(fd, xts.getXTSContextPointer(), dataOffset, firstSectorIndex);
+		if(_contextPointer == 0)
+			throw new IOException("Context initialization failed");
+
+		seek(0);
+	}
+
 	@Override
 	public void close() throws IOException
 	{
@@ -49,7 +75,13 @@ public class LocalEncryptedFileXTS implements RandomAccessIO
 	@Override
 	public long length() throws IOException
 	{
-		return _file.length() - _dataOffset;
+		if(_contextPointer == 0)
+			throw new IOException("File is closed");
+
+		long res = getSize(_contextPointer);
+		if(res < 0)
+			throw new IOException("Failed getting file size");
+		return res - _dataOffset;
 	}
 
 	@Override
@@ -121,7 +153,6 @@ public class LocalEncryptedFileXTS implements RandomAccessIO
 	private final byte[] _oneByteBuf = new byte[1];
 	private final long _dataOffset;
 	private long _contextPointer;
-	private final File _file;
 	
 	static
 	{
@@ -133,7 +164,9 @@ public class LocalEncryptedFileXTS implements RandomAccessIO
 	private static native long getPosition(long contextPointer);
 	private static native void seek(long contextPointer, long newPosition);
 	private static native int ftruncate(long contextPointer, long newLength);
-	private static native long initContext(String pathToFile, boolean readOnly, long xtsContext); 
+	private static native long initContext(String pathToFile, boolean readOnly, long xtsContext, long dataOffset, long firstSectorIndex);
+	private static native long initContextFD(int fd, long xtsContext, long dataOffset, long firstSectorIndex);
+	private static native long getSize(long contextPointer);
 	private static native int read(long contextPointer, byte[] buf, int off, int len);
 	private static native int write(long contextPointer, byte[] buf, int off, int len);
 
@@ -128,6 +128,19 @@ public class MACFile extends TransRandomAccessIO
         return calcVirtPosition(basePosition, _bufferSize, _overhead);
     }
 
+    @Override
+    protected int calcBaseCount(int count)
+    {
+        return count + _overhead;
+    }
+
+    @Override
+    protected boolean canReadDirectly()
+    {
+        //Each block of the base file starts with the mac and random bytes
+        return _overhead == 0;
+    }
+
     @Override
     protected int readFromBaseAndTransformBuffer(byte[] buf, int offset, int count, long bufferPosition) throws IOException
     {
@@ -0,0 +1,37 @@
+package com.sovworks.eds.crypto.engines;
+
+import com.sovworks.eds.crypto.modes.XTSJCE;
+
+
+public class AESXTSJCE extends XTSJCE
+{
+	public AESXTSJCE()
+	{
+		this(64);
+	}
+
+	public AESXTSJCE(int keySize)
+	{
+		_keySize = keySize;
+	}
+
+	@Override
+	public int getKeySize()
+	{
+		return _keySize;
+	}
+
+	@Override
+	public String getCipherName()
+	{
+		return AESXTS.NAME;
+	}
+
+	@Override
+	protected String getJCEAlgorithmName()
+	{
+		return "AES";
+	}
+
+	private final int _keySize;
+}
@@ -0,0 +1,17 @@
+package com.sovworks.eds.crypto.hash;
+
+import java.security.MessageDigest;
+
+/**
+ * Message digest which state can be restored from another instance without allocating a new one
+ */
+public interface CopyableDigest extends Cloneable
+{
+	/**
+	 * Copies the state of the given digest of the same type to this digest
+	 * @param src source digest
+	 */
+	void copyStateFrom(MessageDigest src);
+
+	void close();
+}
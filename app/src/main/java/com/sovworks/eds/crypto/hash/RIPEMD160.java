@@ -2,7 +2,7 @@ package com.sovworks.eds.crypto.hash;
 
 import java.security.MessageDigest;
 
-public class RIPEMD160 extends MessageDigest 
+public class RIPEMD160 extends MessageDigest implements CopyableDigest 
 {
 	public RIPEMD160()
 	{
@@ -11,6 +11,7 @@ public class RIPEMD160 extends MessageDigest
 		engineReset();
 	}	
 	
+	@Override
 	public void close()
 	{
 		if(_contextPtr!=0)
@@ -20,6 +21,21 @@ public class RIPEMD160 extends MessageDigest
 		}
 	}
 	
+	@Override
+	public Object clone() throws CloneNotSupportedException
+	{
+		RIPEMD160 res = (RIPEMD160) super.clone();
+		res._contextPtr = initContext();
+		copyContext(res._contextPtr, _contextPtr);
+		return res;
+	}
+
+	@Override
+	public void copyStateFrom(MessageDigest src)
+	{
+		copyContext(_contextPtr, ((RIPEMD160) src)._contextPtr);
+	}
+	
 	@Override
 	protected void finalize() throws Throwable 
 	{
@@ -74,6 +90,7 @@ public class RIPEMD160 extends MessageDigest
 	private native void updateDigestByte(long contextPtr,byte data);
 	private native void updateDigest(long contextPtr,byte[] data,int offset,int len);
 	private native void finishDigest(long contextPtr,byte[] result);
+	private native void copyContext(long dstContextPtr,long srcContextPtr);
 
 	
 	
@@ -5,6 +5,7 @@ import java.security.MessageDigest;
 import java.util.Arrays;
 
 import com.sovworks.eds.crypto.EncryptionEngineException;
+import com.sovworks.eds.crypto.hash.CopyableDigest;
 
 public class HMAC
 {
@@ -14,7 +15,8 @@ public class HMAC
         _digest = new byte[getDigestLength()];
         _block = new byte[blockSize];
         _key = key.length > _block.length ? md.digest(key) : key.clone();
-        
+        _innerState = initPadState((byte)0x36);
+        _outerState = _innerState == null ? null : initPadState((byte)0x5C);
     }
 	
 	public int getDigestLength()
@@ -24,27 +26,26 @@ public class HMAC
 	
 	public void calcHMAC(byte[] data,int dataOffset,int dataLen,byte[] out) throws DigestException, EncryptionEngineException
     {
-        _md.reset();
-        for(int i=0;i<_key.length;i++)
-            _block[i] = (byte)(_key[i] ^ 0x36);
-        Arrays.fill(_block, _key.length, _block.length, (byte)0x36);        
-        
-        _md.update(_block);
-        _md.update(data,dataOffset,dataLen);
-        _md.digest(_digest,0,_digest.length);
-
-        for(int i=0;i<_key.length;i++)
-            _block[i] = (byte)(_key[i] ^ 0x5C);
-        Arrays.fill(_block, _key.length, _block.length, (byte)0x5C);
-        _md.update(_block);
-        _md.update(_digest);
-        _md.digest(_digest,0,_digest.length);
+        if(_outerState == null)
+        {
+            calcHMACWithoutStates(data, dataOffset, dataLen, out);
+            return;
+        }
+        MessageDigest md = restoreState(_innerState);
+        md.update(data,dataOffset,dataLen);
+        md.digest(_digest,0,_digest.length);
+
+        md = restoreState(_outerState);
+        md.update(_digest);
+        md.digest(_digest,0,_digest.length);
         System.arraycopy(_digest,0,out,0,_digest.length);
     }
 	
 	public void close()
     {
         _md.reset();
+        closeState(_innerState);
+        closeState(_outerState);
 	    Arrays.fill(_key,(byte)0);
 	    Arrays.fill(_digest,(byte)0);
 	    Arrays.fill(_block,(byte)0);
@@ -52,5 +53,83 @@ public class HMAC
 	
 	protected final MessageDigest _md;
 	protected final byte[] _digest,_block,_key;   
-	
+
+	/**
+	 * Digest states after absorbing the inner and outer key pads.
+	 * Null if the digest doesn't support cloning.
+	 */
+	private final MessageDigest _innerState, _outerState;
+
+	private MessageDigest initPadState(byte pad)
+	{
+		fillPadBlock(pad);
+		_md.reset();
+		_md.update(_block);
+		Arrays.fill(_block, (byte)0);
+		try
+		{
+			return (MessageDigest) _md.clone();
+		}
+		catch (CloneNotSupportedException e)
+		{
+			return null;
+		}
+		finally
+		{
+			_md.reset();
+		}
+	}
+
+	/**
+	 * Returns a digest in the given state. Copyable digests are restored in place,
+	 * others are cloned.
+	 */
+	private MessageDigest restoreState(MessageDigest state) throws EncryptionEngineException
+	{
+		if(_md instanceof CopyableDigest)
+		{
+			((CopyableDigest) _md).copyStateFrom(state);
+			return _md;
+		}
+		try
+		{
+			return (MessageDigest) state.clone();
+		}
+		catch (CloneNotSupportedException e)
+		{
+			throw new EncryptionEngineException("Failed restoring digest state", e);
+		}
+	}
+
+	private void calcHMACWithoutStates(byte[] data,int dataOffset,int dataLen,byte[] out)  throws DigestException
+	{
+		_md.reset();
+		fillPadBlock((byte)0x36);
+		_md.update(_block);
+		_md.update(data,dataOffset,dataLen);
+		_md.digest(_digest,0,_digest.length);
+
+		fillPadBlock((byte)0x5C);
+		_md.update(_block);
+		_md.update(_digest);
+		_md.digest(_digest,0,_digest.length);
+		System.arraycopy(_digest,0,out,0,_digest.length);
+	}
+
+	private void fillPadBlock(byte pad)
+	{
+		for(int i=0;i<_key.length;i++)
+			_block[i] = (byte)(_key[i] ^ pad);
+		Arrays.fill(_block, _key.length, _block.length, pad);
+	}
+
+	private static void closeState(MessageDigest state)
+	{
+		if(state != null)
+		{
+			state.reset();
+			if(state instanceof CopyableDigest)
+				((CopyableDigest) state).close();
+		}
+	}
 }
@@ -20,6 +20,12 @@ public class HMACRIPEMD160KDF extends PBKDF
 			throw e1;
 		}
 	}	
+
+	@Override
+	protected String getNativeHashName()
+	{
+		return NativePBKDF2.RIPEMD160;
+	}
 	
 	@Override
 	protected int getDefaultIterationsCount()
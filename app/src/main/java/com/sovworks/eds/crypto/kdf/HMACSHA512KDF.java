@@ -20,4 +20,10 @@ public class HMACSHA512KDF extends PBKDF
 			throw e1;
 		}
 	}	
+
+	@Override
+	protected String getNativeHashName()
+	{
+		return NativePBKDF2.SHA512;
+	}
 }
@@ -20,4 +20,10 @@ public class HMACWhirlpoolKDF extends PBKDF
 			throw e1;
 		}
 	}	
+
+	@Override
+	protected String getNativeHashName()
+	{
+		return NativePBKDF2.WHIRLPOOL;
+	}
 }
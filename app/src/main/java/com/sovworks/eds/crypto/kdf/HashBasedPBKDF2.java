@@ -23,8 +23,37 @@ public class HashBasedPBKDF2 extends PBKDF
 	@Override
 	protected HMAC initHMAC(byte[] password) throws EncryptionEngineException
 	{
-		_md.reset();
-		return new HMAC(password, _md, _blockSize);
+		//Use a separate digest instance for each HMAC if possible, so that the pbkdf2 blocks can be derived concurrently
+		MessageDigest md;
+		try
+		{
+			md = (MessageDigest) _md.clone();
+		}
+		catch (CloneNotSupportedException e)
+		{
+			md = _md;
+		}
+		md.reset();
+		return new HMAC(password, md, _blockSize);
+	}
+	
+	@Override
+	protected String getNativeHashName()
+	{
+		String mdn = _md.getAlgorithm().toLowerCase();
+		if(_blockSize != guessMDBlockSize(_md))
+			return null;
+		switch (mdn)
+		{
+			case "sha-512":
+			case "sha512":
+				return NativePBKDF2.SHA512;
+			case NativePBKDF2.RIPEMD160:
+			case NativePBKDF2.WHIRLPOOL:
+				return mdn;
+			default:
+				return null;
+		}
 	}
 	
 	private final MessageDigest _md;
@@ -0,0 +1,114 @@
+package com.sovworks.eds.crypto.kdf;
+
+import com.sovworks.eds.android.Logger;
+
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the pbkdf2 throughput of the device and calculates the number of iterations
+ * which take the desired time to derive the key.
+ * The measured values are cached for the process lifetime.
+ */
+public class KDFCalibrator
+{
+	/**
+	 * Returns the number of iterations of the pbkdf2 based on the given hash function which takes
+	 * about durationMs milliseconds
+	 * @param hashFunc hash function
+	 * @param keyLen derived key length
+	 * @param durationMs target key derivation time
+	 * @param minIterations minimal number of iterations to return
+	 * @return number of iterations
+	 */
+	public static int getIterationsForDuration(MessageDigest hashFunc, int keyLen, int durationMs, int minIterations)
+	{
+		return getIterationsForDuration(
+				hashFunc.getAlgorithm().toLowerCase() + ":" + keyLen,
+				new HashBasedPBKDF2(hashFunc),
+				keyLen,
+				durationMs,
+				minIterations
+		);
+	}
+
+	/**
+	 * Returns the number of iterations of the kdf which takes about durationMs milliseconds
+	 * @param name kdf name used as the cache key
+	 * @param kdf the kdf
+	 * @param keyLen derived key length
+	 * @param durationMs target key derivation time
+	 * @param minIterations minimal number of iterations to return
+	 * @return number of iterations
+	 */
+	public static int getIterationsForDuration(String name, PBKDF kdf, int keyLen, int durationMs, int minIterations)
+	{
+		double ips = getIterationsPerSecond(name, kdf, keyLen);
+		long res = (long) (ips * durationMs / 1000);
+		return (int) Math.max(minIterations, Math.min(res, MAX_ITERATIONS));
+	}
+
+	/**
+	 * Returns the number of the kdf iterations the device can do per second
+	 * @param name kdf name used as the cache key
+	 * @param kdf the kdf
+	 * @param keyLen derived key length
+	 * @return iterations per second or 0 if the measurement failed
+	 */
+	public static double getIterationsPerSecond(String name, PBKDF kdf, int keyLen)
+	{
+		synchronized (_cache)
+		{
+			Double res = _cache.get(name);
+			if(res != null)
+				return res;
+		}
+		double ips = measure(kdf, keyLen);
+		Logger.debug(String.format("%s: %.0f kdf iterations per second", name, ips));
+		if(ips > 0)
+			synchronized (_cache)
+			{
+				_cache.put(name, ips);
+			}
+		return ips;
+	}
+
+	/**
+	 * Minimal duration of the measurement
+	 */
+	public static int MEASUREMENT_WINDOW_MS = 100;
+
+	private static final int INITIAL_ITERATIONS = 1000;
+	private static final int MIN_RUNS = 3;
+	private static final int MAX_ITERATIONS = 100000000;
+	private static final Map<String, Double> _cache = new HashMap<>();
+
+	private static double measure(PBKDF kdf, int keyLen)
+	{
+		byte[] password = new byte[16];
+		byte[] salt = new byte[64];
+		int iterations = INITIAL_ITERATIONS;
+		double best = 0;
+		try
+		{
+			//The first runs are used to warm up and to scale the number of iterations
+			for(int run = 0; ; run++)
+			{
+				long start = System.nanoTime();
+				kdf.deriveKey(password, salt, iterations, keyLen);
+				long elapsed = Math.max(System.nanoTime() - start, 1);
+				best = Math.max(best, iterations * 1e9 / elapsed);
+				if((elapsed >= MEASUREMENT_WINDOW_MS * 1000000L && run >= MIN_RUNS - 1) || iterations >= MAX_ITERATIONS)
+					return best;
+				long next = (long) (best * MEASUREMENT_WINDOW_MS / 1000) + 1;
+				iterations = (int) Math.min(Math.max(next, iterations), MAX_ITERATIONS);
+			}
+		}
+		catch (Exception e)
+		{
+			Logger.log(e);
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.sovworks.eds.crypto.kdf;
+
+import com.sovworks.eds.crypto.EncryptionEngineException;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * PBKDF2-HMAC implementations which run the whole iteration loop in the native code
+ */
+final class NativePBKDF2
+{
+	interface ProgressListener
+	{
+		/**
+		 * Called periodically by the native code
+		 * @param finishedIterations number of iterations finished so far by the current call
+		 * @return false to cancel the key derivation
+		 */
+		boolean reportNativeProgress(int finishedIterations);
+	}
+
+	static final String RIPEMD160 = "ripemd160";
+	static final String WHIRLPOOL = "whirlpool";
+	static final String SHA512 = "sha-512";
+
+	static boolean isSupported(String hashName)
+	{
+		switch (hashName)
+		{
+			case RIPEMD160:
+				return loadLibrary("edsripemd160");
+			case WHIRLPOOL:
+				return loadLibrary("edswhirlpool");
+			case SHA512:
+				return loadLibrary("edssha512");
+			default:
+				return false;
+		}
+	}
+
+	static int getDigestLength(String hashName)
+	{
+		return RIPEMD160.equals(hashName) ? 20 : 64;
+	}
+
+	/**
+	 * Derives out.length bytes of the key starting from the specified output block
+	 * @param firstBlock index of the first pbkdf2 output block (1-based)
+	 * @param out derived key part
+	 * @param progressListener if not null, its reportNativeProgress method is called periodically.
+	 * The derivation is cancelled if the method returns false.
+	 * @throws CancellationException if the derivation has been cancelled
+	 */
+	static void deriveKey(String hashName, byte[] password, byte[] salt, int iterations, int firstBlock, byte[] out, ProgressListener progressListener) throws EncryptionEngineException
+	{
+		int code;
+		switch (hashName)
+		{
+			case RIPEMD160:
+				code = deriveKeyRIPEMD160(password, salt, iterations, firstBlock, out, progressListener);
+				break;
+			case WHIRLPOOL:
+				code = deriveKeyWhirlpool(password, salt, iterations, firstBlock, out, progressListener);
+				break;
+			case SHA512:
+				code = deriveKeySHA512(password, salt, iterations, firstBlock, out, progressListener);
+				break;
+			default:
+				throw new EncryptionEngineException("Unsupported hash function: " + hashName);
+		}
+		if(code == RESULT_CANCELLED)
+			throw new CancellationException();
+		if(code != RESULT_OK)
+			throw new EncryptionEngineException("Key derivation failed");
+	}
+
+	private static final int RESULT_OK = 0;
+	private static final int RESULT_CANCELLED = 1;
+
+	private static boolean loadLibrary(String name)
+	{
+		try
+		{
+			System.loadLibrary(name);
+			return true;
+		}
+		catch (UnsatisfiedLinkError e)
+		{
+			return false;
+		}
+	}
+
+	private static native int deriveKeyRIPEMD160(byte[] password, byte[] salt, int iterations, int firstBlock, byte[] out, ProgressListener progressListener);
+	private static native int deriveKeyWhirlpool(byte[] password, byte[] salt, int iterations, int firstBlock, byte[] out, ProgressListener progressListener);
+	private static native int deriveKeySHA512(byte[] password, byte[] salt, int iterations, int firstBlock, byte[] out, ProgressListener progressListener);
+}
@@ -5,10 +5,20 @@ import java.nio.ByteOrder;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sovworks.eds.android.helpers.ProgressReporter;
+import com.sovworks.eds.container.ConcurrentTrials;
 import com.sovworks.eds.crypto.EncryptionEngineException;
 import com.sovworks.eds.crypto.hash.RIPEMD160;
 import com.sovworks.eds.crypto.hash.Whirlpool;
@@ -27,32 +37,48 @@ public abstract class PBKDF
 	
 	public byte[] deriveKey(byte[] srcKey,byte[] salt,int iterations,int keyLen)throws EncryptionEngineException, DigestException
     {
-		HMAC hmac = initHMAC(srcKey);
+		String nativeHashName = ENABLE_NATIVE_PBKDF2 ? getNativeHashName() : null;
+		if(nativeHashName != null && !NativePBKDF2.isSupported(nativeHashName))
+			nativeHashName = null;
+
+		HMAC[] hmacs = null;
+		int digestLength;
+		if(nativeHashName == null)
+		{
+			hmacs = new HMAC[] {initHMAC(srcKey)};
+			digestLength = hmacs[0].getDigestLength();
+		}
+		else
+			digestLength = NativePBKDF2.getDigestLength(nativeHashName);
+		int l = keyLen % digestLength != 0 ? 1 + keyLen/digestLength : keyLen/digestLength;
+		//A trial thread of the concurrent header or key slot search derives the key by itself
+		int numTasks = ENABLE_PARALLEL_PBKDF2 ? Math.min(ConcurrentTrials.getNumThreads(l), getMaxParallelism()) : 1;
+		byte[] res = new byte[keyLen];
 		try
 		{
-			int digestLength = hmac.getDigestLength();
-	        byte[] u = new byte[digestLength];
-	        byte[] res = new byte[keyLen];
-	        int l = keyLen % digestLength != 0 ? 1 + keyLen/digestLength : keyLen/digestLength;
-	        int r = keyLen - (l - 1)*digestLength;
-	        int b;
-			_finishedIterations = 0;
+			if(hmacs != null && numTasks > 1)
+				hmacs = initTaskHMACs(srcKey, hmacs[0], numTasks);
+			numTasks = hmacs == null ? numTasks : hmacs.length;
+			_finishedIterations.set(0);
+			_reportedProgress = -1;
 			_totalIterations = iterations*l;
-	        for(b=1;b<l;b++)
-	        {
-	            deriveKey(hmac, srcKey,salt,iterations,u,b);
-	            System.arraycopy(u,0,res,(b-1)*digestLength,digestLength);
-	        }
-	
-	        deriveKey(hmac, srcKey,salt,iterations,u,b);
-	        System.arraycopy(u,0,res,(b-1)*digestLength,r);
-		    Arrays.fill(u,(byte)0);
-	        return res;
+			if(numTasks > 1)
+				deriveBlocksConcurrently(nativeHashName, hmacs, srcKey, salt, iterations, res, digestLength, numTasks);
+			else
+				deriveBlocks(nativeHashName, hmacs == null ? null : hmacs[0], srcKey, salt, iterations, res, digestLength, 0, 1);
+			return res;
+		}
+		catch (Throwable e)
+		{
+			Arrays.fill(res, (byte)0);
+			throw e;
 		}
 		finally
 		{
-			hmac.close();
-		}   
+			if(hmacs != null)
+				for(HMAC hmac: hmacs)
+					hmac.close();
+		}
     }
 
 	public void setProgressReporter(ProgressReporter r)
@@ -60,10 +86,25 @@ public abstract class PBKDF
 		_progressReporter = r;
 	}
 
+	/**
+	 * Run the pbkdf2 loop in the native code for the hash functions having a native implementation
+	 */
+	public static boolean ENABLE_NATIVE_PBKDF2 = true;
+
+	/**
+	 * Compute the pbkdf2 output blocks concurrently if the key is longer than the digest
+	 */
+	public static boolean ENABLE_PARALLEL_PBKDF2 = true;
+
 	protected ProgressReporter _progressReporter;
 	
 	private static final int COUNTER_LENGTH = 4;
-	private int _finishedIterations, _totalIterations;
+	private static final int MAX_PARALLELISM = 8;
+	private static ExecutorService _executor;
+
+	private final AtomicInteger _finishedIterations = new AtomicInteger();
+	private volatile int _reportedProgress;
+	private int _totalIterations;
 	
 	protected void calcHMAC(HMAC hmac, byte[] key, byte[] message, byte[] result) throws DigestException, EncryptionEngineException
 	{
@@ -85,7 +126,6 @@ public abstract class PBKDF
         calcHMAC(hmac, key, init, j);
         System.arraycopy(j,0,u,0,digestLength);
 
-		int prevPrc = -1;
         byte[] k = new byte[digestLength];
         for(int c = 1;c<iterations;c++)
         {
@@ -97,12 +137,7 @@ public abstract class PBKDF
             }
 			if(_progressReporter!=null)
 			{
-				int prc = (int) (((float)_finishedIterations++*100)/_totalIterations);
-				if(prc!=prevPrc)
-				{
-					prevPrc = prc;
-					_progressReporter.setProgress(prc);
-				}
+				addFinishedIterations(1);
 				if(_progressReporter.isCancelled())
 					throw new CancellationException();
 			}
@@ -112,6 +147,192 @@ public abstract class PBKDF
     }
     
     protected abstract HMAC initHMAC(byte[] srcKey) throws EncryptionEngineException;	
+
+	/**
+	 * Returns the name of the hash function if the key can be derived by the native pbkdf2 implementation
+	 * @return hash function name or null
+	 */
+	protected String getNativeHashName()
+	{
+		return null;
+	}
+
+	/**
+	 * Returns true if the HMAC instances returned by initHMAC can be used by different threads at the same time
+	 */
+	protected boolean canDeriveBlocksConcurrently(HMAC[] hmacs)
+	{
+		for(int i = 0; i < hmacs.length; i++)
+			for(int j = i + 1; j < hmacs.length; j++)
+				if(hmacs[i]._md == hmacs[j]._md)
+					return false;
+		return true;
+	}
+
+	private HMAC[] initTaskHMACs(byte[] srcKey, HMAC first, int numTasks) throws EncryptionEngineException
+	{
+		HMAC[] hmacs = new HMAC[numTasks];
+		hmacs[0] = first;
+		int i = 1;
+		try
+		{
+			for (; i < numTasks; i++)
+				hmacs[i] = initHMAC(srcKey);
+		}
+		catch (Throwable e)
+		{
+			for(int j = 1; j < i; j++)
+				hmacs[j].close();
+			throw e;
+		}
+		if(canDeriveBlocksConcurrently(hmacs))
+			return hmacs;
+		for(i = 1; i < numTasks; i++)
+			hmacs[i].close();
+		return new HMAC[] {first};
+	}
+
+	/**
+	 * Task t derives the blocks t+1, t+1+numTasks, ... The first task is run by the calling thread.
+	 */
+	private void deriveBlocksConcurrently(String nativeHashName, HMAC[] hmacs, byte[] srcKey, byte[] salt, int iterations, byte[] res, int digestLength, int numTasks) throws EncryptionEngineException, DigestException
+	{
+		ExecutorService exec = getExecutor();
+		List<Future<Void>> futures = new ArrayList<>();
+		Throwable error = null;
+		try
+		{
+			for(int t = 1; t < numTasks; t++)
+			{
+				int task = t;
+				HMAC hmac = hmacs == null ? null : hmacs[t];
+				futures.add(exec.submit(() -> {
+					deriveBlocks(nativeHashName, hmac, srcKey, salt, iterations, res, digestLength, task, numTasks);
+					return null;
+				}));
+			}
+			deriveBlocks(nativeHashName, hmacs == null ? null : hmacs[0], srcKey, salt, iterations, res, digestLength, 0, numTasks);
+		}
+		catch (Throwable e)
+		{
+			error = e;
+		}
+		boolean interrupted = false;
+		for(Future<Void> f: futures)
+		{
+			while(true)
+			{
+				try
+				{
+					f.get();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+				catch (ExecutionException e)
+				{
+					if(error == null)
+						error = e.getCause();
+					break;
+				}
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		if(error instanceof EncryptionEngineException)
+			throw (EncryptionEngineException) error;
+		if(error instanceof DigestException)
+			throw (DigestException) error;
+		if(error instanceof RuntimeException)
+			throw (RuntimeException) error;
+		if(error instanceof Error)
+			throw (Error) error;
+		if(error != null)
+			throw new EncryptionEngineException("Key derivation failed", error);
+	}
+
+	private void deriveBlocks(String nativeHashName, HMAC hmac, byte[] srcKey, byte[] salt, int iterations, byte[] res, int digestLength, int firstTask, int step) throws EncryptionEngineException, DigestException
+	{
+		byte[] u = new byte[digestLength];
+		try
+		{
+			for(int b = firstTask + 1, pos = firstTask*digestLength; pos < res.length; b += step, pos += step*digestLength)
+			{
+				if(nativeHashName != null)
+					NativePBKDF2.deriveKey(
+							nativeHashName,
+							srcKey,
+							salt,
+							iterations,
+							b,
+							u,
+							_progressReporter == null ? null : new NativeProgressListener()
+					);
+				else
+					deriveKey(hmac, srcKey, salt, iterations, u, b);
+				System.arraycopy(u, 0, res, pos, Math.min(digestLength, res.length - pos));
+			}
+		}
+		finally
+		{
+			Arrays.fill(u, (byte)0);
+		}
+	}
+
+	private void addFinishedIterations(int num)
+	{
+		int prc = (int) (((float)_finishedIterations.addAndGet(num)*100)/_totalIterations);
+		if(prc != _reportedProgress)
+			synchronized (this)
+			{
+				if(prc > _reportedProgress)
+				{
+					_reportedProgress = prc;
+					_progressReporter.setProgress(prc);
+				}
+			}
+	}
+
+	private static synchronized ExecutorService getExecutor()
+	{
+		if(_executor == null)
+		{
+			int numThreads = getMaxParallelism() - 1;
+			ThreadPoolExecutor exec = new ThreadPoolExecutor(
+					numThreads,
+					numThreads,
+					30,
+					TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>()
+			);
+			exec.allowCoreThreadTimeOut(true);
+			_executor = exec;
+		}
+		return _executor;
+	}
+
+	private static int getMaxParallelism()
+	{
+		return Math.min(Runtime.getRuntime().availableProcessors(), MAX_PARALLELISM);
+	}
+
+	/**
+	 * Adds the iterations reported by a native call to the total progress
+	 */
+	private class NativeProgressListener implements NativePBKDF2.ProgressListener
+	{
+		@Override
+		public boolean reportNativeProgress(int finishedIterations)
+		{
+			addFinishedIterations(finishedIterations - _lastFinishedIterations);
+			_lastFinishedIterations = finishedIterations;
+			return !_progressReporter.isCancelled();
+		}
+
+		private int _lastFinishedIterations;
+	}
     
     protected int getDefaultIterationsCount()
     {
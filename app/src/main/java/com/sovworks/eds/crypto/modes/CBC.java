@@ -5,6 +5,8 @@ import com.sovworks.eds.crypto.CipherFactory;
 import com.sovworks.eds.crypto.EncryptionEngineException;
 import com.sovworks.eds.crypto.FileEncryptionEngine;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -23,28 +25,12 @@ public abstract class CBC implements FileEncryptionEngine
 		if(_cbcContextPointer == 0)
 			throw new EncryptionEngineException("CBC context initialization failed");
 		
-		addBlockCiphers(_cf);
+		addBlockCiphers(_cf, _blockCiphers);
 		
 		if(_key == null)
 			throw new EncryptionEngineException("Encryption key is not set");
 		
-		int keyOffset = 0;
-		for(BlockCipherNative p: _blockCiphers)
-		{
-			int ks = p.getKeySize();
-			byte[] tmp = new byte[ks];			
-			try
-			{
-				System.arraycopy(_key, keyOffset, tmp, 0, ks);
-				p.init(tmp);
-				attachNativeCipher(_cbcContextPointer,p.getNativeInterfacePointer());
-			}
-			finally
-			{
-				Arrays.fill(tmp,(byte)0);
-			}
-			keyOffset += ks;
-		}					
+		attachBlockCiphers(_cbcContextPointer, _blockCiphers);
 	}
 
 	@Override
@@ -119,10 +105,127 @@ public abstract class CBC implements FileEncryptionEngine
 		if(len % getEncryptionBlockSize() != 0 || (offset+len) > data.length)
 			throw new EncryptionEngineException("Wrong buffer length");		
 		
-		if(decrypt(data,offset,len,_iv,_cbcContextPointer, _incrementIV)!=0)
+		int res = _incrementIV ?
+				decryptFileBlocks(data, offset, len, _iv)
+				: decrypt(data,offset,len,_iv,_cbcContextPointer, false);
+		if(res!=0)
         	throw new EncryptionEngineException("Failed decrypting data");
 	}
 	
+	@Override
+	public void encryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException
+	{
+		encryptWithIV(data, offset, len, getIVFromSectorIndex(firstSectorIndex));
+	}
+
+	@Override
+	public void decryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException
+	{
+		decryptWithIV(data, offset, len, getIVFromSectorIndex(firstSectorIndex));
+	}
+
+	/**
+	 * Encrypts file blocks using the given iv for the first block. The iv is incremented for each following block.
+	 * Doesn't change the engine state.
+	 * @param data data bytes array
+	 * @param offset data offset
+	 * @param len data length
+	 * @param iv iv of the first file block
+	 * @throws EncryptionEngineException on encryption error
+	 */
+	public void encryptWithIV(byte[] data, int offset, int len, byte[] iv) throws EncryptionEngineException
+	{
+		if(_cbcContextPointer == 0)
+			throw new EncryptionEngineException("Engine is closed");
+		if(len % getEncryptionBlockSize() != 0 || (offset+len) > data.length)
+			throw new EncryptionEngineException("Wrong buffer length");
+		if(encrypt(data, offset, len, Arrays.copyOf(iv, getIVSize()), _cbcContextPointer, true)!=0)
+			throw new EncryptionEngineException("Failed encrypting data");
+	}
+
+	/**
+	 * Decrypts file blocks using the given iv for the first block. The iv is incremented for each following block.
+	 * Doesn't change the engine state.
+	 * @param data data bytes array
+	 * @param offset data offset
+	 * @param len data length
+	 * @param iv iv of the first file block
+	 * @throws EncryptionEngineException on decryption error
+	 */
+	public void decryptWithIV(byte[] data, int offset, int len, byte[] iv) throws EncryptionEngineException
+	{
+		if(_cbcContextPointer == 0)
+			throw new EncryptionEngineException("Engine is closed");
+		if(len % getEncryptionBlockSize() != 0 || (offset+len) > data.length)
+			throw new EncryptionEngineException("Wrong buffer length");
+		if(decryptFileBlocks(data, offset, len, Arrays.copyOf(iv, getIVSize()))!=0)
+			throw new EncryptionEngineException("Failed decrypting data");
+	}
+
+	/**
+	 * Encrypts file blocks using a separate iv for each block. Doesn't change the engine state.
+	 * @param data data bytes array
+	 * @param offset data offset
+	 * @param len data length
+	 * @param ivs concatenated ivs of the file blocks
+	 * @throws EncryptionEngineException on encryption error
+	 */
+	public void encryptWithIVs(byte[] data, int offset, int len, byte[] ivs) throws EncryptionEngineException
+	{
+		checkBatchArgs(data, offset, len, ivs);
+		if(encryptBatch(data, offset, len, ivs, _cbcContextPointer)!=0)
+			throw new EncryptionEngineException("Failed encrypting data");
+	}
+
+	/**
+	 * Decrypts file blocks using a separate iv for each block. Doesn't change the engine state.
+	 * @param data data bytes array
+	 * @param offset data offset
+	 * @param len data length
+	 * @param ivs concatenated ivs of the file blocks
+	 * @throws EncryptionEngineException on decryption error
+	 */
+	public void decryptWithIVs(byte[] data, int offset, int len, byte[] ivs) throws EncryptionEngineException
+	{
+		checkBatchArgs(data, offset, len, ivs);
+		if(decryptBatch(data, offset, len, ivs, _cbcContextPointer)!=0)
+			throw new EncryptionEngineException("Failed decrypting data");
+	}
+
+	@Override
+	public void encrypt(ByteBuffer data) throws EncryptionEngineException
+	{
+		if(!data.isDirect())
+		{
+			FileEncryptionEngine.super.encrypt(data);
+			return;
+		}
+		if(_cbcContextPointer == 0)
+			throw new EncryptionEngineException("Engine is closed");
+		int len = data.remaining();
+		if(len % getEncryptionBlockSize() != 0)
+			throw new EncryptionEngineException("Wrong buffer length");
+		if(encryptDirect(data, data.position(), len, _iv, _cbcContextPointer, _incrementIV)!=0)
+			throw new EncryptionEngineException("Failed encrypting data");
+	}
+
+	@Override
+	public void decrypt(ByteBuffer data) throws EncryptionEngineException
+	{
+		if(!data.isDirect())
+		{
+			FileEncryptionEngine.super.decrypt(data);
+			return;
+		}
+		if(_cbcContextPointer == 0)
+			throw new EncryptionEngineException("Engine is closed");
+		int len = data.remaining();
+		if(len % getEncryptionBlockSize() != 0)
+			throw new EncryptionEngineException("Wrong buffer length");
+		if(decryptDirect(data, data.position(), len, _iv, _cbcContextPointer, _incrementIV)!=0)
+			throw new EncryptionEngineException("Failed decrypting data");
+	}
+
 	@Override
 	public byte[] getKey()
 	{
@@ -141,6 +244,13 @@ public abstract class CBC implements FileEncryptionEngine
 		_incrementIV = val;
 	}
 
+	/**
+	 * Buffers having at least 2*PARALLEL_MIN_BLOCKS_PER_TASK file blocks are decrypted by several threads
+	 */
+	public static boolean ENABLE_PARALLEL_PROCESSING = true;
+
+	private static final int PARALLEL_MIN_BLOCKS_PER_TASK = 16;
+
 	static
 	{
 		System.loadLibrary("edscbc");
@@ -169,14 +279,40 @@ public abstract class CBC implements FileEncryptionEngine
 		_blockCiphers.clear();		
 	}	
 
-	protected void closeContext()
+	protected synchronized void closeContext()
 	{
+		for(WorkerContext wc: _workerContexts)
+			wc.close();
+		_workerContexts.clear();
 		if(_cbcContextPointer!=0)
 		{
 			closeContext(_cbcContextPointer);
 			_cbcContextPointer = 0;
 		}
 	}	
+
+	private final ArrayList<WorkerContext> _workerContexts = new ArrayList<>();
+
+	/**
+	 * Additional cbc context used by a decryption thread
+	 */
+	private class WorkerContext
+	{
+		long contextPointer;
+		final ArrayList<BlockCipherNative> blockCiphers = new ArrayList<>();
+
+		void close()
+		{
+			for(BlockCipherNative p: blockCiphers)
+				p.close();
+			blockCiphers.clear();
+			if(contextPointer != 0)
+			{
+				closeContext(contextPointer);
+				contextPointer = 0;
+			}
+		}
+	}
 	
 	private long _cbcContextPointer;
 	private boolean _incrementIV = true;
@@ -187,11 +323,125 @@ public abstract class CBC implements FileEncryptionEngine
 	private native void attachNativeCipher(long contextPointer,long nativeCipherInterfacePointer);
 	private native int encrypt(byte[] data,int offset, int len,byte[] iv,long contextPointer, boolean incrementIV);
 	private native int decrypt(byte[] data,int offset, int len,byte[] iv,long contextPointer, boolean incrementIV);
+	private native int encryptDirect(ByteBuffer data,int offset, int len,byte[] iv,long contextPointer, boolean incrementIV);
+	private native int decryptDirect(ByteBuffer data,int offset, int len,byte[] iv,long contextPointer, boolean incrementIV);
+	private native int encryptBatch(byte[] data,int offset, int len,byte[] ivs,long contextPointer);
+	private native int decryptBatch(byte[] data,int offset, int len,byte[] ivs,long contextPointer);
 	
-	private void addBlockCiphers(CipherFactory cipherFactory)
+	/**
+	 * Returns the plain64 iv of the sector: little-endian sector index
+	 */
+	private byte[] getIVFromSectorIndex(long sectorIndex)
+	{
+		return ByteBuffer.allocate(getIVSize()).order(ByteOrder.LITTLE_ENDIAN).putLong(sectorIndex).array();
+	}
+
+	/**
+	 * Decrypts the file blocks incrementing the iv for each block.
+	 * Unlike encryption, cbc decryption of the blocks doesn't depend on the previous results,
+	 * so large buffers are split into chunks which are decrypted in parallel, each one using its own cbc context.
+	 * The iv array receives the same final value as after the sequential decryption.
+	 */
+	private int decryptFileBlocks(byte[] data, int offset, int len, byte[] iv) throws EncryptionEngineException
+	{
+		int numTasks = ENABLE_PARALLEL_PROCESSING ?
+				ParallelSectorProcessor.getNumTasks(len / _fileBlockSize, PARALLEL_MIN_BLOCKS_PER_TASK)
+				: 1;
+		if(numTasks < 2)
+			return decrypt(data, offset, len, iv, _cbcContextPointer, true);
+
+		long[] contextPointers = getWorkerContextPointers(numTasks - 1);
+		byte[][] chunkIVs = new byte[numTasks][];
+		int res = ParallelSectorProcessor.run(numTasks, offset, len, _fileBlockSize, 0, (i, o, l, s) ->
+		{
+			chunkIVs[i] = addToIV(iv, s);
+			return decrypt(data, o, l, chunkIVs[i], i == 0 ? _cbcContextPointer : contextPointers[i - 1], true);
+		});
+		System.arraycopy(chunkIVs[numTasks - 1], 0, iv, 0, getIVSize());
+		return res;
+	}
+
+	/**
+	 * Returns a copy of the iv incremented by the given value, the same way the native code increments it (little-endian)
+	 */
+	private byte[] addToIV(byte[] iv, long val)
+	{
+		byte[] res = Arrays.copyOf(iv, getIVSize());
+		int carry = 0;
+		for(int i=0;i<res.length;i++)
+		{
+			int sum = (res[i] & 0xFF) + (int)(val & 0xFF) + carry;
+			res[i] = (byte) sum;
+			carry = sum >>> 8;
+			val >>>= 8;
+		}
+		return res;
+	}
+
+	private void checkBatchArgs(byte[] data, int offset, int len, byte[] ivs) throws EncryptionEngineException
+	{
+		if(_cbcContextPointer == 0)
+			throw new EncryptionEngineException("Engine is closed");
+		if(len % getEncryptionBlockSize() != 0 || (offset+len) > data.length)
+			throw new EncryptionEngineException("Wrong buffer length");
+		if(ivs.length < ((len + _fileBlockSize - 1)/_fileBlockSize)*getIVSize())
+			throw new EncryptionEngineException("Wrong ivs length");
+	}
+
+	private synchronized long[] getWorkerContextPointers(int num) throws EncryptionEngineException
+	{
+		while(_workerContexts.size() < num)
+			_workerContexts.add(createWorkerContext());
+		long[] res = new long[num];
+		for(int i=0;i<num;i++)
+			res[i] = _workerContexts.get(i).contextPointer;
+		return res;
+	}
+
+	private WorkerContext createWorkerContext() throws EncryptionEngineException
+	{
+		WorkerContext wc = new WorkerContext();
+		try
+		{
+			wc.contextPointer = initContext();
+			if(wc.contextPointer == 0)
+				throw new EncryptionEngineException("CBC context initialization failed");
+			addBlockCiphers(_cf, wc.blockCiphers);
+			attachBlockCiphers(wc.contextPointer, wc.blockCiphers);
+		}
+		catch (EncryptionEngineException | RuntimeException e)
+		{
+			wc.close();
+			throw e;
+		}
+		return wc;
+	}
+
+	private void addBlockCiphers(CipherFactory cipherFactory, ArrayList<BlockCipherNative> blockCiphers)
 	{		
 		for(int i=0;i<cipherFactory.getNumberOfCiphers();i++)		
-			_blockCiphers.add(cipherFactory.createCipher(i));
+			blockCiphers.add(cipherFactory.createCipher(i));
+	}
+
+	private void attachBlockCiphers(long contextPointer, ArrayList<BlockCipherNative> blockCiphers) throws EncryptionEngineException
+	{
+		int keyOffset = 0;
+		for(BlockCipherNative p: blockCiphers)
+		{
+			int ks = p.getKeySize();
+			byte[] tmp = new byte[ks];			
+			try
+			{
+				System.arraycopy(_key, keyOffset, tmp, 0, ks);
+				p.init(tmp);
+				attachNativeCipher(contextPointer,p.getNativeInterfacePointer());
+			}
+			finally
+			{
+				Arrays.fill(tmp,(byte)0);
+			}
+			keyOffset += ks;
+		}
 	}
 	
 	private void clearAll()
@@ -5,6 +5,7 @@ import com.sovworks.eds.crypto.CipherFactory;
 import com.sovworks.eds.crypto.EncryptionEngine;
 import com.sovworks.eds.crypto.EncryptionEngineException;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -113,6 +114,40 @@ public abstract class CFB implements EncryptionEngine
         	throw new EncryptionEngineException("Failed decrypting data");
 	}
 
+	@Override
+	public void encrypt(ByteBuffer data) throws EncryptionEngineException
+	{
+		if(!data.isDirect())
+		{
+			EncryptionEngine.super.encrypt(data);
+			return;
+		}
+		if(_cfbContextPointer == 0)
+			throw new EncryptionEngineException("Engine is closed");
+		int len = data.remaining();
+		if(len == 0)
+			return;
+		if(encryptDirect(data, data.position(), len, _iv, _cfbContextPointer)!=0)
+			throw new EncryptionEngineException("Failed encrypting data");
+	}
+
+	@Override
+	public void decrypt(ByteBuffer data) throws EncryptionEngineException
+	{
+		if(!data.isDirect())
+		{
+			EncryptionEngine.super.decrypt(data);
+			return;
+		}
+		if(_cfbContextPointer == 0)
+			throw new EncryptionEngineException("Engine is closed");
+		int len = data.remaining();
+		if(len == 0)
+			return;
+		if(decryptDirect(data, data.position(), len, _iv, _cfbContextPointer)!=0)
+			throw new EncryptionEngineException("Failed decrypting data");
+	}
+
 	@Override
 	public byte[] getKey()
 	{
@@ -163,6 +198,8 @@ public abstract class CFB implements EncryptionEngine
 	private native void attachNativeCipher(long contextPointer,long nativeCipherInterfacePointer);
 	private native int encrypt(byte[] data,int offset, int len,byte[] iv,long contextPointer);
 	private native int decrypt(byte[] data,int offset, int len,byte[] iv,long contextPointer);
+	private native int encryptDirect(ByteBuffer data,int offset, int len,byte[] iv,long contextPointer);
+	private native int decryptDirect(ByteBuffer data,int offset, int len,byte[] iv,long contextPointer);
 	
 	private void addBlockCiphers(CipherFactory cipherFactory)
 	{		
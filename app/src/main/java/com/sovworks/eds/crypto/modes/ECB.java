@@ -104,6 +104,18 @@ public abstract class ECB implements FileEncryptionEngine
 		}
 	}
 	
+	@Override
+	public void encryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException
+	{
+		encrypt(data, offset, len);
+	}
+
+	@Override
+	public void decryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException
+	{
+		decrypt(data, offset, len);
+	}
+
 	@Override
 	public byte[] getKey()
 	{
@@ -0,0 +1,97 @@
+package com.sovworks.eds.crypto.modes;
+
+import com.sovworks.eds.crypto.EncryptionEngineException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Splits multi-sector buffers into sector aligned chunks and processes them on a shared thread pool
+ */
+final class ParallelSectorProcessor
+{
+	interface Task
+	{
+		int process(int taskIndex, int offset, int len, long startSectorIndex);
+	}
+
+	static int getNumTasks(int numSectors, int minSectorsPerTask)
+	{
+		return Math.min(getPool().getParallelism(), numSectors / minSectorsPerTask);
+	}
+
+	/**
+	 * Runs the task for each chunk and waits for the completion of all the tasks, even if the calling thread is interrupted:
+	 * the tasks use the native contexts of the engine which must not be freed while they are running.
+	 * @return 0 if all the tasks returned 0, -1 otherwise
+	 */
+	static int run(int numTasks, int offset, int len, int sectorSize, long startSectorIndex, Task task) throws EncryptionEngineException
+	{
+		CountDownLatch done = new CountDownLatch(numTasks);
+		AtomicInteger res = new AtomicInteger();
+		AtomicReference<RuntimeException> error = new AtomicReference<>();
+		ForkJoinPool pool = getPool();
+		int numSectors = len / sectorSize;
+		int sectorsPerTask = numSectors / numTasks;
+		int extraSectors = numSectors % numTasks;
+		int pos = offset;
+		int end = offset + len;
+		long sectorIndex = startSectorIndex;
+		for(int i=0;i<numTasks;i++)
+		{
+			int ns = sectorsPerTask + (i < extraSectors ? 1 : 0);
+			final int taskIndex = i;
+			final int taskOffset = pos;
+			final int taskLen = i == numTasks - 1 ? end - pos : ns*sectorSize;
+			final long taskSectorIndex = sectorIndex;
+			pool.execute(() -> {
+				try
+				{
+					if(task.process(taskIndex, taskOffset, taskLen, taskSectorIndex) != 0)
+						res.set(-1);
+				}
+				catch (RuntimeException e)
+				{
+					error.compareAndSet(null, e);
+				}
+				finally
+				{
+					done.countDown();
+				}
+			});
+			pos += taskLen;
+			sectorIndex += ns;
+		}
+		boolean interrupted = false;
+		while(true)
+		{
+			try
+			{
+				done.await();
+				break;
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		if(error.get() != null)
+			throw new EncryptionEngineException("Parallel processing failed", error.get());
+		return res.get();
+	}
+
+	private static final int MAX_PARALLELISM = 8;
+
+	private static ForkJoinPool _pool;
+
+	private static synchronized ForkJoinPool getPool()
+	{
+		if(_pool == null)
+			_pool = new ForkJoinPool(Math.min(Runtime.getRuntime().availableProcessors(), MAX_PARALLELISM));
+		return _pool;
+	}
+}
@@ -15,44 +15,48 @@ public abstract class XTS implements FileEncryptionEngine
 	@Override
 	public synchronized void init() throws EncryptionEngineException
 	{			
+		waitForActiveCalls();
 		closeCiphers();
 		closeContext();
 		
 		_xtsContextPointer = initContext();
 		if(_xtsContextPointer == 0)
 			throw new EncryptionEngineException("XTS context initialization failed");
+		setSectorSize(_xtsContextPointer, _sectorSize);
 		
-		addBlockCiphers(_cf);
+		addBlockCiphers(_cf, _blockCiphers);
 		
 		if(_key == null)
 			throw new EncryptionEngineException("Encryption key is not set");
-		
-		int keyOffset = 0;
-		int eeKeySize = getKeySize()/2;
-		for(CipherPair p: _blockCiphers)
-		{
-			int ks = p.cipherA.getKeySize();
-			byte[] tmp = new byte[ks];			
-			try
-			{
-				System.arraycopy(_key, keyOffset, tmp, 0, ks);
-				p.cipherA.init(tmp);
-				System.arraycopy(_key, eeKeySize + keyOffset, tmp, 0, ks);
-				p.cipherB.init(tmp);
-				attachNativeCipher(_xtsContextPointer,p.cipherA.getNativeInterfacePointer(),p.cipherB.getNativeInterfacePointer());
-			}
-			finally
-			{
-				Arrays.fill(tmp,(byte)0);
-			}
-			keyOffset += ks;
-		}					
+
+		attachBlockCiphers(_xtsContextPointer, _blockCiphers);
 	}
 
 	@Override
 	public int getFileBlockSize()
 	{
-		return SECTOR_SIZE;
+		return _sectorSize;
+	}
+
+	/**
+	 * Sets the size of the data unit encrypted using a single tweak (LUKS2 sector size)
+	 * @param sectorSize power of two from 512 to 4096
+	 */
+	public synchronized void setSectorSize(int sectorSize)
+	{
+		if(!isValidSectorSize(sectorSize))
+			throw new IllegalArgumentException("Unsupported sector size: " + sectorSize);
+		waitForActiveCalls();
+		_sectorSize = sectorSize;
+		if(_xtsContextPointer != 0)
+			setSectorSize(_xtsContextPointer, sectorSize);
+		for(WorkerContext wc: _workerContexts)
+			setSectorSize(wc.contextPointer, sectorSize);
+	}
+
+	public static boolean isValidSectorSize(int sectorSize)
+	{
+		return sectorSize >= DEFAULT_SECTOR_SIZE && sectorSize <= MAX_SECTOR_SIZE && Integer.bitCount(sectorSize) == 1;
 	}
 
     @Override
@@ -96,8 +100,9 @@ public abstract class XTS implements FileEncryptionEngine
 	}
 
 	@Override
-	public void close()
+	public synchronized void close()
 	{
+		waitForActiveCalls();
 		closeCiphers();
 		closeContext();
 		clearAll();
@@ -110,7 +115,7 @@ public abstract class XTS implements FileEncryptionEngine
 			throw new EncryptionEngineException("Engine is closed");
 		if(len % getEncryptionBlockSize() != 0 || (offset+len) > data.length)
 			throw new EncryptionEngineException("Wrong buffer length");		
-        if(encrypt(data, offset, len,_iv,_xtsContextPointer)!=0)
+		if(processSectors(offset, len, _iv, (o, l, s, c) -> encrypt(data, o, l, s, c))!=0)
         	throw new EncryptionEngineException("Failed encrypting data");
 		if(_incrementIV)
 			_iv += (len/getFileBlockSize());
@@ -124,12 +129,106 @@ public abstract class XTS implements FileEncryptionEngine
 		if(len % getEncryptionBlockSize() != 0 || (offset+len) > data.length)
 			throw new EncryptionEngineException("Wrong buffer length");		
 		
-		if(decrypt(data,offset,len,_iv,_xtsContextPointer)!=0)
+		if(processSectors(offset, len, _iv, (o, l, s, c) -> decrypt(data, o, l, s, c))!=0)
         	throw new EncryptionEngineException("Failed decrypting data");
 		if(_incrementIV)
 			_iv += (len/getFileBlockSize());
 	}
 	
+	@Override
+	public void encrypt(ByteBuffer data) throws EncryptionEngineException
+	{
+		if(!data.isDirect())
+		{
+			FileEncryptionEngine.super.encrypt(data);
+			return;
+		}
+		if(_xtsContextPointer == 0)
+			throw new EncryptionEngineException("Engine is closed");
+		int len = data.remaining();
+		if(len % getEncryptionBlockSize() != 0)
+			throw new EncryptionEngineException("Wrong buffer length");
+		if(processSectors(data.position(), len, _iv, (o, l, s, c) -> encryptDirect(data, o, l, s, c))!=0)
+			throw new EncryptionEngineException("Failed encrypting data");
+		if(_incrementIV)
+			_iv += (len/getFileBlockSize());
+	}
+
+	@Override
+	public void decrypt(ByteBuffer data) throws EncryptionEngineException
+	{
+		if(!data.isDirect())
+		{
+			FileEncryptionEngine.super.decrypt(data);
+			return;
+		}
+		if(_xtsContextPointer == 0)
+			throw new EncryptionEngineException("Engine is closed");
+		int len = data.remaining();
+		if(len % getEncryptionBlockSize() != 0)
+			throw new EncryptionEngineException("Wrong buffer length");
+		if(processSectors(data.position(), len, _iv, (o, l, s, c) -> decryptDirect(data, o, l, s, c))!=0)
+			throw new EncryptionEngineException("Failed decrypting data");
+		if(_incrementIV)
+			_iv += (len/getFileBlockSize());
+	}
+
+	@Override
+	public void encryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException
+	{
+		if(_xtsContextPointer == 0)
+			throw new EncryptionEngineException("Engine is closed");
+		if(len % getEncryptionBlockSize() != 0 || (offset+len) > data.length)
+			throw new EncryptionEngineException("Wrong buffer length");
+		if(processSectors(offset, len, firstSectorIndex, (o, l, s, c) -> encrypt(data, o, l, s, c))!=0)
+			throw new EncryptionEngineException("Failed encrypting data");
+	}
+
+	@Override
+	public void decryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException
+	{
+		if(_xtsContextPointer == 0)
+			throw new EncryptionEngineException("Engine is closed");
+		if(len % getEncryptionBlockSize() != 0 || (offset+len) > data.length)
+			throw new EncryptionEngineException("Wrong buffer length");
+		if(processSectors(offset, len, firstSectorIndex, (o, l, s, c) -> decrypt(data, o, l, s, c))!=0)
+			throw new EncryptionEngineException("Failed decrypting data");
+	}
+
+	@Override
+	public void encryptSectors(ByteBuffer data, long firstSectorIndex) throws EncryptionEngineException
+	{
+		if(!data.isDirect())
+		{
+			FileEncryptionEngine.super.encryptSectors(data, firstSectorIndex);
+			return;
+		}
+		if(_xtsContextPointer == 0)
+			throw new EncryptionEngineException("Engine is closed");
+		int len = data.remaining();
+		if(len % getEncryptionBlockSize() != 0)
+			throw new EncryptionEngineException("Wrong buffer length");
+		if(processSectors(data.position(), len, firstSectorIndex, (o, l, s, c) -> encryptDirect(data, o, l, s, c))!=0)
+			throw new EncryptionEngineException("Failed encrypting data");
+	}
+
+	@Override
+	public void decryptSectors(ByteBuffer data, long firstSectorIndex) throws EncryptionEngineException
+	{
+		if(!data.isDirect())
+		{
+			FileEncryptionEngine.super.decryptSectors(data, firstSectorIndex);
+			return;
+		}
+		if(_xtsContextPointer == 0)
+			throw new EncryptionEngineException("Engine is closed");
+		int len = data.remaining();
+		if(len % getEncryptionBlockSize() != 0)
+			throw new EncryptionEngineException("Wrong buffer length");
+		if(processSectors(data.position(), len, firstSectorIndex, (o, l, s, c) -> decryptDirect(data, o, l, s, c))!=0)
+			throw new EncryptionEngineException("Failed decrypting data");
+	}
+
 	@Override
 	public byte[] getKey()
 	{
@@ -153,12 +252,25 @@ public abstract class XTS implements FileEncryptionEngine
 		return 16;
 	}
 
-	private static final int SECTOR_SIZE = 512;
+	/**
+	 * Buffers having at least 2*PARALLEL_MIN_BYTES_PER_TASK bytes are processed by several threads
+	 */
+	public static boolean ENABLE_PARALLEL_PROCESSING = true;
+
+	public static final int DEFAULT_SECTOR_SIZE = 512;
+	public static final int MAX_SECTOR_SIZE = 4096;
+
+	private static final int PARALLEL_MIN_BYTES_PER_TASK = 16*DEFAULT_SECTOR_SIZE;
 	
 	static
 	{
 		System.loadLibrary("edsxts");
 	}
+
+	private interface SectorsProcessor
+	{
+		int process(int offset, int len, long startSectorIndex, long contextPointer);
+	}
 	
 	protected static class CipherPair
 	{		
@@ -198,20 +310,167 @@ public abstract class XTS implements FileEncryptionEngine
 			closeContext(_xtsContextPointer);
 			_xtsContextPointer = 0;
 		}
+		for(WorkerContext wc: _workerContexts)
+			wc.close();
+		_workerContexts.clear();
 	}	
 	
 	private long _xtsContextPointer;
+	private int _sectorSize = DEFAULT_SECTOR_SIZE;
+	private int _numActiveCalls;
+	private final ArrayList<WorkerContext> _workerContexts = new ArrayList<>();
+
+	/**
+	 * Separate xts context with its own block cipher instances used by a parallel processing task
+	 */
+	private class WorkerContext
+	{
+		long contextPointer;
+		final ArrayList<CipherPair> blockCiphers = new ArrayList<>();
+
+		void close()
+		{
+			for(CipherPair p: blockCiphers)
+			{
+				p.cipherA.close();
+				p.cipherB.close();
+			}
+			blockCiphers.clear();
+			if(contextPointer != 0)
+			{
+				closeContext(contextPointer);
+				contextPointer = 0;
+			}
+		}
+	}
 	
 	private native long initContext();
 	private native void closeContext(long contextPointer);
 	private native void attachNativeCipher(long contextPointer,long nativeCipherInterfacePointer,long secNativeCipherInterfacePointer);
+	private native void setSectorSize(long contextPointer, int sectorSize);
 	private native int encrypt(byte[] data,int offset, int len,long startSectorAddress,long contextPointer);
 	private native int decrypt(byte[] data,int offset, int len,long startSectorAddress,long contextPointer);
+	private native int encryptDirect(ByteBuffer data,int offset, int len,long startSectorAddress,long contextPointer);
+	private native int decryptDirect(ByteBuffer data,int offset, int len,long startSectorAddress,long contextPointer);
 	
-	private void addBlockCiphers(CipherFactory cipherFactory)
+	private void addBlockCiphers(CipherFactory cipherFactory, ArrayList<CipherPair> blockCiphers)
 	{		
 		for(int i=0;i<cipherFactory.getNumberOfCiphers();i++)		
-			_blockCiphers.add(new CipherPair(cipherFactory.createCipher(i),cipherFactory.createCipher(i)));
+			blockCiphers.add(new CipherPair(cipherFactory.createCipher(i),cipherFactory.createCipher(i)));
+	}
+
+	private void attachBlockCiphers(long contextPointer, ArrayList<CipherPair> blockCiphers) throws EncryptionEngineException
+	{
+		int keyOffset = 0;
+		int eeKeySize = getKeySize()/2;
+		for(CipherPair p: blockCiphers)
+		{
+			int ks = p.cipherA.getKeySize();
+			byte[] tmp = new byte[ks];			
+			try
+			{
+				System.arraycopy(_key, keyOffset, tmp, 0, ks);
+				p.cipherA.init(tmp);
+				System.arraycopy(_key, eeKeySize + keyOffset, tmp, 0, ks);
+				p.cipherB.init(tmp);
+				attachNativeCipher(contextPointer,p.cipherA.getNativeInterfacePointer(),p.cipherB.getNativeInterfacePointer());
+			}
+			finally
+			{
+				Arrays.fill(tmp,(byte)0);
+			}
+			keyOffset += ks;
+		}
+	}
+
+	private synchronized long[] getWorkerContextPointers(int num) throws EncryptionEngineException
+	{
+		while(_workerContexts.size() < num)
+			_workerContexts.add(createWorkerContext());
+		long[] res = new long[num];
+		for(int i=0;i<num;i++)
+			res[i] = _workerContexts.get(i).contextPointer;
+		return res;
+	}
+
+	private WorkerContext createWorkerContext() throws EncryptionEngineException
+	{
+		WorkerContext wc = new WorkerContext();
+		try
+		{
+			wc.contextPointer = initContext();
+			if(wc.contextPointer == 0)
+				throw new EncryptionEngineException("XTS context initialization failed");
+			setSectorSize(wc.contextPointer, _sectorSize);
+			addBlockCiphers(_cf, wc.blockCiphers);
+			attachBlockCiphers(wc.contextPointer, wc.blockCiphers);
+		}
+		catch (EncryptionEngineException | RuntimeException e)
+		{
+			wc.close();
+			throw e;
+		}
+		return wc;
+	}
+
+	/**
+	 * Processes the buffer starting from the given sector.
+	 * Large buffers are split into sector aligned chunks which are processed in parallel,
+	 * each one using its own xts context.
+	 */
+	private int processSectors(int offset, int len, long startSectorIndex, SectorsProcessor proc) throws EncryptionEngineException
+	{
+		long contextPointer;
+		int sectorSize;
+		synchronized (this)
+		{
+			if(_xtsContextPointer == 0)
+				throw new EncryptionEngineException("Engine is closed");
+			contextPointer = _xtsContextPointer;
+			sectorSize = _sectorSize;
+			_numActiveCalls++;
+		}
+		try
+		{
+			int numTasks = ENABLE_PARALLEL_PROCESSING ?
+					ParallelSectorProcessor.getNumTasks(len / sectorSize, Math.max(1, PARALLEL_MIN_BYTES_PER_TASK / sectorSize))
+					: 1;
+			if(numTasks < 2)
+				return proc.process(offset, len, startSectorIndex, contextPointer);
+
+			long[] contextPointers = getWorkerContextPointers(numTasks - 1);
+			return ParallelSectorProcessor.run(numTasks, offset, len, sectorSize, startSectorIndex,
+					(i, o, l, s) -> proc.process(o, l, s, i == 0 ? contextPointer : contextPointers[i - 1]));
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				if(--_numActiveCalls == 0)
+					notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until the native contexts are not used by the encryption calls and their parallel tasks
+	 */
+	private void waitForActiveCalls()
+	{
+		boolean interrupted = false;
+		while(_numActiveCalls > 0)
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
 	}
 	
 	private void clearAll()
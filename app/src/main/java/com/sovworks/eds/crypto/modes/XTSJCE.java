@@ -0,0 +1,284 @@
+package com.sovworks.eds.crypto.modes;
+
+import com.sovworks.eds.crypto.EncryptionEngineException;
+import com.sovworks.eds.crypto.FileEncryptionEngine;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * xts-plain64 implementation based on the javax.crypto ECB cipher of the platform.
+ * Produces the same output as the native XTS implementation, but lets the runtime use
+ * hardware accelerated block cipher implementations. Doesn't require any native libraries.
+ */
+public abstract class XTSJCE implements FileEncryptionEngine
+{
+	@Override
+	public synchronized void init() throws EncryptionEngineException
+	{
+		closeCiphers();
+		if(_key == null)
+			throw new EncryptionEngineException("Encryption key is not set");
+
+		int ks = getKeySize()/2;
+		byte[] tmp = new byte[ks];
+		try
+		{
+			System.arraycopy(_key, 0, tmp, 0, ks);
+			_encCipher = initCipher(Cipher.ENCRYPT_MODE, tmp);
+			_decCipher = initCipher(Cipher.DECRYPT_MODE, tmp);
+			System.arraycopy(_key, ks, tmp, 0, ks);
+			_tweakCipher = initCipher(Cipher.ENCRYPT_MODE, tmp);
+		}
+		finally
+		{
+			Arrays.fill(tmp, (byte)0);
+		}
+	}
+
+	@Override
+	public int getFileBlockSize()
+	{
+		return _sectorSize;
+	}
+
+	/**
+	 * Sets the size of the data unit encrypted using a single tweak (LUKS2 sector size)
+	 * @param sectorSize power of two from 512 to 4096
+	 */
+	public synchronized void setSectorSize(int sectorSize)
+	{
+		//XTS.isValidSectorSize is not used to avoid loading the native library
+		if(sectorSize < XTS.DEFAULT_SECTOR_SIZE || sectorSize > XTS.MAX_SECTOR_SIZE || Integer.bitCount(sectorSize) != 1)
+			throw new IllegalArgumentException("Unsupported sector size: " + sectorSize);
+		_sectorSize = sectorSize;
+	}
+
+	@Override
+	public int getEncryptionBlockSize()
+	{
+		return BLOCK_SIZE;
+	}
+
+	@Override
+	public void setIV(byte[] iv)
+	{
+		_iv = ByteBuffer.wrap(iv).getLong();
+	}
+
+	@Override
+	public byte[] getIV()
+	{
+		return ByteBuffer.allocate(getIVSize()).putLong(_iv).array();
+	}
+
+	@Override
+	public int getIVSize()
+	{
+		return 16;
+	}
+
+	@Override
+	public void setKey(byte[] key)
+	{
+		clearKey();
+		_key = key == null ? null : Arrays.copyOf(key, getKeySize());
+	}
+
+	@Override
+	public byte[] getKey()
+	{
+		return _key;
+	}
+
+	@Override
+	public void setIncrementIV(boolean val)
+	{
+		_incrementIV = val;
+	}
+
+	@Override
+	public void close()
+	{
+		closeCiphers();
+		clearKey();
+	}
+
+	@Override
+	public void encrypt(byte[] data, int offset, int len) throws EncryptionEngineException
+	{
+		if(_encCipher == null)
+			throw new EncryptionEngineException("Engine is closed");
+		if(len % getEncryptionBlockSize() != 0 || (offset+len) > data.length)
+			throw new EncryptionEngineException("Wrong buffer length");
+		processBuffer(_encCipher, data, offset, len, _iv);
+		if(_incrementIV)
+			_iv += (len/getFileBlockSize());
+	}
+
+	@Override
+	public void decrypt(byte[] data, int offset, int len) throws EncryptionEngineException
+	{
+		if(_decCipher == null)
+			throw new EncryptionEngineException("Engine is closed");
+		if(len % getEncryptionBlockSize() != 0 || (offset+len) > data.length)
+			throw new EncryptionEngineException("Wrong buffer length");
+		processBuffer(_decCipher, data, offset, len, _iv);
+		if(_incrementIV)
+			_iv += (len/getFileBlockSize());
+	}
+
+	@Override
+	public void encryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException
+	{
+		if(_encCipher == null)
+			throw new EncryptionEngineException("Engine is closed");
+		if(len % getEncryptionBlockSize() != 0 || (offset+len) > data.length)
+			throw new EncryptionEngineException("Wrong buffer length");
+		processBuffer(_encCipher, data, offset, len, firstSectorIndex);
+	}
+
+	@Override
+	public void decryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException
+	{
+		if(_decCipher == null)
+			throw new EncryptionEngineException("Engine is closed");
+		if(len % getEncryptionBlockSize() != 0 || (offset+len) > data.length)
+			throw new EncryptionEngineException("Wrong buffer length");
+		processBuffer(_decCipher, data, offset, len, firstSectorIndex);
+	}
+
+	@Override
+	public String getCipherModeName()
+	{
+		return "xts-plain64";
+	}
+
+	protected static final int BLOCK_SIZE = 16;
+
+	protected long _iv;
+	protected int _sectorSize = XTS.DEFAULT_SECTOR_SIZE;
+	protected byte[] _key;
+	protected boolean _incrementIV;
+
+	/**
+	 * Returns the javax.crypto name of the block cipher, e.g. "AES"
+	 * @return block cipher algorithm name
+	 */
+	protected abstract String getJCEAlgorithmName();
+
+	protected Cipher initCipher(int mode, byte[] key) throws EncryptionEngineException
+	{
+		String alg = getJCEAlgorithmName();
+		try
+		{
+			Cipher c = Cipher.getInstance(alg + "/ECB/NoPadding");
+			c.init(mode, new SecretKeySpec(key, alg));
+			return c;
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new EncryptionEngineException("Failed initializing " + alg + " cipher", e);
+		}
+	}
+
+	protected void closeCiphers()
+	{
+		_encCipher = _decCipher = _tweakCipher = null;
+		if(_tweaks != null)
+		{
+			Arrays.fill(_tweaks, (byte)0);
+			_tweaks = null;
+		}
+	}
+
+	private Cipher _encCipher, _decCipher, _tweakCipher;
+	private byte[] _tweaks;
+
+	/**
+	 * Encrypts or decrypts the buffer sector by sector. The tweak values for the whole buffer
+	 * are calculated first, so that the block cipher can process the buffer using a single ECB call.
+	 * Synchronized because the javax.crypto ciphers and the tweaks buffer are shared.
+	 */
+	private synchronized void processBuffer(Cipher cipher, byte[] data, int offset, int len, long startSectorIndex) throws EncryptionEngineException
+	{
+		if(len == 0)
+			return;
+		if(_tweaks == null || _tweaks.length < len)
+			_tweaks = new byte[len];
+		byte[] tweaks = _tweaks;
+		int sectorSize = _sectorSize;
+		int numSectors = (len + sectorSize - 1)/sectorSize;
+		try
+		{
+			//Initial tweak of each sector is the encrypted little-endian sector index.
+			//They are stored at the start of each sector's tweaks area.
+			for(int i = 0; i < numSectors; i++)
+			{
+				int pos = i*sectorSize;
+				putLongLE(tweaks, pos, startSectorIndex + i);
+				putLongLE(tweaks, pos + 8, 0);
+				_tweakCipher.update(tweaks, pos, BLOCK_SIZE, tweaks, pos);
+			}
+			for(int pos = 0; pos < len; pos += sectorSize)
+			{
+				long lo = getLongLE(tweaks, pos);
+				long hi = getLongLE(tweaks, pos + 8);
+				int end = Math.min(len, pos + sectorSize);
+				for(int bp = pos + BLOCK_SIZE; bp < end; bp += BLOCK_SIZE)
+				{
+					//multiply the tweak by x in GF(2^128)
+					long carry = (hi >> 63) & 0x87;
+					hi = (hi << 1) | (lo >>> 63);
+					lo = (lo << 1) ^ carry;
+					putLongLE(tweaks, bp, lo);
+					putLongLE(tweaks, bp + 8, hi);
+				}
+			}
+			xorBuffer(data, offset, tweaks, len);
+			if(cipher.update(data, offset, len, data, offset) != len)
+				throw new EncryptionEngineException("Block cipher returned wrong number of bytes");
+			xorBuffer(data, offset, tweaks, len);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new EncryptionEngineException("Failed processing data", e);
+		}
+	}
+
+	private static void xorBuffer(byte[] data, int offset, byte[] tweaks, int len)
+	{
+		for(int i = 0; i < len; i++)
+			data[offset + i] ^= tweaks[i];
+	}
+
+	private static void putLongLE(byte[] buf, int pos, long val)
+	{
+		for(int i = 0; i < 8; i++)
+		{
+			buf[pos + i] = (byte) val;
+			val >>>= 8;
+		}
+	}
+
+	private static long getLongLE(byte[] buf, int pos)
+	{
+		long res = 0;
+		for(int i = 7; i >= 0; i--)
+			res = (res << 8) | (buf[pos + i] & 0xFF);
+		return res;
+	}
+
+	private void clearKey()
+	{
+		if(_key!=null)
+		{
+			Arrays.fill(_key, (byte)0);
+			_key = null;
+		}
+	}
+}
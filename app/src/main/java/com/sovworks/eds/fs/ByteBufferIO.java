@@ -0,0 +1,28 @@
+package com.sovworks.eds.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Implemented by the random access streams which can transfer data to/from direct byte buffers
+ * without copying it to the java heap.
+ */
+public interface ByteBufferIO
+{
+	/**
+	 * Reads a sequence of bytes from the current position into the buffer.
+	 * The buffer position is advanced by the number of bytes read.
+	 * @param dst destination buffer
+	 * @return the number of bytes read, or -1 if the end of the file has been reached.
+	 * @throws IOException if an I/O error occurs
+	 */
+	int read(ByteBuffer dst) throws IOException;
+
+	/**
+	 * Writes all the remaining bytes of the buffer at the current position.
+	 * The buffer position is advanced to its limit.
+	 * @param src source buffer
+	 * @throws IOException if an I/O error occurs
+	 */
+	void write(ByteBuffer src) throws IOException;
+}
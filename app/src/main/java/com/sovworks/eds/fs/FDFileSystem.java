@@ -0,0 +1,9 @@
+package com.sovworks.eds.fs;
+
+/**
+ * Implemented by the file systems which open the files using file descriptors (FDRandomAccessIO),
+ * so that the native code can access the opened files directly.
+ */
+public interface FDFileSystem
+{
+}
@@ -6,4 +6,58 @@ import java.io.IOException;
 public interface RandomAccessIO extends Closeable,RandomStorageAccess,DataInput,DataOutput
 {
 	void setLength(long newLength) throws IOException; 
+
+	/**
+	 * Reads up to len bytes of data starting at the given position. The file pointer is not changed.
+	 * Implementations which don't use the file pointer allow concurrent calls.
+	 * The default implementation seeks and restores the file pointer holding the object lock.
+	 * @param position position in the file
+	 * @param b the buffer into which the data is read.
+	 * @param off the start offset in array b at which the data is written.
+	 * @param len the maximum number of bytes read.
+	 * @return the total number of bytes read into the buffer, or -1 if the position is at or past the end of the file.
+	 * @throws IOException
+	 */
+	default int readAt(long position, byte[] b, int off, int len) throws IOException
+	{
+		synchronized (this)
+		{
+			long cur = getFilePointer();
+			seek(position);
+			try
+			{
+				return read(b, off, len);
+			}
+			finally
+			{
+				seek(cur);
+			}
+		}
+	}
+
+	/**
+	 * Writes len bytes starting at the given position. The file pointer is not changed.
+	 * The default implementation seeks and restores the file pointer holding the object lock.
+	 * @param position position in the file
+	 * @param b the data.
+	 * @param off the start offset in the data.
+	 * @param len the number of bytes to write.
+	 * @throws IOException
+	 */
+	default void writeAt(long position, byte[] b, int off, int len) throws IOException
+	{
+		synchronized (this)
+		{
+			long cur = getFilePointer();
+			seek(position);
+			try
+			{
+				write(b, off, len);
+			}
+			finally
+			{
+				seek(cur);
+			}
+		}
+	}
 }
@@ -0,0 +1,16 @@
+package com.sovworks.eds.fs;
+
+import java.io.IOException;
+
+/**
+ * Implemented by the random access streams which can report the allocated ranges of a sparse file.
+ */
+public interface SparseIO
+{
+	/**
+	 * Returns the allocated ranges of the file. The rest of the file consists of holes which read as zeros.
+	 * @return pairs of the range start and end positions, ordered by the position, or null if the file system can't report them
+	 * @throws IOException if an I/O error occurs
+	 */
+	long[] getDataRanges() throws IOException;
+}
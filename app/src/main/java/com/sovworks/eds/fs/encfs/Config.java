@@ -197,6 +197,16 @@ public class Config
 
     public void setKDFIterations(int val) { _kdfIterations = val; }
 
+    /**
+     * Returns the desired key derivation time in milliseconds
+     */
+    public int getDesiredKDFDuration()
+    {
+        return _desiredKDFDuration;
+    }
+
+    public void setDesiredKDFDuration(int val) { _desiredKDFDuration = val; }
+
     public int getKeySize()
     {
         return _keySizeBits/8;
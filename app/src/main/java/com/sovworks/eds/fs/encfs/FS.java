@@ -5,6 +5,7 @@ import com.sovworks.eds.android.helpers.ProgressReporter;
 import com.sovworks.eds.crypto.EncryptionEngine;
 import com.sovworks.eds.crypto.EncryptionEngineException;
 import com.sovworks.eds.crypto.kdf.HMACSHA1KDF;
+import com.sovworks.eds.crypto.kdf.KDFCalibrator;
 import com.sovworks.eds.exceptions.ApplicationException;
 import com.sovworks.eds.exceptions.WrongPasswordException;
 import com.sovworks.eds.fs.Path;
@@ -15,6 +16,7 @@ import com.sovworks.eds.fs.encfs.codecs.name.NullNameCodecInfo;
 import com.sovworks.eds.fs.encfs.codecs.name.StreamNameCodecInfo;
 import com.sovworks.eds.fs.encfs.macs.MACCalculator;
 import com.sovworks.eds.fs.util.FileSystemWrapper;
+import com.sovworks.eds.fs.util.IOStats;
 import com.sovworks.eds.fs.util.StringPathUtil;
 
 import java.io.IOException;
@@ -38,6 +40,7 @@ public class FS extends FileSystemWrapper
     }
 
     public static final int KEY_CHECKSUM_BYTES = 4;
+    public static final int MIN_KDF_ITERATIONS = 1000;
 
     public static byte[] deriveKey(byte[] password, byte[] salt, int numIterations, int keySize, int ivSize, ProgressReporter pr) throws EncryptionEngineException, DigestException
     {
@@ -51,6 +54,21 @@ public class FS extends FileSystemWrapper
         );
     }
 
+    /**
+     * Returns the number of kdf iterations which take the config's desired kdf duration on this device
+     */
+    public static int calcKDFIterations(Config config)
+    {
+        int keyLen = config.getKeySize() + config.getDataCodecInfo().getFileEncDec().getIVSize();
+        return KDFCalibrator.getIterationsForDuration(
+                "encfs-hmac-sha1:" + keyLen,
+                new HMACSHA1KDF(),
+                keyLen,
+                config.getDesiredKDFDuration(),
+                MIN_KDF_ITERATIONS
+        );
+    }
+
     public FS(Path rootPath, Config config, byte[] password) throws ApplicationException, IOException
     {
         super(rootPath.getFileSystem());
@@ -107,6 +125,20 @@ public class FS extends FileSystemWrapper
         _progressReporter = r;
     }
 
+    /**
+     * Sets the statistics of the files opened from now on
+     * @param stats statistics or null to stop collecting them
+     */
+    public void setIOStats(IOStats stats)
+    {
+        _ioStats = stats;
+    }
+
+    public IOStats getIOStats()
+    {
+        return _ioStats;
+    }
+
 
     public void encryptVolumeKeyAndWriteConfig(byte[] password) throws ApplicationException, IOException
     {
@@ -238,6 +270,7 @@ public class FS extends FileSystemWrapper
     private byte[] _encryptionKey;
     private Config _config;
     private ContainerOpeningProgressReporter _progressReporter;
+    private volatile IOStats _ioStats;
 
     private byte[] deriveKey(byte[] password) throws EncryptionEngineException, DigestException
     {
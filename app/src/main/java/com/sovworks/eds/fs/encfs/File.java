@@ -267,6 +267,8 @@ public class File extends FileWrapper
             }
         };
         ef.setAllowSkip(_allowEmptyParts);
+        //The file transfers are counted once, by the layer which accesses the real file
+        ef.setIOStats(getPath().getFileSystem().getIOStats());
         if(_macBytes > 0 || _randBytes > 0)
         {
             MACCalculator mac = _encryptionInfo.getChecksumCalculator();
@@ -358,6 +360,24 @@ public class File extends FileWrapper
             eng.setIV(iv);
         }
 
+        @Override
+        public void encryptSectors(byte[] data, int offset, int len, long decryptedVolumeOffset) throws EncryptionEngineException
+        {
+            int bs = _dataEncDec.getFileBlockSize();
+            long block = decryptedVolumeOffset/bs;
+            for(int i = 0; i < len; i += bs, block++)
+                _dataEncDec.encryptSectors(data, offset + i, Math.min(bs, len - i), getSectorIndex(block));
+        }
+
+        @Override
+        public void decryptSectors(byte[] data, int offset, int len, long decryptedVolumeOffset) throws EncryptionEngineException
+        {
+            int bs = _dataEncDec.getFileBlockSize();
+            long block = decryptedVolumeOffset/bs;
+            for(int i = 0; i < len; i += bs, block++)
+                _dataEncDec.decryptSectors(data, offset + i, Math.min(bs, len - i), getSectorIndex(block));
+        }
+
         @Override
         public void close() throws IOException
         {
@@ -367,6 +387,14 @@ public class File extends FileWrapper
         private final int _encryptedDataOffset;
         private final FileEncryptionEngine _dataEncDec;
         private final byte[] _fileIV;
+
+        /**
+         * Each block is encrypted separately. Its index is xored with the file iv.
+         */
+        private long getSectorIndex(long blockIndex)
+        {
+            return _fileIV == null ? blockIndex : blockIndex ^ ByteBuffer.wrap(_fileIV).order(ByteOrder.BIG_ENDIAN).getLong();
+        }
     }
 
     private final boolean _enableIVHeader, _allowEmptyParts, _forceDecode;
@@ -1,8 +1,12 @@
 package com.sovworks.eds.fs.encfs.ciphers;
 
+import com.sovworks.eds.crypto.EncryptionEngineException;
 import com.sovworks.eds.crypto.FileEncryptionEngine;
 import com.sovworks.eds.crypto.engines.AESCBC;
 
+import java.security.DigestException;
+import java.util.Arrays;
+
 public class AESCBCFileCipher extends CipherBase implements FileEncryptionEngine
 {
     public AESCBCFileCipher(int keySize, int fileBlockSize)
@@ -28,9 +32,63 @@ public class AESCBCFileCipher extends CipherBase implements FileEncryptionEngine
         getBase().setIncrementIV(val);
     }
 
+    @Override
+    public void encryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException
+    {
+        byte[] ivs = calcSectorIVs(len, firstSectorIndex);
+        try
+        {
+            getBase().encryptWithIVs(data, offset, len, ivs);
+        }
+        finally
+        {
+            Arrays.fill(ivs, (byte)0);
+        }
+    }
+
+    @Override
+    public void decryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException
+    {
+        byte[] ivs = calcSectorIVs(len, firstSectorIndex);
+        try
+        {
+            getBase().decryptWithIVs(data, offset, len, ivs);
+        }
+        finally
+        {
+            Arrays.fill(ivs, (byte)0);
+        }
+    }
+
     @Override
     protected AESCBC getBase()
     {
         return (AESCBC) super.getBase();
     }
+
+    /**
+     * Calculates the ivs of all the blocks of the buffer, so that the buffer can be processed by a single native call
+     */
+    private byte[] calcSectorIVs(int len, long firstSectorIndex) throws EncryptionEngineException
+    {
+        int bs = getFileBlockSize();
+        int ivSize = getIVSize();
+        int numBlocks = (len + bs - 1)/bs;
+        byte[] ivs = new byte[numBlocks*ivSize];
+        try
+        {
+            for(int i = 0; i < numBlocks; i++)
+            {
+                byte[] iv = calcIV(firstSectorIndex + i);
+                System.arraycopy(iv, 0, ivs, i*ivSize, ivSize);
+                Arrays.fill(iv, (byte)0);
+            }
+        }
+        catch (DigestException e)
+        {
+            Arrays.fill(ivs, (byte)0);
+            throw new EncryptionEngineException("Failed calculating iv", e);
+        }
+        return ivs;
+    }
 }
@@ -4,6 +4,8 @@ import com.sovworks.eds.crypto.EncryptionEngine;
 import com.sovworks.eds.crypto.EncryptionEngineException;
 import com.sovworks.eds.crypto.FileEncryptionEngine;
 
+import java.nio.ByteBuffer;
+
 public class BlockAndStreamCipher implements FileEncryptionEngine
 {
     public BlockAndStreamCipher(FileEncryptionEngine blockCipher, EncryptionEngine streamCipher)
@@ -55,6 +57,32 @@ public class BlockAndStreamCipher implements FileEncryptionEngine
             _streamCipher.encrypt(data, offset, len);
     }
 
+    @Override
+    public void decryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException
+    {
+        if(len == _blockCipher.getFileBlockSize())
+            _blockCipher.decryptSectors(data, offset, len, firstSectorIndex);
+        else
+            synchronized (_streamCipher)
+            {
+                _streamCipher.setIV(getStreamIV(firstSectorIndex));
+                _streamCipher.decrypt(data, offset, len);
+            }
+    }
+
+    @Override
+    public void encryptSectors(byte[] data, int offset, int len, long firstSectorIndex) throws EncryptionEngineException
+    {
+        if(len == _blockCipher.getFileBlockSize())
+            _blockCipher.encryptSectors(data, offset, len, firstSectorIndex);
+        else
+            synchronized (_streamCipher)
+            {
+                _streamCipher.setIV(getStreamIV(firstSectorIndex));
+                _streamCipher.encrypt(data, offset, len);
+            }
+    }
+
     @Override
     public void setIV(byte[] iv)
     {
@@ -114,4 +142,9 @@ public class BlockAndStreamCipher implements FileEncryptionEngine
 
     private final FileEncryptionEngine _blockCipher;
     private final EncryptionEngine _streamCipher;
+
+    private byte[] getStreamIV(long sectorIndex)
+    {
+        return ByteBuffer.allocate(_streamCipher.getIVSize()).putLong(sectorIndex).array();
+    }
 }
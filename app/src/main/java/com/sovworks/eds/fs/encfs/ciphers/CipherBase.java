@@ -6,6 +6,8 @@ import com.sovworks.eds.crypto.EncryptionEngineException;
 import com.sovworks.eds.crypto.kdf.HMAC;
 import com.sovworks.eds.crypto.kdf.HMACSHA1;
 
+import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
@@ -60,23 +62,14 @@ public class CipherBase implements EncryptionEngine
     @Override
     public void setIV(byte[] iv)
     {
-        byte[] buf = Arrays.copyOf(_ivPart, _ivPart.length + 8);
-        for(int i=0;i<8;i++)
-            buf[_ivPart.length + i] = iv[7 - i];
-        byte[] hmac = new byte[_hmac.getDigestLength()];
         try
         {
-            _hmac.calcHMAC(buf, 0, buf.length, hmac);
-            _base.setIV(Arrays.copyOfRange(hmac, 0, _base.getIVSize()));
+            _base.setIV(calcIV(ByteBuffer.wrap(iv).getLong()));
         }
         catch (Exception e)
         {
             Logger.log(e);
         }
-        finally
-        {
-            Arrays.fill(buf, (byte)0);
-        }
     }
 
     @Override
@@ -140,6 +133,31 @@ public class CipherBase implements EncryptionEngine
         return _base;
     }
 
+    /**
+     * Calculates the iv of the base cipher for the given block index
+     * @param blockIndex block index
+     * @return base cipher iv
+     * @throws DigestException if hmac calculation failed
+     * @throws EncryptionEngineException if hmac calculation failed
+     */
+    protected synchronized byte[] calcIV(long blockIndex) throws DigestException, EncryptionEngineException
+    {
+        byte[] buf = Arrays.copyOf(_ivPart, _ivPart.length + 8);
+        for(int i=0;i<8;i++)
+            buf[_ivPart.length + i] = (byte) (blockIndex >>> (8*i));
+        byte[] hmac = new byte[_hmac.getDigestLength()];
+        try
+        {
+            _hmac.calcHMAC(buf, 0, buf.length, hmac);
+            return Arrays.copyOfRange(hmac, 0, _base.getIVSize());
+        }
+        finally
+        {
+            Arrays.fill(buf, (byte)0);
+            Arrays.fill(hmac, (byte)0);
+        }
+    }
+
     private final EncryptionEngine _base;
     private byte[] _key, _keyPart, _ivPart;
     private HMAC _hmac;
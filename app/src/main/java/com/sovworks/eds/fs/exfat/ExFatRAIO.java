@@ -112,6 +112,31 @@ class ExFatRAIO implements RandomAccessIO
         }
     }
 
+    @Override
+    public int readAt(long position, byte[] b, int off, int count) throws IOException
+    {
+        synchronized (_exfat._sync)
+        {
+            int res = _exfat.read(_fileHandle, b, off, count, position);
+            if (res < 0)
+                throw new IOException("Read failed. Result = " + res);
+            return res == 0 && count > 0 ? -1 : res;
+        }
+    }
+
+    @Override
+    public void writeAt(long position, byte[] b, int off, int len) throws IOException
+    {
+        if(_mode == File.AccessMode.Read)
+            throw new IOException("Read-only mode");
+        synchronized (_exfat._sync)
+        {
+            int res = _exfat.write(_fileHandle, b, off, len, position);
+            if (res < 0)
+                throw new IOException("Write failed. Result = " + res);
+        }
+    }
+
     @Override
     public void close() throws IOException
     {
@@ -17,6 +17,7 @@ import com.sovworks.eds.fs.errors.FileInUseException;
 import com.sovworks.eds.fs.errors.FileSystemClosedException;
 import com.sovworks.eds.fs.errors.NoFreeSpaceLeftException;
 import com.sovworks.eds.fs.errors.WrongImageFormatException;
+import com.sovworks.eds.fs.util.IOStats;
 import com.sovworks.eds.fs.util.PathBase;
 import com.sovworks.eds.fs.util.RandomAccessInputStream;
 import com.sovworks.eds.fs.util.RandomAccessOutputStream;
@@ -337,6 +338,20 @@ public class FatFS implements FileSystem
 	{
 		_readOnlyMode = val;
 	}
+
+	/**
+	 * Sets the statistics which receive the cluster transfers of the files and the waits for the I/O lock
+	 * @param stats statistics or null to stop collecting them
+	 */
+	public void setIOStats(IOStats stats)
+	{
+		_ioStats = stats;
+	}
+
+	public IOStats getIOStats()
+	{
+		return _ioStats;
+	}
 	
 	public int[] getClusterTable()
 	{
@@ -1114,6 +1129,7 @@ public class FatFS implements FileSystem
 	protected final Map<Path, OpenFileInfo> _openedFiles = new HashMap<>();
 	protected final Map<Path, DirEntry> _dirEntriesCache = new HashMap<>();
 	protected final Object _ioSyncer = new Object();
+	protected volatile IOStats _ioStats;
 	protected byte[] _emptyCluster;
 	
 	protected FatFS(RandomAccessIO input)
@@ -1795,6 +1811,85 @@ public class FatFS implements FileSystem
 			}
 		}
 		
+		/**
+		 * Maps the range to the clusters holding the lock and reads the clusters without it.
+		 * Adjacent clusters are read using a single call.
+		 */
+		@Override
+		public int readAt(long position, byte[] b, int off, int len) throws IOException
+		{
+			if(_mode == AccessMode.Write || _mode == AccessMode.WriteAppend)
+				throw new IOException("The file is opened in write only mode");
+			if(len<=0)
+				return 0;
+			int[] clusters;
+			long firstClusterPosition;
+			synchronized (_rwSync)
+			{
+				if(position >= _maxStreamPosition)
+					return -1;
+				len = (int) Math.min(len, _maxStreamPosition - position);
+				long bp = getBufferPosition();
+				if(_isBufferLoaded && _isBufferDirty && bp < position + len && bp + _bufferSize > position)
+					writeBuffer();
+				int first = (int)(position/_bufferSize), last = (int)((position + len - 1)/_bufferSize);
+				clusters = new int[last - first + 1];
+				for(int i = 0; i < clusters.length; i++)
+					clusters[i] = first + i < _clusterChain.size() ? _clusterChain.get(first + i) : 0;
+				firstClusterPosition = (long)first*_bufferSize;
+			}
+			RandomAccessIO input = _input;
+			if (input == null) throw new FileSystemClosedException();
+			int posInCluster = (int)(position - firstClusterPosition);
+			int res = 0;
+			for(int i = 0; i < clusters.length;)
+			{
+				int j = i + 1;
+				while(j < clusters.length && isDataCluster(clusters[i]) && clusters[j] == clusters[j - 1] + 1)
+					j++;
+				int count = Math.min((j - i)*_bufferSize - posInCluster, len - res);
+				int read = 0;
+				if(isDataCluster(clusters[i]))
+				{
+					IOStats stats = _ioStats;
+					long start = stats != null ? System.nanoTime() : 0;
+					long clusterPos = _bpb.getClusterOffset(clusters[i]) + posInCluster;
+					while(read < count)
+					{
+						int n = input.readAt(clusterPos + read, b, off + res + read, count - read);
+						if(n < 0)
+							break;
+						read += n;
+					}
+					if(stats != null)
+						stats.record(IOStats.Op.CLUSTER_READ, read, start);
+				}
+				Arrays.fill(b, off + res + read, off + res + count, (byte)0);
+				res += count;
+				posInCluster = 0;
+				i = j;
+			}
+			return res;
+		}
+
+		@Override
+		public void writeAt(long position, byte[] b, int off, int len) throws IOException
+		{
+			synchronized (_rwSync)
+			{
+				long cur = _currentStreamPosition;
+				seek(position);
+				try
+				{
+					write(b, off, len);
+				}
+				finally
+				{
+					seek(cur);
+				}
+			}
+		}
+
 		public long length() throws IOException
 		{
 			return _maxStreamPosition;
@@ -1827,8 +1922,15 @@ public class FatFS implements FileSystem
 
 		protected void writeBuffer() throws IOException
 		{			
+			IOStats stats = _ioStats;
+			long start = stats != null ? System.nanoTime() : 0;
 			synchronized (_ioSyncer)
 			{
+				if(stats != null)
+				{
+					stats.record(IOStats.Op.LOCK_WAIT, 0, start);
+					start = System.nanoTime();
+				}
 				if (_input == null) throw new FileSystemClosedException();
 				try
 				{
@@ -1846,6 +1948,8 @@ public class FatFS implements FileSystem
 					}											
 					_input.seek(_bpb.getClusterOffset(cluster));
 					_input.write(_buffer,0,_bufferSize);									
+					if(stats != null)
+						stats.record(IOStats.Op.CLUSTER_WRITE, _bufferSize, start);
 				}
 				catch(NoFreeSpaceLeftException e)
 				{
@@ -1859,8 +1963,15 @@ public class FatFS implements FileSystem
 		
 		protected void loadBuffer() throws IOException
 		{	
+			IOStats stats = _ioStats;
+			long start = stats != null ? System.nanoTime() : 0;
 			synchronized (_ioSyncer)
 			{				
+				if(stats != null)
+				{
+					stats.record(IOStats.Op.LOCK_WAIT, 0, start);
+					start = System.nanoTime();
+				}
 				if (_input == null) throw new FileSystemClosedException();
 				int cluster;
 				int clusterIndex = getClusterIndexInChain();
@@ -1874,6 +1985,8 @@ public class FatFS implements FileSystem
 				{					
 					_input.seek(_bpb.getClusterOffset(cluster));
 					read = Util.readBytes(_input,_buffer);
+					if(stats != null)
+						stats.record(IOStats.Op.CLUSTER_READ, read, start);
 				}
 				Arrays.fill(_buffer,read, _bufferSize, (byte)0);
 				_isBufferLoaded = true;
@@ -1881,6 +1994,11 @@ public class FatFS implements FileSystem
 
 		}		
 		
+		private boolean isDataCluster(int cluster)
+		{
+			return cluster != LAST_CLUSTER && cluster != 0;
+		}
+
 		private int getClusterIndexInChain()
 		{
 			return (int)(_currentStreamPosition/_bufferSize);
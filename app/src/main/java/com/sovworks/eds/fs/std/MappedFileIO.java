@@ -0,0 +1,334 @@
+package com.sovworks.eds.fs.std;
+
+import com.sovworks.eds.fs.File.AccessMode;
+import com.sovworks.eds.fs.RandomAccessIO;
+import com.sovworks.eds.fs.SparseIO;
+import com.sovworks.eds.fs.util.FDRandomAccessIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Random access to a local file through memory mapped windows. Once a window is mapped the data is
+ * read and written without system calls. Only the windows lying entirely inside the file are mapped,
+ * the partial window at the file end is accessed through the file channel, so appending doesn't remap it.
+ * At most MAX_MAPPED_WINDOWS windows are kept, the least recently used
+ * one is released when a new window is needed. Released windows are unmapped when they are garbage collected,
+ * so the address space taken by the mappings is not bounded by MAX_MAPPED_WINDOWS. Use it in a 64-bit process only (see isSupported).
+ * Positional reads copy the data from the mapping without holding the lock. Truncation waits for these copies,
+ * but the file must not be truncated by anyone else while it is open: accessing a mapping past the file end
+ * crashes the process.
+ */
+public class MappedFileIO implements RandomAccessIO, SparseIO
+{
+	/**
+	 * Size of a mapped window
+	 */
+	public static int WINDOW_SIZE = 4*1024*1024;
+
+	/**
+	 * Maximum number of windows mapped at the same time
+	 */
+	public static int MAX_MAPPED_WINDOWS = 16;
+
+	/**
+	 * Returns true if the process has enough address space for the windows waiting to be garbage collected
+	 */
+	public static boolean isSupported()
+	{
+		String arch = System.getProperty("os.arch");
+		return arch != null && arch.contains("64");
+	}
+
+	public MappedFileIO(File f, AccessMode mode) throws IOException
+	{
+		_isReadOnly = mode == AccessMode.Read;
+		_path = f;
+		_file = new RandomAccessFile(f, _isReadOnly ? "r" : "rw");
+		_channel = _file.getChannel();
+		_windowSize = WINDOW_SIZE;
+		_maxWindows = Math.max(1, MAX_MAPPED_WINDOWS);
+		if(mode == AccessMode.ReadWriteTruncate)
+			_file.setLength(0);
+		_length = _file.length();
+		if(mode == AccessMode.WriteAppend)
+			_position = _length;
+	}
+
+	@Override
+	public synchronized void seek(long position) throws IOException
+	{
+		if(position < 0)
+			throw new IllegalArgumentException();
+		_position = position;
+	}
+
+	@Override
+	public synchronized long getFilePointer() throws IOException
+	{
+		return _position;
+	}
+
+	@Override
+	public synchronized long length() throws IOException
+	{
+		return _length;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		byte[] buf = new byte[1];
+		return read(buf, 0, 1) == 1 ? buf[0] & 0xFF : -1;
+	}
+
+	@Override
+	public synchronized int read(byte[] b, int off, int len) throws IOException
+	{
+		int res = readAt(_position, b, off, len);
+		if(res > 0)
+			_position += res;
+		return res;
+	}
+
+	@Override
+	public int readAt(long position, byte[] b, int off, int len) throws IOException
+	{
+		if(off + len > b.length)
+			throw new IndexOutOfBoundsException();
+		int res = 0;
+		while(res < len)
+		{
+			ByteBuffer w;
+			long avail;
+			synchronized (this)
+			{
+				while(_isTruncating)
+					waitForCopies();
+				if(position >= _length)
+					break;
+				avail = _length - position;
+				w = getWindow(position, false);
+				_numActiveCopies++;
+			}
+			try
+			{
+				int n;
+				if(w == null)
+				{
+					n = _channel.read(ByteBuffer.wrap(b, off + res, (int) Math.min(len - res, avail)), position);
+					if(n <= 0)
+						break;
+				}
+				else
+				{
+					n = Math.min(len - res, w.remaining());
+					w.get(b, off + res, n);
+				}
+				res += n;
+				position += n;
+			}
+			finally
+			{
+				synchronized (this)
+				{
+					if(--_numActiveCopies == 0)
+						notifyAll();
+				}
+			}
+		}
+		return res == 0 && len > 0 ? -1 : res;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[] {(byte)b}, 0, 1);
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException
+	{
+		writeAt(_position, b, off, len);
+		_position += len;
+	}
+
+	@Override
+	public synchronized void writeAt(long position, byte[] b, int off, int len) throws IOException
+	{
+		if(off + len > b.length)
+			throw new IndexOutOfBoundsException();
+		if(_isReadOnly)
+			throw new IOException("The file is opened in read only mode");
+		if(position + len > _length)
+			extend(position + len);
+		while(len > 0)
+		{
+			ByteBuffer w = getWindow(position, true);
+			int n;
+			if(w == null)
+			{
+				n = len;
+				ByteBuffer src = ByteBuffer.wrap(b, off, n);
+				while(src.hasRemaining())
+					_channel.write(src, position + src.position() - off);
+				_isTailDirty = true;
+			}
+			else
+			{
+				n = Math.min(len, w.remaining());
+				w.put(b, off, n);
+			}
+			off += n;
+			len -= n;
+			position += n;
+		}
+	}
+
+	@Override
+	public long[] getDataRanges() throws IOException
+	{
+		return FDRandomAccessIO.getDataRanges(_path);
+	}
+
+	@Override
+	public synchronized void flush() throws IOException
+	{
+		for(Window w: _windows.values())
+			w.force();
+		if(_isTailDirty)
+		{
+			_channel.force(false);
+			_isTailDirty = false;
+		}
+	}
+
+	@Override
+	public synchronized void setLength(long newLength) throws IOException
+	{
+		if(newLength < 0)
+			throw new IllegalArgumentException("newLength < 0");
+		//The views of the other readers may lie past the new end
+		_isTruncating = true;
+		try
+		{
+			while(_numActiveCopies > 0)
+				waitForCopies();
+			flush();
+			_windows.clear();
+			_file.setLength(newLength);
+		}
+		finally
+		{
+			_isTruncating = false;
+			notifyAll();
+		}
+		_length = newLength;
+		if(_position > newLength)
+			_position = newLength;
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		try
+		{
+			flush();
+		}
+		finally
+		{
+			_windows.clear();
+			_file.close();
+		}
+	}
+
+	private static class Window
+	{
+		Window(MappedByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		final MappedByteBuffer buffer;
+		boolean isDirty;
+
+		void force()
+		{
+			if(isDirty)
+			{
+				buffer.force();
+				isDirty = false;
+			}
+		}
+	}
+
+	private final File _path;
+	private final RandomAccessFile _file;
+	private final FileChannel _channel;
+	private final boolean _isReadOnly;
+	private final int _windowSize, _maxWindows;
+	private final LinkedHashMap<Long, Window> _windows = new LinkedHashMap<Long, Window>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Window> eldest)
+		{
+			if(size() <= _maxWindows)
+				return false;
+			eldest.getValue().force();
+			return true;
+		}
+	};
+	private long _position, _length;
+	private int _numActiveCopies;
+	private boolean _isTruncating, _isTailDirty;
+
+	private void waitForCopies() throws IOException
+	{
+		try
+		{
+			wait();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the readers");
+		}
+	}
+
+	/**
+	 * Returns a view of the window containing the position. The view is positioned at the given position
+	 * and is limited by the window end.
+	 * @return null if the window is not entirely inside the file
+	 */
+	private ByteBuffer getWindow(long position, boolean forWrite) throws IOException
+	{
+		long index = position / _windowSize;
+		long start = index*_windowSize;
+		if(start + _windowSize > _length)
+			return null;
+		Window w = _windows.get(index);
+		if(w == null)
+		{
+			w = new Window(_channel.map(_isReadOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, start, _windowSize));
+			_windows.put(index, w);
+		}
+		if(forWrite)
+			w.isDirty = true;
+		ByteBuffer res = w.buffer.duplicate();
+		res.position((int)(position - start));
+		return res;
+	}
+
+	private void extend(long newLength) throws IOException
+	{
+		//The partial window at the old end is not mapped, so the mapped windows stay valid
+		_file.setLength(newLength);
+		_length = newLength;
+	}
+}
@@ -1,20 +1,25 @@
 package com.sovworks.eds.fs.std;
 
+import com.sovworks.eds.fs.ByteBufferIO;
 import com.sovworks.eds.fs.File.AccessMode;
 import com.sovworks.eds.fs.RandomAccessIO;
+import com.sovworks.eds.fs.SparseIO;
+import com.sovworks.eds.fs.util.FDRandomAccessIO;
 
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.SyncFailedException;
+import java.nio.ByteBuffer;
 
 
-public class StdFsFileIO extends RandomAccessFile implements RandomAccessIO
+public class StdFsFileIO extends RandomAccessFile implements RandomAccessIO, ByteBufferIO, SparseIO
 {	
 	public StdFsFileIO(File f,AccessMode mode) throws IOException
 	{
 		super(f,mode == AccessMode.Read ? "r" : "rw");
+		_file = f;
 		if(mode == AccessMode.ReadWriteTruncate)
 			setLength(0);
 		else if(mode == AccessMode.WriteAppend)
@@ -39,5 +44,40 @@ public class StdFsFileIO extends RandomAccessFile implements RandomAccessIO
 	public void flush() throws IOException
 	{
 				
-	}	
+	}
+
+	@Override
+	public long[] getDataRanges() throws IOException
+	{
+		return FDRandomAccessIO.getDataRanges(_file);
+	}
+
+	@Override
+	public int readAt(long position, byte[] b, int off, int len) throws IOException
+	{
+		return getChannel().read(ByteBuffer.wrap(b, off, len), position);
+	}
+
+	@Override
+	public void writeAt(long position, byte[] b, int off, int len) throws IOException
+	{
+		ByteBuffer src = ByteBuffer.wrap(b, off, len);
+		while(src.hasRemaining())
+			position += getChannel().write(src, position);
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException
+	{
+		return getChannel().read(dst);
+	}
+
+	@Override
+	public void write(ByteBuffer src) throws IOException
+	{
+		while(src.hasRemaining())
+			getChannel().write(src);
+	}
+
+	private final File _file;
 }
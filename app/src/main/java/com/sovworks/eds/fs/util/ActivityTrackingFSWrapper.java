@@ -257,6 +257,13 @@ public class ActivityTrackingFSWrapper extends FileSystemWrapper
 			return super.read(b, off, len);			
 		}
 
+		@Override
+		public int readAt(long position, byte[] b, int off, int len) throws IOException
+		{
+			_lastActivityTime = SystemClock.elapsedRealtime();
+			return super.readAt(position, b, off, len);
+		}
+
 		@Override
 		public void write(int b) throws IOException
 		{
@@ -277,6 +284,16 @@ public class ActivityTrackingFSWrapper extends FileSystemWrapper
             _isChanged = true;
 		}			
 		
+		@Override
+		public void writeAt(long position, byte[] b, int off, int len) throws IOException
+		{
+			_lastActivityTime = SystemClock.elapsedRealtime();
+            if(!_isChanged && _changesListener!=null)
+                _changesListener.beforeModification(_path);
+            super.writeAt(position, b, off, len);
+            _isChanged = true;
+		}
+
 		@Override
 		public void close() throws IOException
 		{
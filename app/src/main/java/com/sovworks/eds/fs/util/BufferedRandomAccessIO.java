@@ -86,6 +86,44 @@ public abstract class BufferedRandomAccessIO extends RandomAccessIOWrapper
 		}
 	}
 
+	@Override
+	public int readAt(long position, byte[] buf, int offset, int count) throws IOException
+	{
+		return readAtFilePointer(position, buf, offset, count);
+	}
+
+	/**
+	 * Reads using the buffer, holding the object lock. The file pointer is restored.
+	 */
+	protected synchronized int readAtFilePointer(long position, byte[] buf, int offset, int count) throws IOException
+	{
+		long cur = _currentPosition;
+		seek(position);
+		try
+		{
+			return read(buf, offset, count);
+		}
+		finally
+		{
+			_currentPosition = cur;
+		}
+	}
+
+	@Override
+	public synchronized void writeAt(long position, byte[] buf, int offset, int count) throws IOException
+	{
+		long cur = _currentPosition;
+		seek(position);
+		try
+		{
+			write(buf, offset, count);
+		}
+		finally
+		{
+			_currentPosition = cur;
+		}
+	}
+
 	@Override
 	public synchronized void seek(long position) throws IOException
 	{
@@ -0,0 +1,55 @@
+package com.sovworks.eds.fs.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Allocated ranges of a sparse file. Adjacent and overlapping ranges are merged. Thread safe.
+ */
+public class ExtentMap
+{
+	/**
+	 * @param ranges pairs of the range start and end positions
+	 */
+	public ExtentMap(long[] ranges)
+	{
+		for(int i = 0; i + 1 < ranges.length; i += 2)
+			add(ranges[i], ranges[i + 1]);
+	}
+
+	/**
+	 * Returns true if no part of the range is allocated
+	 */
+	public synchronized boolean isHole(long start, long end)
+	{
+		Map.Entry<Long, Long> e = _extents.lowerEntry(end);
+		return e == null || e.getValue() <= start;
+	}
+
+	public synchronized void add(long start, long end)
+	{
+		if(end <= start)
+			return;
+		Map.Entry<Long, Long> e = _extents.floorEntry(start);
+		if(e != null && e.getValue() >= start)
+		{
+			start = e.getKey();
+			end = Math.max(end, e.getValue());
+		}
+		Iterator<Map.Entry<Long, Long>> it = _extents.subMap(start, true, end, true).entrySet().iterator();
+		while(it.hasNext())
+		{
+			end = Math.max(end, it.next().getValue());
+			it.remove();
+		}
+		_extents.put(start, end);
+	}
+
+	public synchronized int size()
+	{
+		return _extents.size();
+	}
+
+	private final TreeMap<Long, Long> _extents = new TreeMap<>();
+}
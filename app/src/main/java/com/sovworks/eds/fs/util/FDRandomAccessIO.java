@@ -1,12 +1,35 @@
 package com.sovworks.eds.fs.util;
 
+import android.os.ParcelFileDescriptor;
+
+import com.sovworks.eds.fs.ByteBufferIO;
 import com.sovworks.eds.fs.RandomAccessIO;
+import com.sovworks.eds.fs.SparseIO;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 @SuppressWarnings("JniMissingFunction")
-public class FDRandomAccessIO implements RandomAccessIO
+public class FDRandomAccessIO implements RandomAccessIO, ByteBufferIO, SparseIO
 {
+	/**
+	 * Returns the allocated ranges of the file using SEEK_DATA/SEEK_HOLE
+	 * @return pairs of the range start and end positions or null if the file system doesn't support it
+	 */
+	public static long[] getDataRanges(File f) throws IOException
+	{
+		ParcelFileDescriptor pfd = ParcelFileDescriptor.open(f, ParcelFileDescriptor.MODE_READ_ONLY);
+		try
+		{
+			return findDataRanges(pfd.getFd());
+		}
+		finally
+		{
+			pfd.close();
+		}
+	}
+
 	public FDRandomAccessIO(int fd)
 	{
 		setFD(fd);
@@ -97,6 +120,83 @@ public class FDRandomAccessIO implements RandomAccessIO
 			throw new IOException("Failed writing data");
 	}
 
+	@Override
+	public int readAt(long position, byte[] b, int off, int len) throws IOException
+	{
+		if(off + len > b.length)
+			throw new IndexOutOfBoundsException();
+
+		if(_fd < 0)
+			throw new IOException("File is closed");
+
+		int res = pread(_fd, b, off, len, position);
+		if(res<0)
+			throw new IOException("Failed reading data");
+		if(res == 0 && len > 0)
+			return -1;
+		return res;
+	}
+
+	@Override
+	public void writeAt(long position, byte[] b, int off, int len) throws IOException
+	{
+		if(off + len > b.length)
+			throw new IndexOutOfBoundsException();
+
+		if(_fd < 0)
+			throw new IOException("File is closed");
+
+		if(pwrite(_fd, b, off, len, position)!=0)
+			throw new IOException("Failed writing data");
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException
+	{
+		if(!dst.isDirect())
+		{
+			int res = read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+			if(res > 0)
+				dst.position(dst.position() + res);
+			return res;
+		}
+		if(_fd < 0)
+			throw new IOException("File is closed");
+
+		int res = readDirect(_fd, dst, dst.position(), dst.remaining());
+		if(res<0)
+			throw new IOException("Failed reading data");
+		if(res == 0)
+			return dst.hasRemaining() ? -1 : 0;
+		dst.position(dst.position() + res);
+		return res;
+	}
+
+	@Override
+	public void write(ByteBuffer src) throws IOException
+	{
+		if(!src.isDirect())
+		{
+			write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+			src.position(src.limit());
+			return;
+		}
+		if(_fd < 0)
+			throw new IOException("File is closed");
+
+		if(writeDirect(_fd, src, src.position(), src.remaining())!=0)
+			throw new IOException("Failed writing data");
+		src.position(src.limit());
+	}
+
+	@Override
+	public long[] getDataRanges() throws IOException
+	{
+		if(_fd < 0)
+			throw new IOException("File is closed");
+		return findDataRanges(_fd);
+	}
+
 	@Override
 	public void flush() throws IOException
 	{	
@@ -142,6 +242,11 @@ public class FDRandomAccessIO implements RandomAccessIO
 	private static native int ftruncate(int fd, long newLength);	 
 	private static native int read(int fd, byte[] buf, int off, int len);
 	private static native int write(int fd, byte[] buf, int off, int len);
+	private static native int pread(int fd, byte[] buf, int off, int len, long position);
+	private static native int pwrite(int fd, byte[] buf, int off, int len, long position);
+	private static native long[] findDataRanges(int fd);
+	private static native int readDirect(int fd, ByteBuffer buf, int off, int len);
+	private static native int writeDirect(int fd, ByteBuffer buf, int off, int len);
 	
 	private int _fd = -1;
 }
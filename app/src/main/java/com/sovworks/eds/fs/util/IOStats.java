@@ -0,0 +1,203 @@
+package com.sovworks.eds.fs.util;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * I/O and crypto statistics of a mounted location. The components record the operations only if
+ * they are given an instance, so the statistics cost a null check when they are not collected.
+ * Thread safe.
+ */
+public class IOStats
+{
+	/**
+	 * Collect the statistics for the locations mounted from now on
+	 */
+	public static boolean ENABLE_IO_STATS = false;
+
+	public enum Op
+	{
+		BASE_READ("base read"),
+		BASE_WRITE("base write"),
+		DECRYPT("decrypt"),
+		ENCRYPT("encrypt"),
+		CACHE_HIT("cache hit"),
+		CACHE_MISS("cache miss"),
+		CLUSTER_READ("cluster read"),
+		CLUSTER_WRITE("cluster write"),
+		LOCK_WAIT("lock wait");
+
+		Op(String title)
+		{
+			_title = title;
+		}
+
+		public String getTitle()
+		{
+			return _title;
+		}
+
+		private final String _title;
+	}
+
+	/**
+	 * Latency histograms use power of two buckets. The bucket i counts the operations which took less than 2^i microseconds.
+	 */
+	public static final int NUM_HISTOGRAM_BUCKETS = 24;
+
+	public static class Metric
+	{
+		public long getCount()
+		{
+			return _count.get();
+		}
+
+		public long getBytes()
+		{
+			return _bytes.get();
+		}
+
+		/**
+		 * Returns the total time of the operations in nanoseconds
+		 */
+		public long getTime()
+		{
+			return _time.get();
+		}
+
+		public long[] getHistogram()
+		{
+			long[] res = new long[NUM_HISTOGRAM_BUCKETS];
+			for(int i = 0; i < res.length; i++)
+				res[i] = _histogram.get(i);
+			return res;
+		}
+
+		/**
+		 * Returns the upper bound of the latency percentile in microseconds
+		 * @param percentile percentile from 0 to 100
+		 */
+		public long getLatencyPercentile(int percentile)
+		{
+			long[] h = getHistogram();
+			long total = 0;
+			for(long n: h)
+				total += n;
+			if(total == 0)
+				return 0;
+			long limit = (total*percentile + 99) / 100, cur = 0;
+			for(int i = 0; i < h.length; i++)
+			{
+				cur += h[i];
+				if(cur >= limit)
+					return 1L << i;
+			}
+			return 1L << (h.length - 1);
+		}
+
+		void record(long bytes, long time)
+		{
+			_count.incrementAndGet();
+			if(bytes > 0)
+				_bytes.addAndGet(bytes);
+			if(time >= 0)
+			{
+				_time.addAndGet(time);
+				long us = time / 1000;
+				int bucket = us == 0 ? 0 : 64 - Long.numberOfLeadingZeros(us);
+				_histogram.incrementAndGet(Math.min(bucket, NUM_HISTOGRAM_BUCKETS - 1));
+			}
+		}
+
+		void reset()
+		{
+			_count.set(0);
+			_bytes.set(0);
+			_time.set(0);
+			for(int i = 0; i < NUM_HISTOGRAM_BUCKETS; i++)
+				_histogram.set(i, 0);
+		}
+
+		private final AtomicLong _count = new AtomicLong(), _bytes = new AtomicLong(), _time = new AtomicLong();
+		private final AtomicLongArray _histogram = new AtomicLongArray(NUM_HISTOGRAM_BUCKETS);
+	}
+
+	public IOStats()
+	{
+		for(int i = 0; i < _metrics.length; i++)
+			_metrics[i] = new Metric();
+		_startTime = System.currentTimeMillis();
+	}
+
+	public Metric get(Op op)
+	{
+		return _metrics[op.ordinal()];
+	}
+
+	/**
+	 * Records a timed operation
+	 * @param op operation
+	 * @param bytes number of bytes transferred
+	 * @param startTime System.nanoTime() value taken before the operation
+	 */
+	public void record(Op op, long bytes, long startTime)
+	{
+		_metrics[op.ordinal()].record(bytes, System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Records an event without timing
+	 */
+	public void count(Op op)
+	{
+		_metrics[op.ordinal()].record(0, -1);
+	}
+
+	/**
+	 * Returns the time when the collection was started or reset
+	 */
+	public long getStartTime()
+	{
+		return _startTime;
+	}
+
+	public void reset()
+	{
+		for(Metric m: _metrics)
+			m.reset();
+		_startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns a human readable dump of the non-zero counters
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.US, "%d s", (System.currentTimeMillis() - _startTime) / 1000));
+		for(Op op: Op.values())
+		{
+			Metric m = get(op);
+			long count = m.getCount();
+			if(count == 0)
+				continue;
+			sb.append('\n').append(op.getTitle()).append(": ").append(count);
+			if(m.getBytes() > 0)
+				sb.append(String.format(Locale.US, ", %.1f MB", m.getBytes() / (1024.0 * 1024.0)));
+			if(m.getTime() > 0)
+				sb.append(String.format(
+						Locale.US,
+						", %d ms, p50 < %d us, p99 < %d us",
+						m.getTime() / 1000000,
+						m.getLatencyPercentile(50),
+						m.getLatencyPercentile(99)
+				));
+		}
+		return sb.toString();
+	}
+
+	private final Metric[] _metrics = new Metric[Op.values().length];
+	private volatile long _startTime;
+}
@@ -59,6 +59,18 @@ public class RandomAccessIOWrapper implements RandomAccessIO
 		_base.write(b, off, len);
 	}
 
+	@Override
+	public int readAt(long position, byte[] b, int off, int len) throws IOException
+	{
+		return _base.readAt(position, b, off, len);
+	}
+
+	@Override
+	public void writeAt(long position, byte[] b, int off, int len) throws IOException
+	{
+		_base.writeAt(position, b, off, len);
+	}
+
 	@Override
 	public void flush() throws IOException
 	{
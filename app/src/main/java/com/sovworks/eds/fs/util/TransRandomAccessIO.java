@@ -6,9 +6,24 @@ import com.sovworks.eds.fs.RandomAccessIO;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class TransRandomAccessIO extends BufferedRandomAccessIO
 {
+	/**
+	 * Transfer the whole buffers of large requests directly between the caller's array and the base file
+	 */
+	public static boolean ENABLE_DIRECT_TRANSFER = true;
+
+	/**
+	 * When the buffers are loaded sequentially, read the next buffer from the base file on the I/O thread
+	 * while the current one is transformed and served
+	 */
+	public static boolean ENABLE_PIPELINE = true;
+
 	public TransRandomAccessIO(RandomAccessIO base, int bufferSize) throws FileNotFoundException
 	{
 		super(base, bufferSize);
@@ -19,26 +34,103 @@ public class TransRandomAccessIO extends BufferedRandomAccessIO
 	{
         try
         {
+			cancelPrefetch();
             writeCurrentBuffer();
 			super.close(closeBase);
         }
         finally
         {
 			Arrays.fill(_buffer, (byte) 0);
+			if(_pipelineBuffers != null)
+				for(byte[] b: _pipelineBuffers)
+					Arrays.fill(b, (byte) 0);
         }
 	}
 
+	@Override
+	public synchronized int read(byte[] buf, int offset, int count) throws IOException
+	{
+		if(!ENABLE_DIRECT_TRANSFER || count < _bufferSize || !canReadDirectly())
+			return super.read(buf, offset, count);
+		if (_currentPosition >= _length)
+			return -1;
+		int res = 0;
+		//Unaligned head goes through the buffer
+		if(getPositionInBuffer() != 0)
+		{
+			res = super.read(buf, offset, count);
+			if(res <= 0)
+				return res;
+		}
+		int direct = (int)Math.min(count - res, _length - _currentPosition);
+		direct -= direct % _bufferSize;
+		if(direct > 0)
+		{
+			int n = readDirect(buf, offset + res, direct, _currentPosition);
+			setCurrentBufferRead(n);
+			res += n;
+		}
+		//Tail is read by the next call
+		return res > 0 ? res : super.read(buf, offset, count);
+	}
+
+	/**
+	 * Reads from the base file and transforms the data without using the file pointer and the current buffer,
+	 * so that concurrent calls don't block each other.
+	 */
+	@Override
+	public int readAt(long position, byte[] buf, int offset, int count) throws IOException
+	{
+		if(!canReadDirectly())
+			return readAtFilePointer(position, buf, offset, count);
+		long length;
+		synchronized (this)
+		{
+			if(position >= _length)
+				return -1;
+			if(_isBufferChanged && _isBufferLoaded &&
+					_bufferPosition < position + count && _bufferPosition + _bufferSize > position)
+				writeCurrentBuffer();
+			length = _length;
+		}
+		return readAtWithoutBuffer(position, buf, offset, (int)Math.min(count, length - position), length);
+	}
+
 	@Override
 	public synchronized void write(byte[] buf, int offset, int count) throws IOException
 	{
 		if(!_allowSkip && _currentPosition > _length)
 			fillFreeSpace();
-		super.write(buf, offset, count);
+		if(!ENABLE_DIRECT_TRANSFER || count < _bufferSize || _currentPosition > _length || !canWriteDirectly())
+		{
+			super.write(buf, offset, count);
+			return;
+		}
+		int head = getPositionInBuffer() != 0 ? getSpaceInBuffer() : 0;
+		if(head > 0)
+		{
+			super.write(buf, offset, head);
+			offset += head;
+			count -= head;
+		}
+		int direct = count - count % _bufferSize;
+		if(direct > 0)
+		{
+			writeDirect(buf, offset, direct, _currentPosition);
+			_currentPosition += direct;
+			if(_currentPosition > _length)
+				_length = _currentPosition;
+			offset += direct;
+			count -= direct;
+		}
+		if(count > 0)
+			super.write(buf, offset, count);
 	}
 
 	@Override
 	public synchronized void setLength(long newLength) throws IOException
 	{
+		cancelPrefetch();
 		if(!_allowSkip && newLength > _length - 1)
 		{
 			seek(newLength - 1);
@@ -46,6 +138,9 @@ public class TransRandomAccessIO extends BufferedRandomAccessIO
 		}
 		else
 		{
+			//The current buffer may lie past the new end
+			writeCurrentBuffer();
+			_isBufferLoaded = false;
 			_length = newLength;
 			super.setLength(calcBasePosition(newLength));
 		}
@@ -56,8 +151,23 @@ public class TransRandomAccessIO extends BufferedRandomAccessIO
 		_allowSkip = val;
 	}
 
+	/**
+	 * Sets the statistics which receive the base file transfers and the transform times
+	 * @param stats statistics or null to stop collecting them
+	 */
+	public void setIOStats(IOStats stats)
+	{
+		_ioStats = stats;
+	}
+
+	public IOStats getIOStats()
+	{
+		return _ioStats;
+	}
+
 	protected byte[] _buffer;
 	protected boolean _allowSkip = false, _isBufferLoaded, _isBufferChanged;
+	protected volatile IOStats _ioStats;
 
     @Override
     protected void setCurrentBufferWritten(int numBytes)
@@ -104,13 +214,174 @@ public class TransRandomAccessIO extends BufferedRandomAccessIO
 		int space = (int)Math.min(_length - bp, _bufferSize);
 		if(space > 0)
 		{
-			int act = readFromBaseAndTransformBuffer(_buffer, 0, space, bp);
+			int act = loadBuffer(bp, space);
 			Arrays.fill(_buffer, act, _bufferSize, (byte) 0);
 		}
 		_isBufferChanged = false;
 		_isBufferLoaded = true;
 	}
 
+	/**
+	 * Returns the number of bytes of the base file which hold the given number of transformed bytes
+	 */
+	protected int calcBaseCount(int count)
+	{
+		return count;
+	}
+
+	/**
+	 * Discards the prefetched buffer. Waits if the I/O thread is reading it.
+	 */
+	protected void cancelPrefetch()
+	{
+		takePrefetch();
+		_lastLoadedPosition = -1;
+	}
+
+	/**
+	 * Returns the size of the smallest block which can be transformed separately
+	 */
+	protected int getTransformUnitSize()
+	{
+		return _bufferSize;
+	}
+
+	/**
+	 * Reads the transform units covering the range directly from the base file. The caller must flush the changed buffers.
+	 * Unaligned head and tail are read using temporary arrays.
+	 * @param length file length
+	 * @return number of bytes read or -1 if nothing was read
+	 */
+	protected int readAtWithoutBuffer(long position, byte[] buf, int offset, int count, long length) throws IOException
+	{
+		int unit = getTransformUnitSize();
+		int res = 0;
+		int head = (int)(position % unit);
+		if(head != 0 || count < unit)
+		{
+			res = readUnitPartAt(position - head, head, buf, offset, count, length);
+			if(res < Math.min(count, unit - head))
+				return res > 0 ? res : -1;
+		}
+		int direct = (count - res) - (count - res) % unit;
+		if(direct > 0)
+		{
+			long pos = position + res;
+			int bc = readFromBaseAt(buf, offset + res, (int)Math.min(direct, length - pos), pos);
+			int n = bc > 0 ? transformBufferFromBase(buf, offset + res, bc, pos, buf) : 0;
+			res += n;
+			if(n < direct)
+				return res > 0 ? res : -1;
+		}
+		if(res < count)
+			res += Math.max(0, readUnitPartAt(position + res, 0, buf, offset + res, count - res, length));
+		return res > 0 ? res : -1;
+	}
+
+	protected int readFromBaseAt(byte[] buf, int offset, int count, long position) throws IOException
+	{
+		IOStats stats = _ioStats;
+		long start = stats != null ? System.nanoTime() : 0;
+		long basePos = calcBasePosition(position);
+		int t = 0;
+		while(t < count)
+		{
+			int n = getBase().readAt(basePos + t, buf, offset + t, count - t);
+			if(n < 0)
+				break;
+			t += n;
+		}
+		if(stats != null)
+			stats.record(IOStats.Op.BASE_READ, t, start);
+		return t;
+	}
+
+	/**
+	 * Returns true if whole buffers can be read from the base file straight into the caller's array
+	 */
+	protected boolean canReadDirectly()
+	{
+		return true;
+	}
+
+	/**
+	 * Returns true if whole buffers can be written bypassing the current buffer
+	 */
+	protected boolean canWriteDirectly()
+	{
+		return true;
+	}
+
+	/**
+	 * Reads and transforms the whole buffers in place in the caller's array
+	 * @param buf destination array
+	 * @param offset offset in the array
+	 * @param count number of bytes, a multiple of the buffer size
+	 * @param position buffer aligned position in the file
+	 * @return number of bytes read
+	 */
+	protected int readDirect(byte[] buf, int offset, int count, long position) throws IOException
+	{
+		if(_isBufferChanged && isCurrentBufferInRange(position, count))
+			writeCurrentBuffer();
+		int bc = readFromBase(buf, offset, count, position);
+		return bc > 0 ? transformBufferFromBase(buf, offset, bc, position, buf) : 0;
+	}
+
+	/**
+	 * Transforms and writes the whole buffers without loading them first. The caller's array is not modified.
+	 * @param buf source array
+	 * @param offset offset in the array
+	 * @param count number of bytes, a multiple of the buffer size
+	 * @param position buffer aligned position in the file
+	 */
+	protected void writeDirect(byte[] buf, int offset, int count, long position) throws IOException
+	{
+		prepareDirectWrite(position, count);
+		//The current buffer is free now, use it as the staging buffer
+		for(int i = 0; i < count; i += _bufferSize)
+		{
+			System.arraycopy(buf, offset + i, _buffer, 0, _bufferSize);
+			transformBufferAndWriteToBase(_buffer, 0, _bufferSize, position + i);
+		}
+		Arrays.fill(_buffer, (byte) 0);
+	}
+
+	/**
+	 * Saves the current buffer if the direct write doesn't overwrite it and unloads it
+	 */
+	protected void prepareDirectWrite(long position, int count) throws IOException
+	{
+		cancelPrefetch();
+		if(!isCurrentBufferInRange(position, count))
+			writeCurrentBuffer();
+		_isBufferChanged = false;
+		_isBufferLoaded = false;
+	}
+
+	private int readUnitPartAt(long unitPosition, int posInUnit, byte[] buf, int offset, int count, long length) throws IOException
+	{
+		byte[] tmp = new byte[getTransformUnitSize()];
+		try
+		{
+			int bc = readFromBaseAt(tmp, 0, (int)Math.min(tmp.length, length - unitPosition), unitPosition);
+			int n = bc > 0 ? transformBufferFromBase(tmp, 0, bc, unitPosition, tmp) : 0;
+			int res = Math.min(n - posInUnit, count);
+			if(res > 0)
+				System.arraycopy(tmp, posInUnit, buf, offset, res);
+			return res;
+		}
+		finally
+		{
+			Arrays.fill(tmp, (byte) 0);
+		}
+	}
+
+	protected boolean isCurrentBufferInRange(long position, int count)
+	{
+		return _isBufferLoaded && _bufferPosition >= position && _bufferPosition < position + count;
+	}
+
 	protected int readFromBaseAndTransformBuffer(byte[] buf, int offset, int count, long bufferPosition) throws IOException
 	{
 		int bc = readFromBase(buf, offset, count, bufferPosition);
@@ -135,14 +406,23 @@ public class TransRandomAccessIO extends BufferedRandomAccessIO
 
     protected void writeToBase(byte[] buf, int offset, int count, long bufferPosition) throws IOException
     {
+		IOStats stats = _ioStats;
+		long start = stats != null ? System.nanoTime() : 0;
         getBase().seek(calcBasePosition(bufferPosition));
         getBase().write(buf, offset, count);
+		if(stats != null)
+			stats.record(IOStats.Op.BASE_WRITE, count, start);
     }
 
 	protected int readFromBase(byte[] buf, int offset, int count, long bufferPosition) throws IOException
 	{
+		IOStats stats = _ioStats;
+		long start = stats != null ? System.nanoTime() : 0;
 		getBase().seek(calcBasePosition(bufferPosition));
-		return readFullyEncrypted(buf, offset, count);
+		int res = readFullyEncrypted(buf, offset, count);
+		if(stats != null)
+			stats.record(IOStats.Op.BASE_READ, res, start);
+		return res;
 		//if(bc != count)
 		//	throw new IOException("Got " + bc + " bytes instead of " + count);
 	}
@@ -189,6 +469,140 @@ public class TransRandomAccessIO extends BufferedRandomAccessIO
 	}
 
     private long _bufferPosition;
+	private long _lastLoadedPosition = -1;
+	private byte[][] _pipelineBuffers;
+	private int _pipelineBufferIndex;
+	private Prefetch _prefetch;
+
+	//Each file has at most one prefetch in progress, so the files read at the same time don't wait for each other
+	private static final int MAX_IO_THREADS = 4;
+	private static ExecutorService _ioExecutor;
+
+	private static synchronized ExecutorService getIOExecutor()
+	{
+		if(_ioExecutor == null)
+		{
+			ThreadPoolExecutor exec = new ThreadPoolExecutor(MAX_IO_THREADS, MAX_IO_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+				Thread t = new Thread(r, "TransRandomAccessIO");
+				t.setDaemon(true);
+				return t;
+			});
+			exec.allowCoreThreadTimeOut(true);
+			_ioExecutor = exec;
+		}
+		return _ioExecutor;
+	}
+
+	private static class Prefetch
+	{
+		Prefetch(long position, int space, byte[] data)
+		{
+			this.position = position;
+			this.space = space;
+			this.data = data;
+		}
+
+		final long position;
+		final int space;
+		final byte[] data;
+		int count;
+		Exception error;
+
+		synchronized boolean start()
+		{
+			if(_state != QUEUED)
+				return false;
+			_state = RUNNING;
+			return true;
+		}
+
+		synchronized void finish()
+		{
+			_state = DONE;
+			notifyAll();
+		}
+
+		/**
+		 * Cancels the prefetch if it hasn't started yet, otherwise waits until it's finished
+		 * @return true if the data has been read
+		 */
+		synchronized boolean await()
+		{
+			if(_state == QUEUED)
+				_state = CANCELLED;
+			boolean interrupted = false;
+			//The buffer can't be reused until the I/O thread is done with it
+			while(_state == RUNNING)
+			{
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+			if(interrupted)
+				Thread.currentThread().interrupt();
+			return _state == DONE && error == null;
+		}
+
+		private static final int QUEUED = 0, RUNNING = 1, DONE = 2, CANCELLED = 3;
+		private int _state = QUEUED;
+	}
+
+	/**
+	 * Loads the buffer using the data read by the I/O thread if it's available.
+	 * Starts reading the next buffer if the buffers are loaded sequentially.
+	 */
+	private int loadBuffer(long bp, int space) throws IOException
+	{
+		Prefetch p = takePrefetch();
+		boolean isSequential = bp == _lastLoadedPosition + _bufferSize;
+		_lastLoadedPosition = bp;
+		if(ENABLE_PIPELINE && isSequential && bp + _bufferSize < _length)
+			startPrefetch(bp + _bufferSize);
+		if(p != null && p.position == bp && p.space == space && p.count > 0)
+			return transformBufferFromBase(p.data, 0, p.count, bp, _buffer);
+		return readFromBaseAndTransformBuffer(_buffer, 0, space, bp);
+	}
+
+	private Prefetch takePrefetch()
+	{
+		Prefetch p = _prefetch;
+		_prefetch = null;
+		return p != null && p.await() ? p : null;
+	}
+
+	private void startPrefetch(long position)
+	{
+		if(_pipelineBuffers == null)
+			_pipelineBuffers = new byte[][] {new byte[calcBaseCount(_bufferSize)], new byte[calcBaseCount(_bufferSize)]};
+		//The other buffer may hold the data which is being transformed
+		_pipelineBufferIndex ^= 1;
+		Prefetch p = new Prefetch(position, (int)Math.min(_length - position, _bufferSize), _pipelineBuffers[_pipelineBufferIndex]);
+		_prefetch = p;
+		getIOExecutor().execute(() -> prefetch(p));
+	}
+
+	private void prefetch(Prefetch p)
+	{
+		if(!p.start())
+			return;
+		try
+		{
+			p.count = readFromBaseAt(p.data, 0, calcBaseCount(p.space), p.position);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			p.error = e;
+		}
+		finally
+		{
+			p.finish();
+		}
+	}
 
 	private long calcBufferPosition()
 	{
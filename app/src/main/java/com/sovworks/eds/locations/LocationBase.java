@@ -158,6 +158,14 @@ public abstract class LocationBase implements Location, Cloneable
 			}
 		}
 
+		/**
+		 * Returns true if the protected fields are stored encrypted
+		 */
+		protected boolean canProtectFields()
+		{
+			return _protectionKeyProvider != null && _protectionKeyProvider.getProtectionKey() != null;
+		}
+
 		protected String encryptAndEncode(byte[] data)
 		{
 			return _protectionKeyProvider == null ?
@@ -0,0 +1,348 @@
+package com.sovworks.eds.luks;
+
+import android.util.Base64;
+
+import com.sovworks.eds.android.Logger;
+import com.sovworks.eds.exceptions.ApplicationException;
+import com.sovworks.eds.exceptions.UnsupportedContainerTypeException;
+import com.sovworks.eds.fs.RandomAccessIO;
+import com.sovworks.eds.fs.util.Util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * LUKS2 binary header and json metadata reader.
+ * Only the fields required to open a volume with pbkdf2 key slots are parsed.
+ */
+class Luks2Header
+{
+	static class Keyslot
+	{
+		int index;
+		int keySize;
+		int afStripes;
+		String afHash;
+		long areaOffset;
+		long areaSize;
+		String areaEncryption;
+		int areaKeySize;
+		String kdfHash;
+		int kdfIterations;
+		byte[] kdfSalt;
+	}
+
+	static class Segment
+	{
+		long offset;
+		/**
+		 * Segment size in bytes or 0 if the segment size is dynamic
+		 */
+		long size;
+		long ivTweak;
+		String encryption;
+		int sectorSize;
+	}
+
+	static class Digest
+	{
+		List<Integer> keyslots;
+		String hash;
+		int iterations;
+		byte[] salt;
+		byte[] digest;
+	}
+
+	/**
+	 * Reads the primary header at the given offset and the secondary header which follows it.
+	 * The valid header with the highest sequence id is used.
+	 */
+	static Luks2Header read(RandomAccessIO io, long offset) throws IOException, ApplicationException
+	{
+		Luks2Header primary = readBinaryHeader(io, offset, MAGIC);
+		Luks2Header secondary = null;
+		if(primary != null)
+			secondary = readBinaryHeader(io, offset + primary._hdrSize, SECONDARY_MAGIC);
+		else
+			for(long hdrOffset: SECONDARY_HEADER_OFFSETS)
+			{
+				secondary = readBinaryHeader(io, offset + hdrOffset, SECONDARY_MAGIC);
+				if(secondary != null)
+					break;
+			}
+		Luks2Header res = primary;
+		if(res == null || (secondary != null && secondary._seqId > primary._seqId))
+			res = secondary;
+		if(res == null)
+			throw new ApplicationException("LUKS2 header is damaged");
+		if(res != primary)
+			Logger.debug("Using the secondary LUKS2 header");
+		res.parseMetadata();
+		return res;
+	}
+
+	static String[] splitCipherSpec(String spec) throws UnsupportedContainerTypeException
+	{
+		int i = spec.indexOf('-');
+		if(i <= 0 || i == spec.length() - 1)
+			throw new UnsupportedContainerTypeException("Unsupported cipher specification: " + spec);
+		return new String[] {spec.substring(0, i), spec.substring(i + 1)};
+	}
+
+	final List<Keyslot> keyslots = new ArrayList<>();
+	Segment segment;
+	Digest digest;
+
+	String getUUID()
+	{
+		return _uuid;
+	}
+
+	private static final int BINARY_HEADER_SIZE = 4096;
+	private static final int LABEL_LEN = 48;
+	private static final int CHECKSUM_ALG_LEN = 32;
+	private static final int SALT_LEN = 64;
+	private static final int UUID_LEN = 40;
+	private static final int CHECKSUM_OFFSET = 448;
+	private static final int CHECKSUM_LEN = 64;
+	private static final long[] SECONDARY_HEADER_OFFSETS = new long[] {
+			0x4000, 0x8000, 0x10000, 0x20000, 0x40000, 0x80000, 0x100000, 0x200000, 0x400000
+	};
+	private static final byte[] MAGIC = new byte[] { 'L', 'U', 'K', 'S', (byte) 0xba, (byte) 0xbe };
+	private static final byte[] SECONDARY_MAGIC = new byte[] { 'S', 'K', 'U', 'L', (byte) 0xba, (byte) 0xbe };
+
+	private final byte[] _data;
+	private final long _hdrSize, _seqId;
+	private final String _uuid;
+
+	private Luks2Header(byte[] data, long hdrSize, long seqId, String uuid)
+	{
+		_data = data;
+		_hdrSize = hdrSize;
+		_seqId = seqId;
+		_uuid = uuid;
+	}
+
+	private static Luks2Header readBinaryHeader(RandomAccessIO io, long offset, byte[] magic) throws IOException
+	{
+		if(offset + BINARY_HEADER_SIZE > io.length())
+			return null;
+		byte[] hdr = new byte[BINARY_HEADER_SIZE];
+		io.seek(offset);
+		if(Util.readBytes(io, hdr, hdr.length) != hdr.length)
+			return null;
+		for (int i = 0; i < magic.length; i++)
+			if (hdr[i] != magic[i])
+				return null;
+		ByteBuffer bb = ByteBuffer.wrap(hdr);
+		bb.order(ByteOrder.BIG_ENDIAN);
+		bb.position(magic.length);
+		if(bb.getShort() != 2)
+			return null;
+		long hdrSize = bb.getLong();
+		if(Arrays.binarySearch(SECONDARY_HEADER_OFFSETS, hdrSize) < 0 || offset + hdrSize > io.length())
+			return null;
+		long seqId = bb.getLong();
+		bb.position(bb.position() + LABEL_LEN);
+		String checksumAlg = readString(bb, CHECKSUM_ALG_LEN);
+		bb.position(bb.position() + SALT_LEN);
+		String uuid = readString(bb, UUID_LEN);
+
+		byte[] data = new byte[(int) hdrSize];
+		io.seek(offset);
+		if(Util.readBytes(io, data, data.length) != data.length)
+			return null;
+		if(!isValidChecksum(data, checksumAlg))
+		{
+			Logger.debug(String.format("LUKS2 header checksum mismatch at offset %d", offset));
+			return null;
+		}
+		return new Luks2Header(data, hdrSize, seqId, uuid);
+	}
+
+	private static boolean isValidChecksum(byte[] data, String checksumAlg)
+	{
+		MessageDigest md;
+		try
+		{
+			md = MessageDigest.getInstance(getJCAHashName(checksumAlg));
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			Logger.debug("Unsupported LUKS2 header checksum algorithm: " + checksumAlg);
+			return false;
+		}
+		byte[] checksum = Arrays.copyOfRange(data, CHECKSUM_OFFSET, CHECKSUM_OFFSET + CHECKSUM_LEN);
+		Arrays.fill(data, CHECKSUM_OFFSET, CHECKSUM_OFFSET + CHECKSUM_LEN, (byte) 0);
+		byte[] calc = md.digest(data);
+		System.arraycopy(checksum, 0, data, CHECKSUM_OFFSET, CHECKSUM_LEN);
+		for(int i = 0; i < calc.length; i++)
+			if(calc[i] != checksum[i])
+				return false;
+		return true;
+	}
+
+	private static String getJCAHashName(String name)
+	{
+		switch (name.toLowerCase())
+		{
+			case "sha1":
+				return "SHA-1";
+			case "sha256":
+				return "SHA-256";
+			case "sha512":
+				return "SHA-512";
+			default:
+				return name;
+		}
+	}
+
+	private static String readString(ByteBuffer bb, int len)
+	{
+		byte[] buf = new byte[len];
+		bb.get(buf);
+		int end = 0;
+		while(end < len && buf[end] != 0)
+			end++;
+		return new String(buf, 0, end);
+	}
+
+	private void parseMetadata() throws ApplicationException
+	{
+		int end = BINARY_HEADER_SIZE;
+		while(end < _data.length && _data[end] != 0)
+			end++;
+		try
+		{
+			JSONObject root = new JSONObject(new String(_data, BINARY_HEADER_SIZE, end - BINARY_HEADER_SIZE, "UTF-8"));
+			checkRequirements(root.optJSONObject("config"));
+			segment = parseSegment(root.getJSONObject("segments"));
+			digest = parseDigest(root.getJSONObject("digests"));
+			parseKeyslots(root.getJSONObject("keyslots"));
+		}
+		catch (JSONException | IOException | IllegalArgumentException e)
+		{
+			throw new ApplicationException("Failed parsing LUKS2 metadata", e);
+		}
+	}
+
+	private static void checkRequirements(JSONObject config) throws JSONException, UnsupportedContainerTypeException
+	{
+		if(config == null)
+			return;
+		JSONObject req = config.optJSONObject("requirements");
+		if(req == null)
+			return;
+		JSONArray mandatory = req.optJSONArray("mandatory");
+		if(mandatory != null && mandatory.length() > 0)
+			throw new UnsupportedContainerTypeException("Unsupported LUKS2 requirement: " + mandatory.getString(0));
+	}
+
+	private static Segment parseSegment(JSONObject segments) throws JSONException, UnsupportedContainerTypeException
+	{
+		if(segments.length() != 1 || !segments.has("0"))
+			throw new UnsupportedContainerTypeException("Unsupported LUKS2 segments layout");
+		JSONObject s = segments.getJSONObject("0");
+		if(!"crypt".equals(s.getString("type")))
+			throw new UnsupportedContainerTypeException("Unsupported LUKS2 segment type: " + s.getString("type"));
+		if(s.has("integrity"))
+			throw new UnsupportedContainerTypeException("LUKS2 integrity protection is not supported");
+		Segment res = new Segment();
+		res.offset = getLong(s, "offset");
+		String size = s.getString("size");
+		res.size = "dynamic".equals(size) ? 0 : Long.parseLong(size);
+		res.ivTweak = getLong(s, "iv_tweak");
+		res.encryption = s.getString("encryption");
+		res.sectorSize = s.getInt("sector_size");
+		return res;
+	}
+
+	private static Digest parseDigest(JSONObject digests) throws JSONException, UnsupportedContainerTypeException
+	{
+		Iterator<String> keys = digests.keys();
+		while(keys.hasNext())
+		{
+			JSONObject d = digests.getJSONObject(keys.next());
+			if(!getIntList(d.getJSONArray("segments")).contains(0))
+				continue;
+			if(!"pbkdf2".equals(d.getString("type")))
+				throw new UnsupportedContainerTypeException("Unsupported LUKS2 digest type: " + d.getString("type"));
+			Digest res = new Digest();
+			res.keyslots = getIntList(d.getJSONArray("keyslots"));
+			res.hash = d.getString("hash");
+			res.iterations = d.getInt("iterations");
+			res.salt = Base64.decode(d.getString("salt"), Base64.DEFAULT);
+			res.digest = Base64.decode(d.getString("digest"), Base64.DEFAULT);
+			return res;
+		}
+		throw new UnsupportedContainerTypeException("LUKS2 segment digest not found");
+	}
+
+	private void parseKeyslots(JSONObject slots) throws JSONException
+	{
+		Iterator<String> keys = slots.keys();
+		while(keys.hasNext())
+		{
+			String key = keys.next();
+			JSONObject s = slots.getJSONObject(key);
+			JSONObject af = s.getJSONObject("af");
+			JSONObject area = s.getJSONObject("area");
+			JSONObject kdf = s.getJSONObject("kdf");
+			if(!"luks2".equals(s.getString("type")) ||
+					!"luks1".equals(af.getString("type")) ||
+					!"raw".equals(area.getString("type")))
+			{
+				Logger.debug(String.format("Skipping LUKS2 key slot %s: unsupported type", key));
+				continue;
+			}
+			if(!"pbkdf2".equals(kdf.getString("type")))
+			{
+				Logger.debug(String.format("Skipping LUKS2 key slot %s: unsupported kdf %s", key, kdf.getString("type")));
+				continue;
+			}
+			Keyslot ks = new Keyslot();
+			ks.index = Integer.parseInt(key);
+			ks.keySize = s.getInt("key_size");
+			ks.afStripes = af.getInt("stripes");
+			ks.afHash = af.getString("hash");
+			ks.areaOffset = getLong(area, "offset");
+			ks.areaSize = getLong(area, "size");
+			ks.areaEncryption = area.getString("encryption");
+			ks.areaKeySize = area.getInt("key_size");
+			ks.kdfHash = kdf.getString("hash");
+			ks.kdfIterations = kdf.getInt("iterations");
+			ks.kdfSalt = Base64.decode(kdf.getString("salt"), Base64.DEFAULT);
+			keyslots.add(ks);
+		}
+	}
+
+	/**
+	 * 64-bit values are stored as strings in the LUKS2 metadata
+	 */
+	private static long getLong(JSONObject obj, String name) throws JSONException
+	{
+		Object val = obj.get(name);
+		if(val instanceof Number)
+			return ((Number) val).longValue();
+		return Long.parseLong(val.toString());
+	}
+
+	private static List<Integer> getIntList(JSONArray arr) throws JSONException
+	{
+		List<Integer> res = new ArrayList<>();
+		for(int i = 0; i < arr.length(); i++)
+			res.add(Integer.parseInt(arr.getString(i)));
+		return res;
+	}
+}
@@ -4,6 +4,7 @@ import android.annotation.SuppressLint;
 
 import com.sovworks.eds.android.Logger;
 import com.sovworks.eds.android.helpers.ContainerOpeningProgressReporter;
+import com.sovworks.eds.container.ConcurrentTrials;
 import com.sovworks.eds.container.VolumeLayoutBase;
 import com.sovworks.eds.crypto.AF;
 import com.sovworks.eds.crypto.FileEncryptionEngine;
@@ -17,6 +18,8 @@ import com.sovworks.eds.crypto.engines.TwofishCBC;
 import com.sovworks.eds.crypto.engines.TwofishXTS;
 import com.sovworks.eds.crypto.hash.RIPEMD160;
 import com.sovworks.eds.crypto.hash.Whirlpool;
+import com.sovworks.eds.crypto.kdf.KDFCalibrator;
+import com.sovworks.eds.crypto.modes.XTS;
 import com.sovworks.eds.exceptions.ApplicationException;
 import com.sovworks.eds.exceptions.UnsupportedContainerTypeException;
 import com.sovworks.eds.exceptions.WrongPasswordException;
@@ -32,11 +35,28 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 
 public class VolumeLayout extends VolumeLayoutBase
 {
+	/**
+	 * Try the active key slots concurrently when opening a container
+	 */
+	public static boolean ENABLE_CONCURRENT_KEYSLOT_TRIAL = true;
+
+	/**
+	 * Target time of the key slot key derivation on this device in milliseconds
+	 */
+	public static int KEYSLOT_KDF_DURATION = 1000;
+
 	@Override
 	public void initNew()
 	{
@@ -82,24 +102,21 @@ public class VolumeLayout extends VolumeLayoutBase
 		for (int i = 0; i < MAGIC.length; i++)
 			if (header[i] != MAGIC[i]) return false;
 
-		MKInfo mki = deserializeHeaderData(header);
-		int actSlot = 0;
-		for(int i=0;i<_keySlots.size();i++)
-		{
-			KeySlot ks = _keySlots.get(i);
-			if(ks.isActive)
-			{
-				if(_openingProgressReporter!=null)
-					((ProgressReporter)_openingProgressReporter).setCurrentSlot(actSlot++);
-				if(tryPassword(input, ks, mki, _password))
-				{
-					_activeKeyslotIndex = i;
-					_volumeSize = calcVolumeSize(input.length());
-					return true;
-				}
-			}			
-		}
-		throw new WrongPasswordException();
+		MKInfo mki = getHeaderVersion(header) == 2 ?
+				readLuks2HeaderData(input) :
+				deserializeHeaderData(header);
+		List<Integer> slots = getActiveKeySlotsByCost();
+		int numThreads = ENABLE_CONCURRENT_KEYSLOT_TRIAL ?
+				ConcurrentTrials.getNumThreads(slots.size()) :
+				1;
+		int slotIndex = numThreads > 1 ?
+				tryKeySlotsConcurrently(input, slots, mki, _password) :
+				tryKeySlots(input, slots, mki, _password);
+		if(slotIndex < 0)
+			throw new WrongPasswordException();
+		_activeKeyslotIndex = slotIndex;
+		_volumeSize = calcVolumeSize(input.length());
+		return true;
 	}
 
 	@Override
@@ -107,6 +124,7 @@ public class VolumeLayout extends VolumeLayoutBase
 			ApplicationException
 	{
 		checkWriteHeaderPrereqs();
+		checkHeaderIsWritable();
 		for(KeySlot ks: _keySlots)
 			ks.isActive = false;
 		writeKey(output, _keySlots.get(_activeKeyslotIndex), _password);
@@ -159,16 +177,17 @@ public class VolumeLayout extends VolumeLayoutBase
     }
 	
 	@Override
-	public void setEncryptionEngineIV(FileEncryptionEngine eng, long decryptedVolumeOffset)
+	protected long getBlockIndex(FileEncryptionEngine eng, long decryptedVolumeOffset)
 	{
-		long block = decryptedVolumeOffset / eng.getFileBlockSize();
-		eng.setIV(getIVFromBlockIndex(block));
+		//The iv tweak is set in 512-byte sectors, the iv is counted in the engine sectors
+		return (decryptedVolumeOffset / SECTOR_SIZE + _ivTweak) / (eng.getFileBlockSize() / SECTOR_SIZE);
 	}
 
 	public void writeKey(RandomAccessIO output, int keyIndex, byte[] password)
 			throws IOException, ApplicationException
 	{
 		checkWriteHeaderPrereqs();
+		checkHeaderIsWritable();
 		writeKey(output, _keySlots.get(keyIndex), password);
 	}
 
@@ -226,7 +245,7 @@ public class VolumeLayout extends VolumeLayoutBase
 		public void init(int slotIndex)
 		{
 			isActive = false;
-			passwordIterations = SLOT_ITERATIONS_MIN;
+			passwordIterations = calcKeySlotIterations();
 			salt = new byte[MK_SALT_SIZE];
 			getRandom().nextBytes(salt);
 			numStripes = NUM_AF_STRIPES;
@@ -263,6 +282,11 @@ public class VolumeLayout extends VolumeLayoutBase
 		byte[] salt;
 		int keyMaterialOffsetSector;
 		int numStripes;
+		/**
+		 * LUKS2 key slot parameters. If null the volume cipher and hash function are used.
+		 */
+		String cipherName, cipherModeName, kdfHashName, afHashName;
+		int keySize;
 		
 	}
 	
@@ -279,7 +303,14 @@ public class VolumeLayout extends VolumeLayoutBase
 		
 		public boolean isValidKey(byte[] key) throws ApplicationException
 		{
-			byte[] keyDigest = deriveKey(MK_DIGEST_SIZE, _hashFunc, key, salt, iterations);
+			return isValidKey(key, _hashFunc, _openingProgressReporter);
+		}
+
+		public boolean isValidKey(byte[] key, MessageDigest hashFunc, ContainerOpeningProgressReporter reporter) throws ApplicationException
+		{
+			if(hashName != null)
+				hashFunc = findHashFunc(hashName);
+			byte[] keyDigest = deriveKey(digest.length, hashFunc, key, salt, iterations, reporter);
 			return Arrays.equals(keyDigest, digest);
 		}
 		
@@ -305,15 +336,40 @@ public class VolumeLayout extends VolumeLayoutBase
 		int keyLength;
 		byte[] salt;
 		byte[] digest;
+		/**
+		 * LUKS2 digest hash function. If null the key slot hash function is used.
+		 */
+		String hashName;
 	}
 	
+	/**
+	 * Returns the number of key slot kdf iterations which take KEYSLOT_KDF_DURATION on this device
+	 */
+	protected int calcKeySlotIterations()
+	{
+		return KDFCalibrator.getIterationsForDuration(
+				_hashFunc,
+				_encEngine.getKeySize(),
+				KEYSLOT_KDF_DURATION,
+				SLOT_ITERATIONS_MIN
+		);
+	}
+
 	protected static int sizeRoundUp(int size, int block)
 	{
 		int s = (size + (block - 1)) / block;
 		return s * block;
 	}
 
-	protected class ProgressReporter implements ContainerOpeningProgressReporter
+	/**
+	 * Reporter which scales the progress of the key derivation and of the master key check
+	 */
+	protected interface KeySlotStageReporter
+	{
+		void setKSProcessed(boolean val);
+	}
+
+	protected class ProgressReporter implements ContainerOpeningProgressReporter, KeySlotStageReporter
 	{
 		public ProgressReporter(ContainerOpeningProgressReporter base)
 		{
@@ -377,7 +433,8 @@ public class VolumeLayout extends VolumeLayoutBase
 			}
 		}
 
-		void setKSProcessed(boolean val)
+		@Override
+		public void setKSProcessed(boolean val)
 		{
 			_ksProcessed = val;
 		}
@@ -387,16 +444,91 @@ public class VolumeLayout extends VolumeLayoutBase
 		private boolean _ksProcessed;
 	}
 
+	/**
+	 * State shared by the concurrent key slot trials
+	 */
+	protected class KeySlotTrial
+	{
+		KeySlotTrial(int numSlots)
+		{
+			_progress = new int[numSlots];
+		}
+
+		boolean isCancelled()
+		{
+			return _isFinished || (_openingProgressReporter != null && _openingProgressReporter.isCancelled());
+		}
+
+		synchronized void setProgress(int slot, int progress)
+		{
+			_progress[slot] = progress;
+			if(_openingProgressReporter == null)
+				return;
+			int total = 0;
+			for(int p: _progress)
+				total += p;
+			((ProgressReporter) _openingProgressReporter)._base.setProgress(total / _progress.length);
+		}
+
+		private final int[] _progress;
+		private volatile boolean _isFinished;
+	}
+
+	/**
+	 * Progress reporter of a single key slot trial
+	 */
+	protected class SlotProgressReporter extends ConcurrentTrials.TrialProgressReporter implements KeySlotStageReporter
+	{
+		SlotProgressReporter(KeySlotTrial trial, int slot)
+		{
+			super(_openingProgressReporter, trial);
+			_trial = trial;
+			_slot = slot;
+		}
+
+		@Override
+		public void setKSProcessed(boolean val)
+		{
+			_ksProcessed = val;
+		}
+
+		@Override
+		public void setProgress(int progress)
+		{
+			_trial.setProgress(_slot, (int)(_ksProcessed ? 80 + progress*0.2f : progress*0.8f));
+		}
+
+		@Override
+		public boolean isCancelled()
+		{
+			return _trial.isCancelled();
+		}
+
+		private final KeySlotTrial _trial;
+		private final int _slot;
+		private volatile boolean _ksProcessed;
+	}
+
 	protected UUID _uuid;
 	protected int _payloadOffsetSector, _activeKeyslotIndex;
 	protected boolean _isDetachedHeader;
 	protected final List<KeySlot> _keySlots = new ArrayList<>();
 	protected long _volumeSize; 
+	protected boolean _isLuks2;
+	protected long _ivTweak, _segmentSize;
 	
 	protected long calcVolumeSize(long containerSize)
 	{
+		if(_segmentSize > 0)
+			return _segmentSize;
 		return containerSize - _payloadOffsetSector*SECTOR_SIZE;
 	}
+
+	protected void checkHeaderIsWritable() throws ApplicationException
+	{
+		if(_isLuks2)
+			throw new UnsupportedContainerTypeException("Changing LUKS2 headers is not supported");
+	}
 	
 	protected void writeHeaderData(RandomAccessIO output) throws IOException, ApplicationException
 	{
@@ -502,33 +634,259 @@ public class VolumeLayout extends VolumeLayoutBase
 		return mki;
 	}
 	
+	/**
+	 * Reads the LUKS2 header. Only the key slots which use pbkdf2 are loaded.
+	 */
+	protected MKInfo readLuks2HeaderData(RandomAccessIO input) throws IOException, ApplicationException
+	{
+		Luks2Header hdr = Luks2Header.read(input, getHeaderOffset());
+		Luks2Header.Digest dig = hdr.digest;
+		_hashFunc = findHashFunc(dig.hash);
+		if(_hashFunc == null)
+			throw new ApplicationException(String.format("Unsupported hash algorithm: %s", dig.hash));
+
+		_keySlots.clear();
+		int keyLength = 0;
+		for(Luks2Header.Keyslot s: hdr.keyslots)
+		{
+			if(!dig.keyslots.contains(s.index))
+				continue;
+			if(findHashFunc(s.kdfHash) == null || findHashFunc(s.afHash) == null)
+			{
+				Logger.debug(String.format("Skipping LUKS2 key slot %d: unsupported hash algorithm", s.index));
+				continue;
+			}
+			while(_keySlots.size() <= s.index)
+				_keySlots.add(new KeySlot());
+			KeySlot ks = _keySlots.get(s.index);
+			String[] areaCipher = Luks2Header.splitCipherSpec(s.areaEncryption);
+			ks.isActive = true;
+			ks.passwordIterations = s.kdfIterations;
+			ks.salt = s.kdfSalt;
+			ks.keyMaterialOffsetSector = (int) (s.areaOffset / SECTOR_SIZE);
+			ks.numStripes = s.afStripes;
+			ks.cipherName = areaCipher[0];
+			ks.cipherModeName = areaCipher[1];
+			ks.keySize = s.areaKeySize;
+			ks.kdfHashName = s.kdfHash;
+			ks.afHashName = s.afHash;
+			keyLength = s.keySize;
+		}
+		if(keyLength == 0)
+			throw new UnsupportedContainerTypeException("No supported LUKS2 key slots found");
+
+		MKInfo mki = new MKInfo();
+		mki.keyLength = keyLength;
+		mki.iterations = dig.iterations;
+		mki.salt = dig.salt;
+		mki.digest = dig.digest;
+		mki.hashName = dig.hash;
+
+		Luks2Header.Segment seg = hdr.segment;
+		String[] cipher = Luks2Header.splitCipherSpec(seg.encryption);
+		FileEncryptionEngine eng = findCipher(cipher[0], cipher[1], keyLength);
+		if(eng == null || eng.getKeySize() != keyLength)
+			throw new ApplicationException(String.format("Unsupported cipher/mode: %s", seg.encryption));
+		setSectorSize(eng, seg.sectorSize);
+		setEngine(eng);
+		_payloadOffsetSector = (int) (seg.offset / SECTOR_SIZE);
+		_ivTweak = seg.ivTweak;
+		_segmentSize = seg.size;
+		_uuid = UUID.fromString(hdr.getUUID());
+		_isLuks2 = true;
+		return mki;
+	}
+
+	protected static void setSectorSize(FileEncryptionEngine eng, int sectorSize) throws UnsupportedContainerTypeException
+	{
+		if(eng instanceof XTS && XTS.isValidSectorSize(sectorSize))
+			((XTS) eng).setSectorSize(sectorSize);
+		else if(sectorSize != SECTOR_SIZE)
+			throw new UnsupportedContainerTypeException(String.format("Unsupported sector size: %d", sectorSize));
+	}
+
 	protected boolean tryPassword(RandomAccessIO io, KeySlot ks, MKInfo mki, byte[] password) throws IOException, ApplicationException
+	{
+		byte[] mk = tryKeySlot(io, ks, mki, password, _openingProgressReporter);
+		if(mk != null)
+		{
+			_masterKey = mk;
+			_encEngine.setKey(_masterKey);			
+			_encEngine.init();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the indexes of the active key slots ordered by the key derivation cost
+	 */
+	protected List<Integer> getActiveKeySlotsByCost()
+	{
+		List<Integer> res = new ArrayList<>();
+		for(int i=0;i<_keySlots.size();i++)
+			if(_keySlots.get(i).isActive)
+				res.add(i);
+		Collections.sort(res, (a, b) -> Integer.compare(
+				_keySlots.get(a).passwordIterations,
+				_keySlots.get(b).passwordIterations
+		));
+		return res;
+	}
+
+	protected int tryKeySlots(RandomAccessIO io, List<Integer> slots, MKInfo mki, byte[] password) throws IOException, ApplicationException
+	{
+		int actSlot = 0;
+		for(int i: slots)
+		{
+			if(_openingProgressReporter!=null)
+				((ProgressReporter)_openingProgressReporter).setCurrentSlot(actSlot++);
+			if(tryPassword(io, _keySlots.get(i), mki, password))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Runs the key derivation, AF merge and master key check of each slot in a separate thread.
+	 * The remaining trials are cancelled as soon as the master key is found.
+	 * @return index of the matching key slot or -1
+	 */
+	protected int tryKeySlotsConcurrently(RandomAccessIO io, List<Integer> slots, MKInfo mki, byte[] password) throws IOException, ApplicationException
+	{
+		KeySlotTrial trial = new KeySlotTrial(slots.size());
+		ExecutorCompletionService<byte[]> ecs = new ExecutorCompletionService<>(ConcurrentTrials.getExecutor());
+		Map<Future<byte[]>, Integer> futures = new HashMap<>();
+		Throwable error = null;
+		byte[] mk = null;
+		int res = -1;
+		try
+		{
+			for(int i = 0; i < slots.size(); i++)
+			{
+				int trialIndex = i;
+				KeySlot ks = _keySlots.get(slots.get(i));
+				SlotProgressReporter reporter = new SlotProgressReporter(trial, i);
+				futures.put(ecs.submit(() -> {
+					try
+					{
+						if(trial.isCancelled())
+							return null;
+						return tryKeySlot(io, ks, mki, password, reporter);
+					}
+					finally
+					{
+						trial.setProgress(trialIndex, 100);
+					}
+				}), slots.get(i));
+			}
+			for(int i = 0; i < slots.size() && mk == null; i++)
+			{
+				Future<byte[]> f = ecs.take();
+				try
+				{
+					mk = f.get();
+					if(mk != null)
+						res = futures.get(f);
+				}
+				catch (ExecutionException e)
+				{
+					if(error == null && !(e.getCause() instanceof CancellationException))
+						error = e.getCause();
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			trial._isFinished = true;
+			ConcurrentTrials.waitForAll(futures.keySet());
+		}
+		if(mk != null)
+		{
+			_masterKey = mk;
+			_encEngine.setKey(_masterKey);
+			_encEngine.init();
+			return res;
+		}
+		if(_openingProgressReporter != null && _openingProgressReporter.isCancelled())
+			throw new CancellationException();
+		if(error instanceof IOException)
+			throw (IOException) error;
+		if(error instanceof ApplicationException)
+			throw (ApplicationException) error;
+		if(error instanceof RuntimeException)
+			throw (RuntimeException) error;
+		if(error != null)
+			throw new ApplicationException("Failed trying the key slots", error);
+		return -1;
+	}
+
+	/**
+	 * Tries the key slot using separate engine and hash function instances
+	 * @return master key or null if the password doesn't match the slot
+	 */
+	protected byte[] tryKeySlot(RandomAccessIO io, KeySlot ks, MKInfo mki, byte[] password, ContainerOpeningProgressReporter reporter) throws IOException, ApplicationException
+	{
+		FileEncryptionEngine eng = ks.cipherName != null ?
+				findCipher(ks.cipherName, ks.cipherModeName, ks.keySize) :
+				findCipher(_encEngine.getCipherName(), _encEngine.getCipherModeName(), mki.keyLength);
+		MessageDigest hashFunc = findHashFunc(ks.kdfHashName != null ? ks.kdfHashName : _hashFunc.getAlgorithm());
+		if(eng == null || hashFunc == null || (ks.cipherName != null && eng.getKeySize() != ks.keySize))
+			throw new ApplicationException("Failed creating the key slot cipher");
+		try
+		{
+			byte[] afKey;
+			synchronized (io)
+			{
+				afKey = readKeyMaterial(io, ks, mki);
+			}
+			return decryptMasterKey(afKey, ks, mki, password, eng, hashFunc, reporter);
+		}
+		finally
+		{
+			eng.close();
+		}
+	}
+
+	protected byte[] readKeyMaterial(RandomAccessIO io, KeySlot ks, MKInfo mki) throws IOException
 	{
 		io.seek(ks.keyMaterialOffsetSector * SECTOR_SIZE);
-		AF af = new AF(_hashFunc, mki.keyLength);
-		int afSize = af.calcNumRequiredSectors(ks.numStripes) * SECTOR_SIZE;
+		int afSize = AF.calcNumRequiredSectors(mki.keyLength, ks.numStripes) * SECTOR_SIZE;
 		byte[] afKey = new byte[afSize];
 		if(Util.readBytes(io,afKey,afKey.length) != afKey.length)
 			throw new EOFException();
+		return afKey;
+	}
 
-		if(_openingProgressReporter!=null)
+	/**
+	 * Decrypts the key material of the slot and checks the resulting master key
+	 * @return master key or null if the password doesn't match the slot
+	 */
+	protected byte[] decryptMasterKey(byte[] afKey, KeySlot ks, MKInfo mki, byte[] password, FileEncryptionEngine eng, MessageDigest hashFunc, ContainerOpeningProgressReporter reporter) throws IOException, ApplicationException
+	{
+		if(reporter!=null)
 		{
-			_openingProgressReporter.setCurrentKDFName(_hashFunc.getAlgorithm());
-			_openingProgressReporter.setCurrentEncryptionAlgName(VolumeLayoutBase.getEncEngineName(_encEngine));
-			((ProgressReporter)_openingProgressReporter).setKSProcessed(false);
+			reporter.setCurrentKDFName(hashFunc.getAlgorithm());
+			reporter.setCurrentEncryptionAlgName(VolumeLayoutBase.getEncEngineName(eng));
+			if(reporter instanceof KeySlotStageReporter)
+				((KeySlotStageReporter)reporter).setKSProcessed(false);
 		}
 		
-		Logger.debug(String.format("Using %s hash function to derive the key", _hashFunc.getAlgorithm()));
-		byte[] key = deriveKey(_encEngine.getKeySize(), _hashFunc, password, ks.salt, ks.passwordIterations);
-		
-		Logger.debug(String.format("Using %s encryption engine", VolumeLayoutBase.getEncEngineName(_encEngine)));
-		_encEngine.setKey(key);
-		_encEngine.init();
-		//_encEngine.setIV(ks.keyMaterialOffsetSector);
-		_encEngine.setIV(new byte[_encEngine.getIVSize()]);
-		_encEngine.decrypt(afKey, 0, afKey.length);
+		Logger.debug(String.format("Using %s hash function to derive the key", hashFunc.getAlgorithm()));
+		byte[] key = deriveKey(eng.getKeySize(), hashFunc, password, ks.salt, ks.passwordIterations, reporter);
 		
+		Logger.debug(String.format("Using %s encryption engine", VolumeLayoutBase.getEncEngineName(eng)));
+		eng.setKey(key);
+		eng.init();
+		//eng.setIV(ks.keyMaterialOffsetSector);
+		eng.setIV(new byte[eng.getIVSize()]);
+		eng.decrypt(afKey, 0, afKey.length);
 		
+		AF af = new AF(ks.afHashName != null ? findHashFunc(ks.afHashName) : hashFunc, mki.keyLength);
 		byte[] mk = new byte[mki.keyLength];
 		try
 		{
@@ -538,18 +896,16 @@ public class VolumeLayout extends VolumeLayoutBase
 		{
 			throw new ApplicationException("AF merge failed", e);
 		}
-		if(_openingProgressReporter!=null)
-			((ProgressReporter)_openingProgressReporter).setKSProcessed(true);
-		if(mki.isValidKey(mk))
+		finally
 		{
-			_masterKey = mk;
-			_encEngine.setKey(_masterKey);			
-			_encEngine.init();
-			return true;
+			Arrays.fill(afKey, (byte)0);
 		}
+		if(reporter instanceof KeySlotStageReporter)
+			((KeySlotStageReporter)reporter).setKSProcessed(true);
+		if(mki.isValidKey(mk, hashFunc, reporter))
+			return mk;
 		Arrays.fill(mk, (byte)0);
-		return false;
-
+		return null;
 	}
 
 	protected byte[] getCipherName()
@@ -605,6 +961,11 @@ public class VolumeLayout extends VolumeLayoutBase
 	{
 		return 0;
 	}
+
+	protected static int getHeaderVersion(byte[] header)
+	{
+		return ((header[MAGIC.length] & 0xFF) << 8) | (header[MAGIC.length + 1] & 0xFF);
+	}
 	
 
 	private static final int NUM_KEY_SLOTS = 8;
@@ -136,6 +136,12 @@ public class DefaultSettingsCommon implements SettingsCommon
 		return false;
 	}
 
+	@Override
+	public boolean collectIOStats()
+	{
+		return false;
+	}
+
 	@Override
 	public List<String> getVisitedHintSections()
 	{
@@ -142,6 +142,7 @@ public interface SettingsCommon
 	boolean isImageViewerAutoZoomEnabled();
 	boolean neverSaveHistory();
 	boolean disableDebugLog();
+	boolean collectIOStats();
 	boolean disableModifiedFilesBackup();
 	List<String> getVisitedHintSections();
 	boolean isHintDisabled();
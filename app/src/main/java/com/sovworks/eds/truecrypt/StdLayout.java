@@ -125,6 +125,12 @@ public class StdLayout extends VolumeLayoutBase
 		return l;
     }
 	
+	@Override
+	public boolean triesAllHashFuncs()
+	{
+		return true;
+	}
+	
 	public void setContainerSize(long containerSize)
 	{
 		_inputSize = containerSize;
@@ -1,6 +1,7 @@
 package com.sovworks.eds.veracrypt;
 
 
+import com.sovworks.eds.crypto.kdf.KDFCalibrator;
 import com.sovworks.eds.truecrypt.StdLayout;
 
 import java.io.IOException;
@@ -15,6 +16,19 @@ public class VolumeLayout extends StdLayout
 		return 15000 + pim*1000;
 	}
 
+	/**
+	 * Returns the PIM which makes the header key derivation take about durationMs milliseconds on this device
+	 * @param hashFunc header hash function
+	 * @param keySize header key size
+	 * @param durationMs target key derivation time
+	 * @return PIM value
+	 */
+	public static int getSuggestedPIM(MessageDigest hashFunc, int keySize, int durationMs)
+	{
+		int iterations = KDFCalibrator.getIterationsForDuration(hashFunc, keySize, durationMs, getKDFIterationsFromPIM(1));
+		return (iterations - getKDFIterationsFromPIM(0) + 999) / 1000;
+	}
+
 	@Override
 	public void setNumKDFIterations(int num)
 	{
@@ -19,6 +19,8 @@ typedef struct
 
 void cbc_encrypt(cbc_context *context, uint8_t *data, int offset, int length, uint8_t *iv, unsigned char incrementIV);
 void cbc_decrypt(cbc_context *context, uint8_t *data, int offset, int length, uint8_t *iv, unsigned char incrementIV);
+void cbc_encrypt_sectors(cbc_context *context, uint8_t *data, int offset, int length, const uint8_t *ivs);
+void cbc_decrypt_sectors(cbc_context *context, uint8_t *data, int offset, int length, const uint8_t *ivs);
 
 
 #endif
\ No newline at end of file
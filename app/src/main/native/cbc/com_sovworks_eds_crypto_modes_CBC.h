@@ -49,6 +49,38 @@ JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_CBC_encrypt
 JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_CBC_decrypt
   (JNIEnv *, jobject, jbyteArray, jint, jint, jbyteArray, jlong, jboolean);
 
+/*
+ * Class:     com_sovworks_eds_crypto_modes_CBC
+ * Method:    encryptDirect
+ * Signature: (Ljava/nio/ByteBuffer;II[BJZ)I
+ */
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CBC_encryptDirect
+  (JNIEnv *, jobject, jobject, jint, jint, jbyteArray, jlong, jboolean);
+
+/*
+ * Class:     com_sovworks_eds_crypto_modes_CBC
+ * Method:    decryptDirect
+ * Signature: (Ljava/nio/ByteBuffer;II[BJZ)I
+ */
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CBC_decryptDirect
+  (JNIEnv *, jobject, jobject, jint, jint, jbyteArray, jlong, jboolean);
+
+/*
+ * Class:     com_sovworks_eds_crypto_modes_CBC
+ * Method:    encryptBatch
+ * Signature: ([BII[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CBC_encryptBatch
+  (JNIEnv *, jobject, jbyteArray, jint, jint, jbyteArray, jlong);
+
+/*
+ * Class:     com_sovworks_eds_crypto_modes_CBC
+ * Method:    decryptBatch
+ * Signature: ([BII[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CBC_decryptBatch
+  (JNIEnv *, jobject, jbyteArray, jint, jint, jbyteArray, jlong);
+
 #ifdef __cplusplus
 }
 #endif
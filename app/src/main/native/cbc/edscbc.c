@@ -55,7 +55,7 @@ static void cbc_encrypt_block(const block_cipher_interface *cipher, uint8_t *buf
 	memcpy(ivec,iv,CBC_BLOCK_SIZE);
 }
 
-static void cbc_decrypt_block(const block_cipher_interface *cipher, uint8_t *buffer, size_t len, uint8_t ivec[CBC_BLOCK_SIZE])
+static void cbc_decrypt_block_sequential(const block_cipher_interface *cipher, uint8_t *buffer, size_t len, uint8_t ivec[CBC_BLOCK_SIZE])
 {
 	uint8_t c;
 	uint8_t tmp[CBC_BLOCK_SIZE];
@@ -81,6 +81,37 @@ static void cbc_decrypt_block(const block_cipher_interface *cipher, uint8_t *buf
 	}
 }
 
+#define CBC_BATCH_SIZE (32*CBC_BLOCK_SIZE)
+
+//All the ciphertext blocks are available, so the blocks of a batch are decrypted
+//independently of each other and xored with the previous ciphertext blocks afterwards.
+static void cbc_decrypt_block(const block_cipher_interface *cipher, uint8_t *buffer, size_t len, uint8_t ivec[CBC_BLOCK_SIZE])
+{
+	uint8_t tmp[CBC_BATCH_SIZE];
+	uint8_t next_iv[CBC_BLOCK_SIZE];
+	size_t n, i;
+
+	if(len % CBC_BLOCK_SIZE)
+	{
+		cbc_decrypt_block_sequential(cipher, buffer, len, ivec);
+		return;
+	}
+	while (len)
+	{
+		n = len < CBC_BATCH_SIZE ? len : CBC_BATCH_SIZE;
+		for(i=0; i<n; i+=CBC_BLOCK_SIZE)
+			cipher->decrypt(buffer + i, tmp + i, cipher->context);
+		memcpy(next_iv, buffer + n - CBC_BLOCK_SIZE, CBC_BLOCK_SIZE);
+		for(i=n - CBC_BLOCK_SIZE; i>0; i-=CBC_BLOCK_SIZE)
+			xor_block(buffer + i, tmp + i, buffer + i - CBC_BLOCK_SIZE);
+		xor_block(buffer, tmp, ivec);
+		memcpy(ivec, next_iv, CBC_BLOCK_SIZE);
+		len -= n;
+		buffer += n;
+	}
+	memset(tmp, 0, sizeof(tmp));
+}
+
 static void free_cipher_list(cipher_node *ciphers_head)
 {
 	if(ciphers_head!=NULL)
@@ -172,6 +203,46 @@ void cbc_decrypt(cbc_context *context, uint8_t *data, int offset, int length, ui
 	memcpy(iv, block_iv, CBC_BLOCK_SIZE);
 }
 
+void cbc_encrypt_sectors(cbc_context *context, uint8_t *data, int offset, int length, const uint8_t *ivs)
+{
+    uint8_t *cur, block_iv[CBC_BLOCK_SIZE];
+    const uint8_t *iv;
+    cipher_node *cn = context->ciphers_head;
+    int left, incr;
+
+    while(cn!=NULL)
+    {
+        for(cur = data + offset, iv = ivs, left = length, incr = context->file_block_size; left > 0; cur += incr, left -= incr, iv += CBC_BLOCK_SIZE)
+        {
+            memcpy(block_iv, iv, CBC_BLOCK_SIZE);
+            if(left < context->file_block_size)
+                incr = left;
+            cbc_encrypt_block(cn->cipher, cur, incr, block_iv);
+        }
+        cn = cn->next;
+    }
+}
+
+void cbc_decrypt_sectors(cbc_context *context, uint8_t *data, int offset, int length, const uint8_t *ivs)
+{
+    uint8_t *cur, block_iv[CBC_BLOCK_SIZE];
+    const uint8_t *iv;
+    cipher_node *cn = context->ciphers_tail;
+    int left, incr;
+
+    while(cn!=NULL)
+    {
+        for(cur = data + offset, iv = ivs, left = length, incr = context->file_block_size; left > 0; cur += incr, left -= incr, iv += CBC_BLOCK_SIZE)
+        {
+            memcpy(block_iv, iv, CBC_BLOCK_SIZE);
+            if(left < context->file_block_size)
+                incr = left;
+            cbc_decrypt_block(cn->cipher, cur, incr, block_iv);
+        }
+        cn = cn->prev;
+    }
+}
+
 JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *jvm, void *reserved)
 {
 
@@ -222,6 +293,66 @@ JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CBC_decrypt(JNIEnv *en
 	return 0;
 }
 
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CBC_encryptDirect(JNIEnv *env, jobject obj, jobject data, jint offset, jint length, jbyteArray iv, jlong context, jboolean incrementIV)
+{
+	uint8_t *raw_data = (uint8_t *)(*env)->GetDirectBufferAddress(env,data);
+	if(raw_data == NULL)
+		return -1;
+	jbyte *raw_iv = (*env)->GetPrimitiveArrayCritical(env,iv,NULL);
+	if(raw_iv == NULL)
+		return -1;
+	cbc_encrypt((cbc_context *)context, raw_data, offset, length, (uint8_t *)raw_iv, incrementIV);
+	(*env)->ReleasePrimitiveArrayCritical(env,iv,raw_iv,0);
+	return 0;
+}
+
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CBC_decryptDirect(JNIEnv *env, jobject obj, jobject data, jint offset, jint length, jbyteArray iv, jlong context, jboolean incrementIV)
+{
+	uint8_t *raw_data = (uint8_t *)(*env)->GetDirectBufferAddress(env,data);
+	if(raw_data == NULL)
+		return -1;
+	jbyte *raw_iv = (*env)->GetPrimitiveArrayCritical(env,iv,NULL);
+	if(raw_iv == NULL)
+		return -1;
+	cbc_decrypt((cbc_context *)context, raw_data, offset, length, (uint8_t *)raw_iv, incrementIV);
+	(*env)->ReleasePrimitiveArrayCritical(env,iv,raw_iv,0);
+	return 0;
+}
+
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CBC_encryptBatch(JNIEnv *env, jobject obj, jbyteArray data, jint offset, jint length, jbyteArray ivs, jlong context)
+{
+	jbyte *raw_data = (*env)->GetPrimitiveArrayCritical(env,data,NULL);
+	if(raw_data == NULL)
+		return -1;
+	jbyte *raw_ivs = (*env)->GetPrimitiveArrayCritical(env,ivs,NULL);
+	if(raw_ivs == NULL)
+	{
+		(*env)->ReleasePrimitiveArrayCritical(env,data,raw_data,0);
+		return -1;
+	}
+	cbc_encrypt_sectors((cbc_context *)context,(uint8_t *)raw_data, offset, length, (const uint8_t *)raw_ivs);
+	(*env)->ReleasePrimitiveArrayCritical(env,ivs,raw_ivs,JNI_ABORT);
+	(*env)->ReleasePrimitiveArrayCritical(env,data,raw_data,0);
+	return 0;
+}
+
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CBC_decryptBatch(JNIEnv *env, jobject obj, jbyteArray data, jint offset, jint length, jbyteArray ivs, jlong context)
+{
+	jbyte *raw_data = (*env)->GetPrimitiveArrayCritical(env,data,NULL);
+	if(raw_data == NULL)
+		return -1;
+	jbyte *raw_ivs = (*env)->GetPrimitiveArrayCritical(env,ivs,NULL);
+	if(raw_ivs == NULL)
+	{
+		(*env)->ReleasePrimitiveArrayCritical(env,data,raw_data,0);
+		return -1;
+	}
+	cbc_decrypt_sectors((cbc_context *)context,(uint8_t *)raw_data, offset, length, (const uint8_t *)raw_ivs);
+	(*env)->ReleasePrimitiveArrayCritical(env,ivs,raw_ivs,JNI_ABORT);
+	(*env)->ReleasePrimitiveArrayCritical(env,data,raw_data,0);
+	return 0;
+}
+
 JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_modes_CBC_closeContext(JNIEnv *env, jobject obj, jlong context)
 {
 	if((void *)context!=NULL)
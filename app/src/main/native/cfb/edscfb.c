@@ -215,6 +215,32 @@ JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CFB_decrypt(JNIEnv *en
 	return 0;
 }
 
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CFB_encryptDirect(JNIEnv *env, jobject obj, jobject data, jint offset, jint length, jbyteArray iv, jlong context)
+{
+	uint8_t *raw_data = (uint8_t *)(*env)->GetDirectBufferAddress(env,data);
+	if(raw_data == NULL)
+		return -1;
+	jbyte *raw_iv = (*env)->GetPrimitiveArrayCritical(env,iv,NULL);
+	if(raw_iv == NULL)
+		return -1;
+	cfb_encrypt((cfb_context *)context, raw_data, offset, length, (uint8_t *)raw_iv);
+	(*env)->ReleasePrimitiveArrayCritical(env,iv,raw_iv,0);
+	return 0;
+}
+
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CFB_decryptDirect(JNIEnv *env, jobject obj, jobject data, jint offset, jint length, jbyteArray iv, jlong context)
+{
+	uint8_t *raw_data = (uint8_t *)(*env)->GetDirectBufferAddress(env,data);
+	if(raw_data == NULL)
+		return -1;
+	jbyte *raw_iv = (*env)->GetPrimitiveArrayCritical(env,iv,NULL);
+	if(raw_iv == NULL)
+		return -1;
+	cfb_decrypt((cfb_context *)context, raw_data, offset, length, (uint8_t *)raw_iv);
+	(*env)->ReleasePrimitiveArrayCritical(env,iv,raw_iv,0);
+	return 0;
+}
+
 JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_modes_CFB_closeContext(JNIEnv *env, jobject obj, jlong context)
 {
 	if((void *)context!=NULL)
@@ -49,6 +49,22 @@ JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_CFB_encrypt
 JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_CFB_decrypt
   (JNIEnv *, jobject, jbyteArray, jint, jint, jbyteArray, jlong);
 
+/*
+ * Class:     com_sovworks_eds_crypto_modes_CTR
+ * Method:    encryptDirect
+ * Signature: (Ljava/nio/ByteBuffer;II[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CTR_encryptDirect
+  (JNIEnv *, jobject, jobject, jint, jint, jbyteArray, jlong);
+
+/*
+ * Class:     com_sovworks_eds_crypto_modes_CTR
+ * Method:    decryptDirect
+ * Signature: (Ljava/nio/ByteBuffer;II[BJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_CTR_decryptDirect
+  (JNIEnv *, jobject, jobject, jint, jint, jbyteArray, jlong);
+
 #ifdef __cplusplus
 }
 #endif
@@ -71,6 +71,46 @@ JNIEXPORT jint JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_read
 JNIEXPORT jint JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_write
   (JNIEnv *, jclass, jint, jbyteArray, jint, jint);
 
+/*
+ * Class:     com_sovworks_eds_fs_util_FDRandomAccessIO
+ * Method:    readDirect
+ * Signature: (ILjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_readDirect
+  (JNIEnv *, jclass, jint, jobject, jint, jint);
+
+/*
+ * Class:     com_sovworks_eds_fs_util_FDRandomAccessIO
+ * Method:    writeDirect
+ * Signature: (ILjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_writeDirect
+  (JNIEnv *, jclass, jint, jobject, jint, jint);
+
+/*
+ * Class:     com_sovworks_eds_fs_util_FDRandomAccessIO
+ * Method:    pread
+ * Signature: (I[BIIJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_pread
+  (JNIEnv *, jclass, jint, jbyteArray, jint, jint, jlong);
+
+/*
+ * Class:     com_sovworks_eds_fs_util_FDRandomAccessIO
+ * Method:    pwrite
+ * Signature: (I[BIIJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_pwrite
+  (JNIEnv *, jclass, jint, jbyteArray, jint, jint, jlong);
+
+/*
+ * Class:     com_sovworks_eds_fs_util_FDRandomAccessIO
+ * Method:    findDataRanges
+ * Signature: (I)[J
+ */
+JNIEXPORT jlongArray JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_findDataRanges
+  (JNIEnv *, jclass, jint);
+
 #ifdef __cplusplus
 }
 #endif
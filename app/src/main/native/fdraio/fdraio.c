@@ -22,6 +22,12 @@
 #endif
 
 #define BUFFER_SIZE (8*1024)
+#define MAX_DATA_RANGES (64*1024)
+
+#ifndef SEEK_DATA
+#define SEEK_DATA 3
+#define SEEK_HOLE 4
+#endif
 
 JNIEXPORT jint JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_write(
     JNIEnv *env, 
@@ -66,6 +72,136 @@ JNIEXPORT jint JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_read(
     return res;
 }
 
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_writeDirect(
+    JNIEnv *env,
+    jclass cls,
+    jint fd,
+    jobject buf,
+    jint offset,
+    jint length)
+{
+    jbyte *data = (*env)->GetDirectBufferAddress(env,buf);
+    if(data == NULL)
+        return -1;
+    while (length > 0)
+    {
+        int bytes_written = write(fd,data + offset,length);
+        if(bytes_written<0)
+            return -1;
+        length -= bytes_written;
+        offset += bytes_written;
+    }
+    return 0;
+}
+
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_readDirect(
+    JNIEnv *env,
+    jclass cls,
+    jint fd,
+    jobject buf,
+    jint offset,
+    jint length)
+{
+    jbyte *data = (*env)->GetDirectBufferAddress(env,buf);
+    if(data == NULL)
+        return -1;
+    return read(fd,data + offset,length);
+}
+
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_pwrite(
+    JNIEnv *env,
+    jclass cls,
+    jint fd,
+    jbyteArray buf,
+    jint offset,
+    jint length,
+    jlong position)
+{
+    int res = 0;
+    jbyte *data = (*env)->GetPrimitiveArrayCritical(env,buf,NULL);
+    if(data == NULL)
+        return -1;
+    while (length > 0)
+    {
+        int bytes_written = pwrite64(fd,data + offset,length,position);
+        if(bytes_written<0)
+        {
+            res = -1;
+            break;
+        }
+        length -= bytes_written;
+        offset += bytes_written;
+        position += bytes_written;
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env,buf,data,0);
+    return res;
+}
+
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_pread(
+    JNIEnv *env,
+    jclass cls,
+    jint fd,
+    jbyteArray buf,
+    jint offset,
+    jint length,
+    jlong position)
+{
+    jbyte *data = (*env)->GetPrimitiveArrayCritical(env,buf,NULL);
+    if(data == NULL)
+        return -1;
+    int res = pread64(fd,data + offset,length,position);
+    (*env)->ReleasePrimitiveArrayCritical(env,buf,data,0);
+    return res;
+}
+
+JNIEXPORT jlongArray JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_findDataRanges(
+    JNIEnv *env,
+    jclass cls,
+    jint fd)
+{
+    struct stat64 st;
+    if(fstat64(fd, &st))
+        return NULL;
+    off64_t cur = lseek64(fd, 0, SEEK_CUR);
+    if(cur < 0)
+        return NULL;
+    jlong *ranges = malloc(2 * MAX_DATA_RANGES * sizeof(jlong));
+    if(ranges == NULL)
+        return NULL;
+    int num = 0, failed = 0;
+    off64_t pos = 0;
+    while(pos < st.st_size)
+    {
+        off64_t start = lseek64(fd, pos, SEEK_DATA);
+        if(start < 0)
+        {
+            // ENXIO means there is no data after the position. Other errors mean SEEK_DATA is not supported.
+            failed = errno != ENXIO;
+            break;
+        }
+        off64_t end = lseek64(fd, start, SEEK_HOLE);
+        if(end < 0 || num == MAX_DATA_RANGES)
+        {
+            failed = 1;
+            break;
+        }
+        ranges[2*num] = start;
+        ranges[2*num + 1] = end;
+        num++;
+        pos = end;
+    }
+    lseek64(fd, cur, SEEK_SET);
+    jlongArray res = NULL;
+    if(!failed)
+    {
+        res = (*env)->NewLongArray(env, 2*num);
+        if(res != NULL)
+            (*env)->SetLongArrayRegion(env, res, 0, 2*num, ranges);
+    }
+    free(ranges);
+    return res;
+}
+
 JNIEXPORT void JNICALL Java_com_sovworks_eds_fs_util_FDRandomAccessIO_seek(
     JNIEnv *env, 
     jclass cls, 
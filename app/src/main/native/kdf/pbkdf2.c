@@ -0,0 +1,178 @@
+#include "pbkdf2.h"
+
+#include <stdlib.h>
+#include <string.h>
+
+typedef struct hmac_state
+{
+	const pbkdf2_hash *hash;
+	uint8_t *inner, *outer, *work;
+} hmac_state;
+
+//The inner and outer hash states are computed once from the key,
+//so that each hmac calculation needs only two hash compressions.
+static int hmac_init(hmac_state *st, const pbkdf2_hash *hash, const uint8_t *key, size_t key_len)
+{
+	uint8_t block[PBKDF2_MAX_BLOCK_SIZE], key_digest[PBKDF2_MAX_DIGEST_SIZE];
+	size_t i;
+
+	st->hash = hash;
+	st->inner = malloc(hash->context_size*3);
+	if(st->inner == NULL)
+		return PBKDF2_ERROR;
+	st->outer = st->inner + hash->context_size;
+	st->work = st->outer + hash->context_size;
+
+	if(key_len > hash->block_size)
+	{
+		hash->init(st->work);
+		hash->update(st->work, key, key_len);
+		hash->final(st->work, key_digest);
+		key = key_digest;
+		key_len = hash->digest_size;
+	}
+
+	memset(block, 0x36, hash->block_size);
+	for(i=0;i<key_len;i++)
+		block[i] ^= key[i];
+	hash->init(st->inner);
+	hash->update(st->inner, block, hash->block_size);
+
+	memset(block, 0x5C, hash->block_size);
+	for(i=0;i<key_len;i++)
+		block[i] ^= key[i];
+	hash->init(st->outer);
+	hash->update(st->outer, block, hash->block_size);
+
+	memset(block, 0, sizeof(block));
+	memset(key_digest, 0, sizeof(key_digest));
+	return PBKDF2_OK;
+}
+
+static void hmac_calc(hmac_state *st, const uint8_t *data, size_t data_len, uint8_t *out)
+{
+	const pbkdf2_hash *hash = st->hash;
+
+	memcpy(st->work, st->inner, hash->context_size);
+	hash->update(st->work, data, data_len);
+	hash->final(st->work, out);
+
+	memcpy(st->work, st->outer, hash->context_size);
+	hash->update(st->work, out, hash->digest_size);
+	hash->final(st->work, out);
+}
+
+static void hmac_free(hmac_state *st)
+{
+	if(st->inner != NULL)
+	{
+		memset(st->inner, 0, st->hash->context_size*3);
+		free(st->inner);
+		st->inner = NULL;
+	}
+}
+
+int pbkdf2_hmac(const pbkdf2_hash *hash, const uint8_t *password, size_t password_len, const uint8_t *salt, size_t salt_len,
+				int iterations, uint32_t first_block, uint8_t *out, size_t out_len, pbkdf2_progress progress, void *progress_arg)
+{
+	hmac_state st;
+	uint8_t u[PBKDF2_MAX_DIGEST_SIZE], t[PBKDF2_MAX_DIGEST_SIZE];
+	uint8_t *init;
+	uint32_t block;
+	size_t i, pos, n;
+	int c, finished = 0, res = PBKDF2_OK;
+
+	if(hash->block_size > PBKDF2_MAX_BLOCK_SIZE || hash->digest_size > PBKDF2_MAX_DIGEST_SIZE)
+		return PBKDF2_ERROR;
+	init = malloc(salt_len + 4);
+	if(init == NULL)
+		return PBKDF2_ERROR;
+	if(hmac_init(&st, hash, password, password_len) != PBKDF2_OK)
+	{
+		free(init);
+		return PBKDF2_ERROR;
+	}
+	memcpy(init, salt, salt_len);
+
+	for(block = first_block, pos = 0; pos < out_len && res == PBKDF2_OK; block++, pos += n)
+	{
+		init[salt_len] = (uint8_t)(block >> 24);
+		init[salt_len + 1] = (uint8_t)(block >> 16);
+		init[salt_len + 2] = (uint8_t)(block >> 8);
+		init[salt_len + 3] = (uint8_t)block;
+		hmac_calc(&st, init, salt_len + 4, u);
+		memcpy(t, u, hash->digest_size);
+		for(c = 1; c < iterations; c++)
+		{
+			hmac_calc(&st, u, hash->digest_size, u);
+			for(i=0;i<hash->digest_size;i++)
+				t[i] ^= u[i];
+			if(progress != NULL && (++finished % PBKDF2_PROGRESS_INTERVAL) == 0 && progress(progress_arg, finished))
+			{
+				res = PBKDF2_CANCELLED;
+				break;
+			}
+		}
+		n = out_len - pos < hash->digest_size ? out_len - pos : hash->digest_size;
+		memcpy(out + pos, t, n);
+	}
+
+	hmac_free(&st);
+	memset(init, 0, salt_len + 4);
+	free(init);
+	memset(u, 0, sizeof(u));
+	memset(t, 0, sizeof(t));
+	return res;
+}
+
+typedef struct jni_progress_arg
+{
+	JNIEnv *env;
+	jobject listener;
+	jmethodID method;
+} jni_progress_arg;
+
+static int report_progress_jni(void *arg, int finished_iterations)
+{
+	jni_progress_arg *pa = (jni_progress_arg *)arg;
+	jboolean res = (*pa->env)->CallBooleanMethod(pa->env, pa->listener, pa->method, finished_iterations);
+	return (*pa->env)->ExceptionCheck(pa->env) || !res;
+}
+
+//The arrays are copied because the progress listener is called back during the derivation,
+//which is not allowed while holding a critical array region.
+jint pbkdf2_hmac_jni(JNIEnv *env, const pbkdf2_hash *hash, jbyteArray password, jbyteArray salt, jint iterations, jint first_block, jbyteArray out, jobject progress_listener)
+{
+	jni_progress_arg pa;
+	jsize password_len = (*env)->GetArrayLength(env, password);
+	jsize salt_len = (*env)->GetArrayLength(env, salt);
+	jsize out_len = (*env)->GetArrayLength(env, out);
+	uint8_t *buf = malloc((size_t)password_len + salt_len + out_len + 1);
+	int res;
+
+	if(buf == NULL)
+		return PBKDF2_ERROR;
+	(*env)->GetByteArrayRegion(env, password, 0, password_len, (jbyte *)buf);
+	(*env)->GetByteArrayRegion(env, salt, 0, salt_len, (jbyte *)(buf + password_len));
+	if(progress_listener != NULL)
+	{
+		pa.env = env;
+		pa.listener = progress_listener;
+		pa.method = (*env)->GetMethodID(env, (*env)->GetObjectClass(env, progress_listener), "reportNativeProgress", "(I)Z");
+		if(pa.method == NULL)
+		{
+			free(buf);
+			return PBKDF2_ERROR;
+		}
+	}
+	res = pbkdf2_hmac(hash, buf, (size_t)password_len, buf + password_len, (size_t)salt_len, iterations, (uint32_t)first_block,
+					  buf + password_len + salt_len, (size_t)out_len,
+					  progress_listener == NULL ? NULL : report_progress_jni, &pa);
+	if(res == PBKDF2_OK)
+		(*env)->SetByteArrayRegion(env, out, 0, out_len, (jbyte *)(buf + password_len + salt_len));
+	else if((*env)->ExceptionCheck(env))
+		res = PBKDF2_ERROR;
+	memset(buf, 0, (size_t)password_len + salt_len + out_len);
+	free(buf);
+	return res;
+}
@@ -0,0 +1,35 @@
+#ifndef EDS_PBKDF2_H
+#define EDS_PBKDF2_H
+
+#include <jni.h>
+#include <stdint.h>
+#include <stddef.h>
+
+#define PBKDF2_MAX_BLOCK_SIZE 128
+#define PBKDF2_MAX_DIGEST_SIZE 64
+#define PBKDF2_PROGRESS_INTERVAL 1024
+
+#define PBKDF2_OK 0
+#define PBKDF2_CANCELLED 1
+#define PBKDF2_ERROR -1
+
+typedef struct pbkdf2_hash
+{
+	size_t block_size;
+	size_t digest_size;
+	size_t context_size;
+	void (*init)(void *context);
+	void (*update)(void *context, const uint8_t *data, size_t len);
+	void (*final)(void *context, uint8_t *digest);
+} pbkdf2_hash;
+
+//Returns non-zero to cancel the derivation
+typedef int (*pbkdf2_progress)(void *arg, int finished_iterations);
+
+//Derives out_len bytes starting from the first_block output block (1-based)
+int pbkdf2_hmac(const pbkdf2_hash *hash, const uint8_t *password, size_t password_len, const uint8_t *salt, size_t salt_len,
+				int iterations, uint32_t first_block, uint8_t *out, size_t out_len, pbkdf2_progress progress, void *progress_arg);
+
+jint pbkdf2_hmac_jni(JNIEnv *env, const pbkdf2_hash *hash, jbyteArray password, jbyteArray salt, jint iterations, jint first_block, jbyteArray out, jobject progress_listener);
+
+#endif //EDS_PBKDF2_H
@@ -50,10 +50,26 @@ JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_LocalEncryptedFileXTS_ftrunc
 /*
  * Class:     com_sovworks_eds_crypto_LocalEncryptedFileXTS
  * Method:    initContext
- * Signature: (Ljava/lang/String;ZJ)J
+ * Signature: (Ljava/lang/String;ZJJJ)J
  */
 JNIEXPORT jlong JNICALL Java_com_sovworks_eds_crypto_LocalEncryptedFileXTS_initContext
-  (JNIEnv *, jclass, jstring, jboolean, jlong);
+  (JNIEnv *, jclass, jstring, jboolean, jlong, jlong, jlong);
+
+/*
+ * Class:     com_sovworks_eds_crypto_LocalEncryptedFileXTS
+ * Method:    initContextFD
+ * Signature: (IJJJ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_sovworks_eds_crypto_LocalEncryptedFileXTS_initContextFD
+  (JNIEnv *, jclass, jint, jlong, jlong, jlong);
+
+/*
+ * Class:     com_sovworks_eds_crypto_LocalEncryptedFileXTS
+ * Method:    getSize
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_com_sovworks_eds_crypto_LocalEncryptedFileXTS_getSize
+  (JNIEnv *, jclass, jlong);
 
 /*
  * Class:     com_sovworks_eds_crypto_LocalEncryptedFileXTS
@@ -9,6 +9,7 @@
 #include <string.h>  // <-- für memset
 #include <unistd.h>
 #include <fcntl.h>
+#include <sys/stat.h>
 #include <android/log.h>
 #include <block_cipher.h>
 #include "../xts/xts.h"
@@ -27,40 +28,65 @@ typedef struct
     uint8_t buffer[BUFFER_SIZE];
     int is_buffer_empty, is_buffer_mod;
     off64_t current_position;    
+    off64_t data_offset;
+    int64_t first_sector_index;
     xts_context *xts;
     int fd;
 } context_t;
 
+static jlong create_context(int fd, jlong xtsContextPointer, jlong dataOffset, jlong firstSectorIndex)
+{
+    context_t *ctx = malloc(sizeof(context_t));
+    if(ctx == NULL)
+    {
+        close(fd);
+        return 0;
+    }
+    memset(ctx,0,sizeof(context_t));
+    ctx->xts = (xts_context *)xtsContextPointer;
+    ctx->xts->allow_skip = 0;
+    ctx->fd = fd;
+    ctx->data_offset = dataOffset;
+    ctx->first_sector_index = firstSectorIndex;
+    ctx->is_buffer_empty = 1;
+    return (jlong)ctx;
+}
+
 JNIEXPORT jlong JNICALL Java_com_sovworks_eds_crypto_LocalEncryptedFileXTS_initContext(
     JNIEnv *env, 
     jclass cls, 
     jstring pathString, 
     jboolean readOnly, 
-    jlong xtsContextPointer)
+    jlong xtsContextPointer,
+    jlong dataOffset,
+    jlong firstSectorIndex)
 {
     const char *path = (*env)->GetStringUTFChars(env, pathString, NULL);
     if (path == NULL)
         return 0;
     int fd = open(path,readOnly ? O_RDONLY : (O_RDWR | O_CREAT));
+    (*env)->ReleaseStringUTFChars(env, pathString, path);
     if(fd<0)
-    {
-        (*env)->ReleaseStringUTFChars(env, pathString, path);
         return 0;
-    }
+    return create_context(fd, xtsContextPointer, dataOffset, firstSectorIndex);
+}
 
-    context_t *ctx = malloc(sizeof(context_t));
-    if(ctx == NULL)
-    {
-        (*env)->ReleaseStringUTFChars(env, pathString, path);
-        close(fd);
+JNIEXPORT jlong JNICALL Java_com_sovworks_eds_crypto_LocalEncryptedFileXTS_initContextFD(
+    JNIEnv *env,
+    jclass cls,
+    jint fd,
+    jlong xtsContextPointer,
+    jlong dataOffset,
+    jlong firstSectorIndex)
+{
+    // The file must be seekable. Pipes and sockets returned by some providers are not.
+    if(lseek64(fd, 0, SEEK_CUR)<0)
         return 0;
-    }
-    memset(ctx,0,sizeof(context_t));
-    ctx->xts = (xts_context *)xtsContextPointer;
-    ctx->xts->allow_skip = 0;
-    ctx->fd = fd;
-    ctx->is_buffer_empty = 1;
-    return (jlong)ctx;
+    // The context owns a duplicate, so the caller may close its descriptor
+    int dfd = dup(fd);
+    if(dfd<0)
+        return 0;
+    return create_context(dfd, xtsContextPointer, dataOffset, firstSectorIndex);
 }
 
 static int get_position_in_buffer(context_t *ctx)
@@ -112,9 +138,11 @@ static int read_buffer(context_t *ctx)
     return offset;
 }
 
-static off64_t get_current_sector_index(context_t *ctx)
+// The sectors are numbered from the start of the encrypted data, e.g. luks ivs are relative to the payload.
+// The buffer may start before the data offset, the sectors there get indexes below the first one.
+static int64_t get_current_sector_index(context_t *ctx)
 {
-    return get_current_buffer_position(ctx) / XTS_SECTOR_SIZE;
+    return (get_current_buffer_position(ctx) - ctx->data_offset) / xts_get_sector_size(ctx->xts) + ctx->first_sector_index;
 }
 
 static void decrypt_buffer(context_t *ctx)
@@ -259,6 +287,17 @@ JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_LocalEncryptedFileXTS_ftrunc
     return ftruncate (ctx->fd, newLength);
 }
 
+JNIEXPORT jlong JNICALL Java_com_sovworks_eds_crypto_LocalEncryptedFileXTS_getSize(
+    JNIEnv *env,
+    jclass cls,
+    jlong context)
+{
+    struct stat64 buf;
+    if(fstat64(((context_t *)context)->fd, &buf))
+        return -1;
+    return buf.st_size;
+}
+
 JNIEXPORT jlong JNICALL Java_com_sovworks_eds_crypto_LocalEncryptedFileXTS_getPosition(
     JNIEnv *env, 
     jclass cls, 
@@ -1,4 +1,6 @@
 #include "com_sovworks_eds_crypto_hash_RIPEMD160.h"
+#include "../kdf/com_sovworks_eds_crypto_kdf_NativePBKDF2.h"
+#include "../kdf/pbkdf2.h"
 
 #include <stdlib.h>
 #include <string.h>  // <-- für memset
@@ -410,3 +412,47 @@ JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_hash_RIPEMD160_finishDigest(
 	rmd160_final(digest,(RMD160_CTX *)contextPtr);
 	(*env)->SetByteArrayRegion(env,res,0,com_sovworks_eds_crypto_hash_RIPEMD160_DIGEST_LENGTH,digest);
 }
+
+/*
+ * Class:     com_sovworks_eds_crypto_hash_RIPEMD160
+ * Method:    copyContext
+ * Signature: (JJ)V
+ */
+JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_hash_RIPEMD160_copyContext(JNIEnv *env, jobject obj, jlong dstContextPtr, jlong srcContextPtr)
+{
+	memcpy((RMD160_CTX *)dstContextPtr, (RMD160_CTX *)srcContextPtr, sizeof(RMD160_CTX));
+}
+
+static void rmd160_hash_init(void *ctx)
+{
+	rmd160_init((RMD160_CTX *)ctx);
+}
+
+static void rmd160_hash_update(void *ctx, const uint8_t *data, size_t len)
+{
+	rmd160_update((RMD160_CTX *)ctx, data, (uint32_t)len);
+}
+
+static void rmd160_hash_final(void *ctx, uint8_t *digest)
+{
+	rmd160_final(digest, (RMD160_CTX *)ctx);
+}
+
+static const pbkdf2_hash RMD160_PBKDF2_HASH = {
+	RIPEMD160_BLOCK_LENGTH,
+	com_sovworks_eds_crypto_hash_RIPEMD160_DIGEST_LENGTH,
+	sizeof(RMD160_CTX),
+	rmd160_hash_init,
+	rmd160_hash_update,
+	rmd160_hash_final
+};
+
+/*
+ * Class:     com_sovworks_eds_crypto_kdf_NativePBKDF2
+ * Method:    deriveKeyRIPEMD160
+ * Signature: ([B[BII[BLcom/sovworks/eds/crypto/kdf/NativePBKDF2$ProgressListener;)I
+ */
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_kdf_NativePBKDF2_deriveKeyRIPEMD160(JNIEnv *env, jclass cls, jbyteArray password, jbyteArray salt, jint iterations, jint firstBlock, jbyteArray out, jobject progressListener)
+{
+	return pbkdf2_hmac_jni(env, &RMD160_PBKDF2_HASH, password, salt, iterations, firstBlock, out, progressListener);
+}
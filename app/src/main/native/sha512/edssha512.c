@@ -0,0 +1,32 @@
+#include "../kdf/com_sovworks_eds_crypto_kdf_NativePBKDF2.h"
+#include "../kdf/pbkdf2.h"
+#include "sha512.h"
+
+static void sha512_hash_init(void *ctx)
+{
+	sha512_init((SHA512_CTX *)ctx);
+}
+
+static void sha512_hash_update(void *ctx, const uint8_t *data, size_t len)
+{
+	sha512_update((SHA512_CTX *)ctx, data, len);
+}
+
+static void sha512_hash_final(void *ctx, uint8_t *digest)
+{
+	sha512_final((SHA512_CTX *)ctx, digest);
+}
+
+static const pbkdf2_hash SHA512_PBKDF2_HASH = {
+	SHA512_BLOCK_LENGTH,
+	SHA512_DIGEST_LENGTH,
+	sizeof(SHA512_CTX),
+	sha512_hash_init,
+	sha512_hash_update,
+	sha512_hash_final
+};
+
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_kdf_NativePBKDF2_deriveKeySHA512(JNIEnv *env, jclass cls, jbyteArray password, jbyteArray salt, jint iterations, jint firstBlock, jbyteArray out, jobject progressListener)
+{
+	return pbkdf2_hmac_jni(env, &SHA512_PBKDF2_HASH, password, salt, iterations, firstBlock, out, progressListener);
+}
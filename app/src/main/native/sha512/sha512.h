@@ -0,0 +1,21 @@
+#ifndef EDS_SHA512_H
+#define EDS_SHA512_H
+
+#include <stdint.h>
+#include <stddef.h>
+
+#define SHA512_BLOCK_LENGTH 128
+#define SHA512_DIGEST_LENGTH 64
+
+typedef struct SHA512Context
+{
+	uint64_t state[8];
+	uint64_t count;
+	uint8_t buffer[SHA512_BLOCK_LENGTH];
+} SHA512_CTX;
+
+void sha512_init(SHA512_CTX *ctx);
+void sha512_update(SHA512_CTX *ctx, const uint8_t *input, size_t len);
+void sha512_final(SHA512_CTX *ctx, uint8_t *digest);
+
+#endif //EDS_SHA512_H
@@ -61,6 +61,14 @@ JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_hash_Whirlpool_updateDigest
 JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_hash_Whirlpool_finishDigest
   (JNIEnv *, jobject, jlong, jbyteArray);
 
+/*
+ * Class:     com_sovworks_eds_crypto_hash_Whirlpool
+ * Method:    copyContext
+ * Signature: (JJ)V
+ */
+JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_hash_Whirlpool_copyContext
+  (JNIEnv *, jobject, jlong, jlong);
+
 #ifdef __cplusplus
 }
 #endif
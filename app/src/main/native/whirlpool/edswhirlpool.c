@@ -2,6 +2,8 @@
 
 #include <memory.h>
 #include "whirlpool.h"
+#include "../kdf/com_sovworks_eds_crypto_kdf_NativePBKDF2.h"
+#include "../kdf/pbkdf2.h"
 
 
 #pragma GCC diagnostic ignored "-Wint-to-pointer-cast"
@@ -48,3 +50,38 @@ JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_hash_Whirlpool_finishDigest(
 	WHIRLPOOL_finalize ((WHIRLPOOL_CTX *)contextPtr, digest);
 	(*env)->SetByteArrayRegion(env,res,0,DIGESTBYTES,digest);
 }
+
+JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_hash_Whirlpool_copyContext(JNIEnv *env, jobject obj, jlong dstContextPtr, jlong srcContextPtr)
+{
+	memcpy((WHIRLPOOL_CTX *)dstContextPtr, (WHIRLPOOL_CTX *)srcContextPtr, sizeof(WHIRLPOOL_CTX));
+}
+
+static void whirlpool_hash_init(void *ctx)
+{
+	memset(ctx, 0, sizeof(WHIRLPOOL_CTX));
+	WHIRLPOOL_init((WHIRLPOOL_CTX *)ctx);
+}
+
+static void whirlpool_hash_update(void *ctx, const uint8_t *data, size_t len)
+{
+	WHIRLPOOL_add(data, (uint32_t)(len*8), (WHIRLPOOL_CTX *)ctx);
+}
+
+static void whirlpool_hash_final(void *ctx, uint8_t *digest)
+{
+	WHIRLPOOL_finalize((WHIRLPOOL_CTX *)ctx, digest);
+}
+
+static const pbkdf2_hash WHIRLPOOL_PBKDF2_HASH = {
+	WBLOCKBYTES,
+	DIGESTBYTES,
+	sizeof(WHIRLPOOL_CTX),
+	whirlpool_hash_init,
+	whirlpool_hash_update,
+	whirlpool_hash_final
+};
+
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_kdf_NativePBKDF2_deriveKeyWhirlpool(JNIEnv *env, jclass cls, jbyteArray password, jbyteArray salt, jint iterations, jint firstBlock, jbyteArray out, jobject progressListener)
+{
+	return pbkdf2_hmac_jni(env, &WHIRLPOOL_PBKDF2_HASH, password, salt, iterations, firstBlock, out, progressListener);
+}
@@ -35,6 +35,14 @@ JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_modes_XTS_closeContext
 JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_modes_XTS_attachNativeCipher
   (JNIEnv *, jobject, jlong, jlong, jlong);
 
+/*
+ * Class:     com_sovworks_eds_crypto_modes_XTS
+ * Method:    setSectorSize
+ * Signature: (JI)V
+ */
+JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_modes_XTS_setSectorSize
+  (JNIEnv *, jobject, jlong, jint);
+
 /*
  * Class:     com_sovworks_eds_crypto_modes_XTS
  * Method:    encrypt
@@ -51,6 +59,22 @@ JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_XTS_encrypt
 JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_XTS_decrypt
   (JNIEnv *, jobject, jbyteArray, jint, jint, jlong, jlong);
 
+/*
+ * Class:     com_sovworks_eds_crypto_modes_XTS
+ * Method:    encryptDirect
+ * Signature: (Ljava/nio/ByteBuffer;IIJJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_XTS_encryptDirect
+  (JNIEnv *, jobject, jobject, jint, jint, jlong, jlong);
+
+/*
+ * Class:     com_sovworks_eds_crypto_modes_XTS
+ * Method:    decryptDirect
+ * Signature: (Ljava/nio/ByteBuffer;IIJJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_XTS_decryptDirect
+  (JNIEnv *, jobject, jobject, jint, jint, jlong, jlong);
+
 #ifdef __cplusplus
 }
 #endif
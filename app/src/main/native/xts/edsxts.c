@@ -248,10 +248,10 @@ static void attach_ciphers_to_tail(xts_context *ctx,block_cipher_interface *ciph
 		ctx->ciphers_head = ctx->ciphers_tail;
 }
 
-static int is_buffer_empty(uint8_t *buf)
+static int is_buffer_empty(uint8_t *buf, int length)
 {
     int i;
-    for(i=0;i<XTS_SECTOR_SIZE;i++)
+    for(i=0;i<length;i++)
         if(buf[i])
             return 0;
     return 1;
@@ -262,15 +262,15 @@ void xts_encrypt(xts_context *context, uint8_t *data, int offset, int length, ui
     uint64_t sector_index;
     uint8_t *cur;
     cipher_pair *cp = context->ciphers_head;  
-    int left, incr;
+    int left, incr, sector_size = xts_get_sector_size(context);
 
     while(cp!=NULL)
     {
-        for(cur = data + offset,left = length, incr = XTS_SECTOR_SIZE, sector_index = start_sector_index; left > 0; sector_index++, cur += incr, left-=incr )
+        for(cur = data + offset,left = length, incr = sector_size, sector_index = start_sector_index; left > 0; sector_index++, cur += incr, left-=incr )
         {
-            if(left < XTS_SECTOR_SIZE)
+            if(left < sector_size)
                 incr = left;
-            if(!context->allow_skip || !is_buffer_empty(cur))
+            if(!context->allow_skip || !is_buffer_empty(cur, incr))
                 xts_encrypt_sector(cp->cipherA, cp->cipherB, cur, incr, sector_index);
         }
         cp = cp->next;
@@ -282,15 +282,15 @@ void xts_decrypt(xts_context *context, uint8_t *data, int offset, int length, ui
     uint64_t sector_index;
     uint8_t *cur;
     cipher_pair *cp = context->ciphers_tail;  
-    int left, incr;
+    int left, incr, sector_size = xts_get_sector_size(context);
 
     while(cp!=NULL)
     {
-        for(cur = data + offset,left = length, incr = XTS_SECTOR_SIZE, sector_index = start_sector_index; left > 0; sector_index++, cur += incr, left-=incr )
+        for(cur = data + offset,left = length, incr = sector_size, sector_index = start_sector_index; left > 0; sector_index++, cur += incr, left-=incr )
         {
-            if(left < XTS_SECTOR_SIZE)
+            if(left < sector_size)
                 incr = left;
-            if(!context->allow_skip || !is_buffer_empty(cur))
+            if(!context->allow_skip || !is_buffer_empty(cur, incr))
                 xts_decrypt_sector(cp->cipherA, cp->cipherB, cur, incr, sector_index);
         }  
         cp = cp->prev;
@@ -309,6 +309,11 @@ JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_modes_XTS_attachNativeCipher
 	attach_ciphers_to_tail(ctx,(block_cipher_interface *)cipherAPtr,(block_cipher_interface *)cipherBPtr);
 }
 
+JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_modes_XTS_setSectorSize(JNIEnv *env, jobject obj, jlong context, jint sector_size)
+{
+	((xts_context *)context)->sector_size = sector_size;
+}
+
 JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_XTS_encrypt(JNIEnv *env, jobject obj, jbyteArray data, jint offset, jint length, jlong sector, jlong context)
 {
 	jbyte *raw_data = (*env)->GetPrimitiveArrayCritical(env,data,NULL);
@@ -329,6 +334,24 @@ JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_XTS_decrypt(JNIEnv *en
 	return 0;
 }
 
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_XTS_encryptDirect(JNIEnv *env, jobject obj, jobject data, jint offset, jint length, jlong sector, jlong context)
+{
+	uint8_t *raw_data = (uint8_t *)(*env)->GetDirectBufferAddress(env,data);
+	if(raw_data == NULL)
+		return -1;
+	xts_encrypt((xts_context *)context, raw_data, offset, length, (uint64_t)sector);
+	return 0;
+}
+
+JNIEXPORT jint JNICALL Java_com_sovworks_eds_crypto_modes_XTS_decryptDirect(JNIEnv *env, jobject obj, jobject data, jint offset, jint length, jlong sector, jlong context)
+{
+	uint8_t *raw_data = (uint8_t *)(*env)->GetDirectBufferAddress(env,data);
+	if(raw_data == NULL)
+		return -1;
+	xts_decrypt((xts_context *)context, raw_data, offset, length, (uint64_t)sector);
+	return 0;
+}
+
 JNIEXPORT void JNICALL Java_com_sovworks_eds_crypto_modes_XTS_closeContext(JNIEnv *env, jobject obj, jlong context)
 {
 	if((void *)context!=NULL)
@@ -18,8 +18,15 @@ typedef struct
     cipher_pair *ciphers_head;
     cipher_pair *ciphers_tail;
     int allow_skip;
+    int sector_size;
 } xts_context;
 
+// Size of the data unit encrypted using a single tweak, XTS_SECTOR_SIZE if not set
+static inline int xts_get_sector_size(const xts_context *context)
+{
+    return context->sector_size > 0 ? context->sector_size : XTS_SECTOR_SIZE;
+}
+
 void xts_encrypt(xts_context *context, uint8_t *data, int offset, int length, uint64_t start_sector_index);
 void xts_decrypt(xts_context *context, uint8_t *data, int offset, int length, uint64_t start_sector_index);
 
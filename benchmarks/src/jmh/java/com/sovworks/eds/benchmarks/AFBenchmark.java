@@ -0,0 +1,93 @@
+package com.sovworks.eds.benchmarks;
+
+import com.sovworks.eds.crypto.AF;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * Anti-forensic split and merge of a LUKS master key. The "legacy" implementation is
+ * the AF code before the scratch buffers were reused.
+ */
+@State(Scope.Thread)
+public class AFBenchmark
+{
+	@Param({"af", "legacy"})
+	public String impl;
+
+	@Param({"sha1", "sha256", "sha512"})
+	public String hash;
+
+	@Param({"32", "64"})
+	public int keySize;
+
+	/**
+	 * 4000 is the number of stripes used by cryptsetup for LUKS1 key slots
+	 */
+	@Param({"4000"})
+	public int stripes;
+
+	@Setup
+	public void setup() throws NoSuchAlgorithmException, DigestException
+	{
+		MessageDigest md = MessageDigest.getInstance(getJCAName(hash));
+		_isLegacy = "legacy".equals(impl);
+		if(_isLegacy)
+			_legacyAF = new LegacyAF(md, keySize);
+		else
+			_af = new AF(md, keySize);
+		_key = new byte[keySize];
+		new Random(1).nextBytes(_key);
+		_split = new byte[keySize*stripes];
+		_merged = new byte[keySize];
+		split();
+	}
+
+	@Benchmark
+	public byte[] split() throws DigestException
+	{
+		if(_isLegacy)
+			_legacyAF.split(_key, 0, _split, 0, stripes);
+		else
+			_af.split(_key, 0, _split, 0, stripes);
+		return _split;
+	}
+
+	@Benchmark
+	public byte[] merge() throws DigestException
+	{
+		if(_isLegacy)
+			_legacyAF.merge(_split, 0, _merged, 0, stripes);
+		else
+			_af.merge(_split, 0, _merged, 0, stripes);
+		return _merged;
+	}
+
+	private AF _af;
+	private LegacyAF _legacyAF;
+	private boolean _isLegacy;
+	private byte[] _key, _split, _merged;
+
+	private static String getJCAName(String hash)
+	{
+		switch (hash)
+		{
+			case "sha1":
+				return "SHA-1";
+			case "sha256":
+				return "SHA-256";
+			case "sha512":
+				return "SHA-512";
+			default:
+				throw new IllegalArgumentException("Unknown hash: " + hash);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.sovworks.eds.benchmarks;
+
+import com.sovworks.eds.crypto.EncryptionEngineException;
+import com.sovworks.eds.crypto.engines.AESXTSJCE;
+import com.sovworks.eds.fs.encfs.ciphers.CipherBase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.security.DigestException;
+import java.util.Random;
+
+/**
+ * Derivation of the EncFS per-block ivs (the score is the number of ivs per second)
+ */
+@State(Scope.Thread)
+public class EncFsIVBenchmark
+{
+	/**
+	 * The iv derivation doesn't depend on the base cipher mode. A pure java engine with
+	 * a 32 byte key and a 16 byte iv (same as EncFS AES-256) lets the benchmark run without
+	 * the native libraries.
+	 */
+	static class IVCipher extends CipherBase
+	{
+		IVCipher()
+		{
+			super(new AESXTSJCE(32));
+		}
+
+		byte[] getBlockIV(long blockIndex) throws DigestException, EncryptionEngineException
+		{
+			return calcIV(blockIndex);
+		}
+	}
+
+	@Setup
+	public void setup() throws EncryptionEngineException
+	{
+		_cipher = new IVCipher();
+		byte[] key = new byte[_cipher.getKeySize()];
+		new Random(1).nextBytes(key);
+		_cipher.setKey(key);
+		_cipher.init();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		_cipher.close();
+	}
+
+	@Benchmark
+	public byte[] calcIV() throws DigestException, EncryptionEngineException
+	{
+		return _cipher.getBlockIV(_blockIndex++);
+	}
+
+	private IVCipher _cipher;
+	private long _blockIndex;
+}
@@ -0,0 +1,116 @@
+package com.sovworks.eds.benchmarks;
+
+import com.sovworks.eds.crypto.EncryptionEngineException;
+import com.sovworks.eds.crypto.FileEncryptionEngine;
+import com.sovworks.eds.crypto.engines.AESCBC;
+import com.sovworks.eds.crypto.engines.AESXTS;
+import com.sovworks.eds.crypto.engines.AESXTSJCE;
+import com.sovworks.eds.crypto.engines.GOSTXTS;
+import com.sovworks.eds.crypto.engines.SerpentCBC;
+import com.sovworks.eds.crypto.engines.SerpentXTS;
+import com.sovworks.eds.crypto.engines.TwofishCBC;
+import com.sovworks.eds.crypto.engines.TwofishXTS;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+
+/**
+ * Encryption and decryption throughput of the container engines. The "bytes" secondary result
+ * is the throughput in bytes per second.
+ * The engines except aes-xts-jce require the native libraries (see benchmarks/build.gradle).
+ */
+@State(Scope.Thread)
+public class EngineBenchmark
+{
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Processed
+	{
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset()
+		{
+			bytes = 0;
+		}
+	}
+
+	@Param({"aes-xts-jce", "aes-xts", "serpent-xts", "twofish-xts", "gost-xts", "aes-cbc", "serpent-cbc", "twofish-cbc"})
+	public String engine;
+
+	@Param({"512", "4096", "65536", "1048576"})
+	public int bufferSize;
+
+	@Setup
+	public void setup() throws EncryptionEngineException
+	{
+		_engine = createEngine(engine);
+		byte[] key = new byte[_engine.getKeySize()];
+		Random r = new Random(1);
+		r.nextBytes(key);
+		_engine.setKey(key);
+		_engine.init();
+		_engine.setIV(new byte[_engine.getIVSize()]);
+		_engine.setIncrementIV(true);
+		_buf = new byte[bufferSize];
+		r.nextBytes(_buf);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		_engine.close();
+	}
+
+	@Benchmark
+	public byte[] encrypt(Processed p) throws EncryptionEngineException
+	{
+		_engine.encrypt(_buf, 0, _buf.length);
+		p.bytes += _buf.length;
+		return _buf;
+	}
+
+	@Benchmark
+	public byte[] decrypt(Processed p) throws EncryptionEngineException
+	{
+		_engine.decrypt(_buf, 0, _buf.length);
+		p.bytes += _buf.length;
+		return _buf;
+	}
+
+	private FileEncryptionEngine _engine;
+	private byte[] _buf;
+
+	private static FileEncryptionEngine createEngine(String name)
+	{
+		switch (name)
+		{
+			case "aes-xts-jce":
+				return new AESXTSJCE();
+			case "aes-xts":
+				return new AESXTS();
+			case "serpent-xts":
+				return new SerpentXTS();
+			case "twofish-xts":
+				return new TwofishXTS();
+			case "gost-xts":
+				return new GOSTXTS();
+			case "aes-cbc":
+				return new AESCBC();
+			case "serpent-cbc":
+				return new SerpentCBC();
+			case "twofish-cbc":
+				return new TwofishCBC();
+			default:
+				throw new IllegalArgumentException("Unknown engine: " + name);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.sovworks.eds.benchmarks;
+
+import com.sovworks.eds.crypto.MACFile;
+import com.sovworks.eds.fs.encfs.macs.SHA1MACCalculator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * Checking of the EncFS block MACs (the score is the number of checked blocks per second)
+ */
+@State(Scope.Thread)
+public class MACBenchmark
+{
+	@Param({"1024", "4096"})
+	public int blockSize;
+
+	@Param({"8"})
+	public int macBytes;
+
+	@Param({"0", "8"})
+	public int randBytes;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		Random r = new Random(1);
+		byte[] key = new byte[KEY_SIZE + 16];
+		r.nextBytes(key);
+		_macCalc = new SHA1MACCalculator(KEY_SIZE);
+		_macCalc.init(key);
+		int dataSize = blockSize - macBytes - randBytes;
+		byte[] data = new byte[dataSize];
+		r.nextBytes(data);
+		_block = new byte[blockSize];
+		_dst = new byte[blockSize];
+		MACFile.makeMACCheckedBuffer(data, 0, dataSize, _block, _macCalc, macBytes, randBytes, new SecureRandom());
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		_macCalc.close();
+	}
+
+	@Benchmark
+	public int checkBlock() throws IOException
+	{
+		return MACFile.getMACCheckedBuffer(_block, 0, blockSize, 0, _dst, _macCalc, macBytes, randBytes, false, false);
+	}
+
+	private static final int KEY_SIZE = 32;
+
+	private SHA1MACCalculator _macCalc;
+	private byte[] _block, _dst;
+}
@@ -0,0 +1,89 @@
+package com.sovworks.eds.benchmarks;
+
+import com.sovworks.eds.crypto.EncryptionEngineException;
+import com.sovworks.eds.crypto.kdf.HMACRIPEMD160KDF;
+import com.sovworks.eds.crypto.kdf.HMACSHA1KDF;
+import com.sovworks.eds.crypto.kdf.HMACSHA512KDF;
+import com.sovworks.eds.crypto.kdf.HMACWhirlpoolKDF;
+import com.sovworks.eds.crypto.kdf.HashBasedPBKDF2;
+import com.sovworks.eds.crypto.kdf.PBKDF;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * PBKDF2 iterations per second for the hash functions used by the container formats.
+ * The key length is equal to one hash block, so the score is the number of hmac iterations per second.
+ * The native implementations are used only if the native libraries are available.
+ */
+@State(Scope.Thread)
+public class PBKDF2Benchmark
+{
+	public static final int ITERATIONS = 10000;
+
+	@Param({"sha1", "sha256", "sha512", "ripemd160", "whirlpool"})
+	public String hash;
+
+	@Param({"true", "false"})
+	public boolean nativeImpl;
+
+	@Setup
+	public void setup() throws NoSuchAlgorithmException
+	{
+		_prevNativeFlag = PBKDF.ENABLE_NATIVE_PBKDF2;
+		PBKDF.ENABLE_NATIVE_PBKDF2 = nativeImpl;
+		switch (hash)
+		{
+			case "sha1":
+				_kdf = new HMACSHA1KDF();
+				_keyLen = 20;
+				break;
+			case "sha256":
+				_kdf = new HashBasedPBKDF2(MessageDigest.getInstance("SHA-256"));
+				_keyLen = 32;
+				break;
+			case "sha512":
+				_kdf = new HMACSHA512KDF();
+				_keyLen = 64;
+				break;
+			case "ripemd160":
+				_kdf = new HMACRIPEMD160KDF();
+				_keyLen = 20;
+				break;
+			case "whirlpool":
+				_kdf = new HMACWhirlpoolKDF();
+				_keyLen = 64;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown hash: " + hash);
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		PBKDF.ENABLE_NATIVE_PBKDF2 = _prevNativeFlag;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ITERATIONS)
+	public byte[] deriveKey() throws EncryptionEngineException, DigestException
+	{
+		return _kdf.deriveKey(_password, _salt, ITERATIONS, _keyLen);
+	}
+
+	private final byte[] _password = "benchmark password".getBytes();
+	private final byte[] _salt = new byte[64];
+	private PBKDF _kdf;
+	private int _keyLen;
+	private boolean _prevNativeFlag;
+}
@@ -0,0 +1,9 @@
+package android.annotation;
+
+/**
+ * Stand-in for the android annotation, lets the shared sources compile on a plain JVM
+ */
+public @interface SuppressLint
+{
+	String[] value();
+}
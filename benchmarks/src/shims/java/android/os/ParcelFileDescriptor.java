@@ -0,0 +1,25 @@
+package android.os;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+
+/**
+ * Stand-in for the android class referenced by the fs interfaces. Not used by the benchmarks.
+ */
+public class ParcelFileDescriptor implements Closeable
+{
+	public FileDescriptor getFileDescriptor()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	public int getFd()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close()
+	{
+	}
+}
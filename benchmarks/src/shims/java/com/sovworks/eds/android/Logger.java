@@ -0,0 +1,27 @@
+package com.sovworks.eds.android;
+
+/**
+ * Console replacement of the application logger for the benchmarks
+ */
+public class Logger
+{
+	public static final String TAG = "EDS";
+
+	public static void log(String message)
+	{
+		System.err.println(TAG + ": " + message);
+	}
+
+	public static void log(Throwable e)
+	{
+		e.printStackTrace();
+	}
+
+	public static void debug(String message)
+	{
+		if(DEBUG)
+			log(message);
+	}
+
+	private static final boolean DEBUG = Boolean.getBoolean("eds.debug");
+}
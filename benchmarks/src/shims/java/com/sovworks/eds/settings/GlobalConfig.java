@@ -0,0 +1,12 @@
+package com.sovworks.eds.settings;
+
+/**
+ * Replacement of the flavor specific config for the benchmarks
+ */
+public final class GlobalConfig
+{
+	public static boolean isDebug()
+	{
+		return false;
+	}
+}